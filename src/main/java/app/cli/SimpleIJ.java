@@ -2,6 +2,8 @@ package app.cli;
 
 import app.index.RID;
 import app.index.SearchKey;
+import app.memory.BufferMgr;
+import app.memory.LogManager;
 import app.metadata.MetadataManager;
 import app.query.Scan;
 import app.record.Layout;
@@ -12,6 +14,8 @@ import app.sql.Ast;
 import app.sql.Parser;
 import app.sql.Planner;
 import app.storage.FileMgr;
+import app.storage.MappedFileMgr;
+import app.tx.RecoveryMgr;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
@@ -28,23 +32,53 @@ import java.util.stream.Collectors;
  * - .tables / .indexes メタコマンド
  * - メタコマンド(:help, :exit, :reset, :demo, :plan)
  * - 結果をASCIIテーブルで表示
+ * - 起動引数 --mmap で読み出しをメモリマップ（MappedFileMgr）に切り替え
+ * - INSERT/UPDATE/DELETE は文単位の Tx でログを取り、起動時にリカバリする
  */
 public class SimpleIJ {
 
+    private final Path dataDir;
     private final FileMgr fm;
     private final MetadataManager mdm;
-    private final Planner planner;
+    private LogManager log;
+    private Planner planner;
     private boolean showPlan = true; // [PLAN] ログは既存実装が出すので、ここではon/offのガイドのみ
 
     public SimpleIJ(Path dataDir) {
-        this.fm = new FileMgr(dataDir, 4096);
+        this(dataDir, false);
+    }
+
+    public SimpleIJ(Path dataDir, boolean mmap) {
+        // 書き込みは OS へ渡すだけにし、文の終わり（Planner 側）でまとめて sync する
+        this.fm = mmap
+                ? new MappedFileMgr(dataDir, 4096, FileMgr.Durability.DEFERRED)
+                : new FileMgr(dataDir, 4096, FileMgr.Durability.DEFERRED);
+        this.dataDir = dataDir;
         this.mdm = new MetadataManager(fm);
-        this.planner = new Planner(fm, mdm);
+        openLog();
+        BufferMgr.shared(fm).startPageWriter(); // dirty ページを裏で書き出す（fm.close で停止）
+    }
+
+    /** ログを開き、前回の異常終了分を復旧してから DML をログ付きで実行させる */
+    private void openLog() {
+        BufferMgr bm = BufferMgr.shared(fm);
+        this.log = new LogManager(dataDir);
+        bm.attachLog(log);
+        new RecoveryMgr(fm, bm, log).recover();
+        this.planner = new Planner(fm, mdm, null, log);
     }
 
     public static void main(String[] args) throws Exception {
-        SimpleIJ ij = new SimpleIJ(Path.of("./data"));
-        ij.repl();
+        boolean mmap = Arrays.asList(args).contains("--mmap");
+        SimpleIJ ij = new SimpleIJ(Path.of("./data"), mmap);
+        if (mmap)
+            System.out.println("(read path: memory-mapped)");
+        try {
+            ij.repl();
+        } finally {
+            ij.fm.close(); // 未同期の書き込みを force してから閉じる（WAL のためログはまだ開いておく）
+            ij.log.close();
+        }
     }
 
     private void repl() throws Exception {
@@ -141,12 +175,17 @@ public class SimpleIJ {
             case ":exit":
                 return false;
             case ":reset":
+                fm.close(); // 開いたままのファイルを閉じてから削除
+                log.close();
                 Util.deleteDataDir();
+                openLog();
+                BufferMgr.shared(fm).startPageWriter(); // close で止まった分を張り直す
                 System.out.println("data directory removed.");
                 return true;
             case ":demo":
                 Util.ensureDataDir();
                 createDemoData();
+                fm.syncAll();
                 System.out.println("demo data created: tables 'names', 'scores'");
                 return true;
             case ":plan on":
@@ -644,9 +683,9 @@ public class SimpleIJ {
             idx = new app.index.btree.BTreeIndex(fm, ci.indexName, ci.tableName + ".tbl");
             idx.open();
 
-            // 3) 全件スキャンして (key, RID) を投入
+            // 3) 全件スキャンして (key, RID) を投入（リング経由で読み、内部ノードを追い出さない）
             TableFile tf = new TableFile(fm, ci.tableName + ".tbl", mdm.getLayout(ci.tableName));
-            try (TableScan ts = new TableScan(fm, tf)) {
+            try (TableScan ts = new TableScan(fm, tf, tf.bufferMgr().newRing())) {
                 ts.beforeFirst();
                 while (ts.next()) {
                     SearchKey key = SearchKey.ofInt(ts.getInt(ci.columnName));
@@ -654,6 +693,7 @@ public class SimpleIJ {
                     idx.insert(key, rid);
                 }
             }
+            fm.syncAll();
         } catch (Exception buildEx) {
             // --- rollback ---
             try {
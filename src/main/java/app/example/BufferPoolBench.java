@@ -0,0 +1,82 @@
+// src/main/java/app/example/BufferPoolBench.java
+package app.example;
+
+import app.memory.Buffer;
+import app.memory.BufferMgr;
+import app.memory.ClockPolicy;
+import app.storage.BlockId;
+import app.storage.FileMgr;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BufferMgr の pin/unpin スループットをスレッド数 1→32 で測る簡易ベンチ。
+ * 作業集合はプールに収まる（ヒット経路＝ロック競合だけを見る）。
+ * 使い方: BufferPoolBench [stripes] [seconds]（stripes=1 で従来の単一ロック相当）
+ */
+public class BufferPoolBench {
+    private static final int BLOCK_SIZE = 4096;
+    private static final int FRAMES = 1024;
+    private static final int BLOCKS = 512;
+    private static final String FILE = "bench.tbl";
+
+    public static void main(String[] args) throws Exception {
+        int stripes = args.length > 0 ? Integer.parseInt(args[0]) : BufferMgr.MAX_STRIPES;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+        Path dir = Files.createTempDirectory("bufbench");
+        try (FileMgr fm = new FileMgr(dir, BLOCK_SIZE, FileMgr.Durability.DEFERRED)) {
+            for (int i = 0; i < BLOCKS; i++)
+                fm.append(FILE);
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, FRAMES, ClockPolicy::new,
+                    BufferMgr.DEFAULT_MAX_WAIT_MILLIS, stripes);
+            BlockId[] blocks = new BlockId[BLOCKS];
+            for (int i = 0; i < BLOCKS; i++) {
+                blocks[i] = new BlockId(FILE, i);
+                bm.unpin(bm.pin(blocks[i])); // 予熱
+            }
+
+            System.out.printf("stripes=%d frames=%d blocks=%d%n", bm.stripeCount(), FRAMES, BLOCKS);
+            for (int threads = 1; threads <= 32; threads *= 2) {
+                long ops = run(bm, blocks, threads, seconds);
+                System.out.printf("threads=%2d  %,12d pin+unpin/s%n", threads, ops / seconds);
+            }
+        }
+    }
+
+    private static long run(BufferMgr bm, BlockId[] blocks, int threads, int seconds) throws Exception {
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> ts = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread th = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long n = 0;
+                while ((n & 1023) != 0 || System.nanoTime() < end) {
+                    Buffer b = bm.pin(blocks[rnd.nextInt(blocks.length)]);
+                    bm.unpin(b);
+                    n++;
+                }
+                ops.add(n);
+            });
+            th.start();
+            ts.add(th);
+        }
+        start.countDown();
+        for (Thread th : ts)
+            th.join();
+        return ops.sum();
+    }
+}
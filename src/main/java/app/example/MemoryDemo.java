@@ -20,9 +20,14 @@ public class MemoryDemo {
         Page p = buf.contents();
         int offId = 0;
         int offName = offId + Integer.BYTES;
-        p.setInt(offId, 1);
-        p.setString(offName, "Ada Lovelace");
-        buf.setDirty();
+        buf.latch().writeLock().lock(); // ページの書き換えは書き込みラッチ内で
+        try {
+            p.setInt(offId, 1);
+            p.setString(offName, "Ada Lovelace");
+            buf.setDirty();
+        } finally {
+            buf.latch().writeLock().unlock();
+        }
         bm.unpin(buf); // ここでは unpin しても自動 flush しない
 
         // 3) 読み出し確認（別バッファで pin → read）
@@ -2,6 +2,7 @@ package app.example;
 
 import app.memory.*;
 import app.storage.*;
+import app.tx.RecoveryMgr;
 import app.tx.Tx;
 
 import java.nio.file.Path;
@@ -16,6 +17,8 @@ public class TxDemo {
         FileMgr fm = new FileMgr(dataDir, blockSize);
         BufferMgr bm = new BufferMgr(fm, blockSize, 4);
         try (LogManager log = new LogManager(logDir)) {
+            // 前回の異常終了分を復旧してから始める
+            new RecoveryMgr(fm, bm, log).recover();
 
             // ターゲットブロックを準備
             String fname = "acct.tbl";
@@ -23,8 +26,13 @@ public class TxDemo {
 
             // 初期値0を書き出し（Txを使わず直接）
             var init = bm.pin(blk);
-            init.contents().setInt(0, 0);
-            init.setDirty();
+            init.latch().writeLock().lock();
+            try {
+                init.contents().setInt(0, 0);
+                init.setDirty();
+            } finally {
+                init.latch().writeLock().unlock();
+            }
             init.flushIfDirty();
             bm.unpin(init);
 
@@ -32,22 +40,26 @@ public class TxDemo {
             try (Tx tx1 = new Tx(fm, bm, log, logDir)) {
                 tx1.setInt(blk, 0, 100);
                 tx1.commit();
-                System.out.println("After tx1 commit: " + readInt(fm, blk));
+                System.out.println("After tx1 commit: " + readInt(bm, blk));
             }
 
             // 2) Tx2: +200 するが rollback（→ 100 に戻るはず）
             try (Tx tx2 = new Tx(fm, bm, log, logDir)) {
                 tx2.setInt(blk, 0, 200);
-                System.out.println("During tx2 (before rollback): " + readInt(fm, blk));
+                System.out.println("During tx2 (before rollback): " + readInt(bm, blk));
                 tx2.rollback();
-                System.out.println("After tx2 rollback: " + readInt(fm, blk));
+                System.out.println("After tx2 rollback: " + readInt(bm, blk));
             }
         }
     }
 
-    private static int readInt(FileMgr fm, BlockId blk) {
-        Page p = new Page(fm.blockSize());
-        fm.read(blk, p);
-        return p.getInt(0);
+    // Tx の変更はコミット後もプール上にある（no-force）ので、プール経由で読む
+    private static int readInt(BufferMgr bm, BlockId blk) {
+        Buffer buf = bm.pin(blk);
+        try {
+            return buf.contents().getInt(0);
+        } finally {
+            bm.unpin(buf);
+        }
     }
 }
@@ -27,10 +27,10 @@ public final class IndexRegistry {
         return Optional.ofNullable(map.get(new Key(table, column)));
     }
 
-    /** 既存テーブル全件を走査して索引を構築（INT列のみ） */
+    /** 既存テーブル全件を走査して索引を構築（INT列のみ。走査はリング経由） */
     public void buildHashIndex(String table, String column, TableFile tf, Layout layout) {
         HashIndex idx = Objects.requireNonNull(map.get(new Key(table, column)), "index not registered");
-        try (TableScan scan = new TableScan(fm, tf)) {
+        try (TableScan scan = new TableScan(fm, tf, tf.bufferMgr().newRing())) {
             scan.beforeFirst();
             while (scan.next()) {
                 int key = scan.getInt(column);
@@ -1,24 +1,36 @@
 package app.index.btree;
 
+import app.memory.Buffer;
+import app.memory.BufferMgr;
+import app.memory.LogManager;
 import app.storage.BlockId;
 import app.storage.FileMgr;
 import app.storage.Page;
+import app.tx.Tx;
 
 import java.io.Closeable;
 import java.io.IOException;
 
 import static app.index.btree.BTreeLayouts.*;
 
+/**
+ * B+木ページのビュー。ページ本体は BufferMgr の共有バッファを pin して参照する。
+ * 同じブロックを複数の BTPage で開いても同一の Page を見る（close で unpin）。
+ * プールに WAL が付いていれば、分割で書き換えるページの内容を書き出し前に PAGE_IMAGE として記録する。
+ */
 class BTPage implements Closeable {
     private final FileMgr fm;
+    private final BufferMgr bm;
     private final BlockId blk;
+    private Buffer buf;
     private final Page p;
 
     BTPage(FileMgr fm, BlockId blk) {
         this.fm = fm;
+        this.bm = BufferMgr.shared(fm);
         this.blk = blk;
-        this.p = new Page(fm.blockSize());
-        fm.read(blk, p);
+        this.buf = bm.pin(blk);
+        this.p = buf.contents();
     }
 
     BlockId block() {
@@ -31,7 +43,12 @@ class BTPage implements Closeable {
     }
 
     void setLevel(int v) {
-        p.setInt(OFF_FLAG, v);
+        latch();
+        try {
+            p.setInt(OFF_FLAG, v);
+        } finally {
+            unlatch();
+        }
     }
 
     int keyCount() {
@@ -39,7 +56,12 @@ class BTPage implements Closeable {
     }
 
     void setKeyCount(int n) {
-        p.setInt(OFF_COUNT, n);
+        latch();
+        try {
+            p.setInt(OFF_COUNT, n);
+        } finally {
+            unlatch();
+        }
     }
 
     int prev() {
@@ -47,7 +69,12 @@ class BTPage implements Closeable {
     }
 
     void setPrev(int bno) {
-        p.setInt(OFF_PREV, bno);
+        latch();
+        try {
+            p.setInt(OFF_PREV, bno);
+        } finally {
+            unlatch();
+        }
     }
 
     int next() {
@@ -55,7 +82,12 @@ class BTPage implements Closeable {
     }
 
     void setNext(int bno) {
-        p.setInt(OFF_NEXT, bno);
+        latch();
+        try {
+            p.setInt(OFF_NEXT, bno);
+        } finally {
+            unlatch();
+        }
     }
 
     boolean isLeaf() {
@@ -77,8 +109,13 @@ class BTPage implements Closeable {
 
     void setDirSlot(int slot, int key, int child) {
         int pos = dirSlotPos(slot);
-        p.setInt(pos, key);
-        p.setInt(pos + 4, child);
+        latch();
+        try {
+            p.setInt(pos, key);
+            p.setInt(pos + 4, child);
+        } finally {
+            unlatch();
+        }
     }
 
     // --- leaf slot access (RID を生 int: blockNo + slot)
@@ -100,9 +137,14 @@ class BTPage implements Closeable {
 
     void setLeafSlotRaw(int slot, int key, int blockNo, int ridSlot) {
         int pos = leafSlotPos(slot);
-        p.setInt(pos, key);
-        p.setInt(pos + 4, blockNo);
-        p.setInt(pos + 8, ridSlot);
+        latch();
+        try {
+            p.setInt(pos, key);
+            p.setInt(pos + 4, blockNo);
+            p.setInt(pos + 8, ridSlot);
+        } finally {
+            unlatch();
+        }
     }
 
     // --- binary search helpers
@@ -184,6 +226,8 @@ class BTPage implements Closeable {
                 r.insertDirAt(j, dirKey(i), dirChild(i));
             }
             setKeyCount(splitPos);
+            r.logImage();
+            logImage();
             r.flush();
             return right;
         }
@@ -201,15 +245,24 @@ class BTPage implements Closeable {
             // link maintenance
             r.setNext(next());
             r.setPrev(blk.number());
-            if (next() != -1) {
-                try (BTPage nxt = new BTPage(fm, new BlockId(blk.filename(), next()))) {
+            BTPage nxt = next() != -1 ? new BTPage(fm, new BlockId(blk.filename(), next())) : null;
+            try {
+                if (nxt != null)
                     nxt.setPrev(right.number());
+                setNext(right.number());
+                setKeyCount(splitPos);
+                // 関わるページのイメージをまとめて記録してから書き出す（途中で落ちても REDO で揃う）
+                r.logImage();
+                if (nxt != null)
+                    nxt.logImage();
+                logImage();
+                if (nxt != null)
                     nxt.flush();
-                }
+                r.flush();
+            } finally {
+                if (nxt != null)
+                    nxt.close();
             }
-            setNext(right.number());
-            setKeyCount(splitPos);
-            r.flush();
             return right;
         }
     }
@@ -229,12 +282,49 @@ class BTPage implements Closeable {
         setNext(-1);
     }
 
+    /**
+     * プールに WAL が付いていれば、版を上げた現在の内容を PAGE_IMAGE として記録する。
+     * 書き出しは記録した LSN までログを force してから行われる。
+     */
+    void logImage() {
+        LogManager log = bm.attachedLog();
+        if (log == null || buf == null)
+            return;
+        buf.latch().writeLock().lock();
+        try {
+            p.setInt(OFF_IMAGE_VERSION, p.getInt(OFF_IMAGE_VERSION) + 1);
+            buf.setDirty(Tx.logPageImage(log, blk, p.contents(), OFF_IMAGE_VERSION));
+        } finally {
+            buf.latch().writeLock().unlock();
+        }
+    }
+
+    // ページの書き換えは書き込みラッチ内で行い、dirty もその中で立てる（裏の書き出しが途中の内容を書かないように）
+    private void latch() {
+        buf.latch().writeLock().lock();
+    }
+
+    private void unlatch() {
+        try {
+            buf.setDirty();
+        } finally {
+            buf.latch().writeLock().unlock();
+        }
+    }
+
+    /** 変更があればディスクへ書き戻す（バッファ経由の write-through） */
     void flush() {
-        fm.write(blk, p);
+        if (buf != null)
+            buf.flushIfDirty();
     }
 
+    /** 変更分を書き戻して unpin する（読むだけなら書き込みは発生しない） */
     @Override
     public void close() {
+        if (buf == null)
+            return;
         flush();
+        bm.unpin(buf);
+        buf = null;
     }
 }
@@ -133,6 +133,7 @@ public final class BTreeIndex implements Index {
             p.setDirSlot(0, Integer.MIN_VALUE, leftLeaf.number());
             p.setDirSlot(1, up.sepKey, up.childBlk);
             p.setKeyCount(2);
+            p.logImage();
             p.flush();
         }
         this.root = newRoot;
@@ -147,11 +148,26 @@ public final class BTreeIndex implements Index {
             p.setDirSlot(0, Integer.MIN_VALUE, oldRoot.number());
             p.setDirSlot(1, up.sepKey, up.childBlk);
             p.setKeyCount(2);
+            p.logImage();
             p.flush();
         }
         this.root = newRoot;
     }
 
+    /** key のエントリに rid があるか（カーソルは無効になる） */
+    public boolean contains(SearchKey key, RID rid) {
+        beforeFirst(key);
+        try {
+            while (next())
+                if (rid.equals(bufferedRid))
+                    return true;
+            return false;
+        } finally {
+            closeLeafIfAny();
+            slot = -1;
+        }
+    }
+
     // delete 後にカーソルを無効化（= 直後の next() は false を返すようにする） ---
     @Override
     public void delete(SearchKey key, RID rid) {
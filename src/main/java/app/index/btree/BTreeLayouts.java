@@ -7,7 +7,7 @@ final class BTreeLayouts {
     // ページヘッダ（固定長）
     static final int OFF_FLAG = 0; // >0 : 内部ノードレベル, ==0 : 葉
     static final int OFF_COUNT = 4; // キー数
-    static final int OFF_PARENT = 8; // 親 BlockNo (将来用; 今は未使用でも可)
+    static final int OFF_IMAGE_VERSION = 8; // 分割時にログへ記録したページイメージの版（REDO 要否の判定用）
     static final int OFF_PREV = 12; // 葉の前ページ BlockNo (-1 if none)
     static final int OFF_NEXT = 16; // 葉の次ページ BlockNo (-1 if none)
     static final int HEADER_SIZE = 20;
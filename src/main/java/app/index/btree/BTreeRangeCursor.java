@@ -3,10 +3,17 @@ package app.index.btree;
 import app.index.RangeCursor;
 import app.index.RID;
 import app.index.SearchKey;
+import app.memory.BufferMgr;
+import app.memory.ReadAhead;
+import app.storage.BlockId;
 import app.storage.FileMgr;
 
 final class BTreeRangeCursor implements RangeCursor {
+    // 葉チェーンを何ページ先まで先読みさせるか
+    private static final int READ_AHEAD_LEAVES = ReadAhead.DEFAULT_DEPTH;
+
     private final FileMgr fm;
+    private final BufferMgr bm;
     private final String dataFileName;
     private final String indexFile;
     private final SearchKey low, high;
@@ -15,12 +22,15 @@ final class BTreeRangeCursor implements RangeCursor {
     private BTreeLeafPage leaf;
     private int slot;
     private RID currentRid;
+    // 次に葉の先読みを依頼するまでに進む葉の数（2枚目の葉に進んだ時点で初回の依頼）
+    private int leavesUntilReadAhead = 1;
 
     BTreeRangeCursor(
             FileMgr fm, String indexFile, String dataFileName,
             SearchKey low, boolean lowInc, SearchKey high, boolean highInc,
             BTreeLeafPage startLeaf, int startSlot) {
         this.fm = fm;
+        this.bm = BufferMgr.shared(fm);
         this.indexFile = indexFile;
         this.dataFileName = dataFileName;
         this.low = low;
@@ -52,9 +62,22 @@ final class BTreeRangeCursor implements RangeCursor {
             leaf.close();
             leaf = (nxt == -1) ? null : BTreeLeafPage.open(fm, dataFileName, indexFile, nxt);
             slot = 0;
+            if (leaf != null)
+                readAheadLeaves();
         }
     }
 
+    /** 葉をまたいで読み進めているので、next ポインタを辿って先の葉を非同期に読み込ませる */
+    private void readAheadLeaves() {
+        if (--leavesUntilReadAhead > 0)
+            return;
+        leavesUntilReadAhead = READ_AHEAD_LEAVES / 2;
+        int after = leaf.nextLeafBlockNo();
+        if (after >= 0)
+            bm.prefetchChain(new BlockId(indexFile, after), READ_AHEAD_LEAVES,
+                    pg -> pg.getInt(BTreeLayouts.OFF_NEXT));
+    }
+
     private boolean withinHigh(int key) {
         if (high == null)
             return true;
@@ -69,6 +69,41 @@ public final class BTreeRangeScan implements Scan {
         return ts.getString(fldName);
     }
 
+    @Override
+    public int indexOf(String fldName) {
+        return ts.indexOf(fldName);
+    }
+
+    @Override
+    public int getInt(int col) {
+        return ts.getInt(col);
+    }
+
+    @Override
+    public String getString(int col) {
+        return ts.getString(col);
+    }
+
+    @Override
+    public boolean isString(int col) {
+        return ts.isString(col);
+    }
+
+    @Override
+    public boolean stringEquals(int col, byte[] b, int off, int len) {
+        return ts.stringEquals(col, b, off, len);
+    }
+
+    @Override
+    public boolean stringEquals(int col, Scan other, int otherCol) {
+        return ts.stringEquals(col, other, otherCol);
+    }
+
+    @Override
+    public int stringHash(int col) {
+        return ts.stringHash(col);
+    }
+
     // 他に getLong/getDouble/getVal などが Scan に存在する場合は同様に委譲してください
 
     @Override
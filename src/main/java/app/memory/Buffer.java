@@ -4,56 +4,147 @@ package app.memory;
 import app.storage.BlockId;
 import app.storage.FileMgr;
 import app.storage.Page;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
 
+/**
+ * 1フレーム分のバッファ。
+ * - どのブロックを載せるか（割り当て）は BufferMgr のストライプロックで保護する
+ * - pin 数は原子的に更新し、ロック無しで isPinned() を読める
+ * - ページ内容は latch()（読み書きラッチ）で保護する。その場でページを書き換える側は必ず書き込みラッチを取り、
+ *   ラッチ内で setDirty する。割り当て替え/書き出しも書き込みラッチの中で行う（途中の内容を書き出さない）
+ * - dirty の更新と書き出しはこのオブジェクトのモニタで直列化する。書き出しは dirty を先に下ろしてから書くので、
+ *   書き出し中に立った dirty は消えない
+ * - setDirty(lsn) で最後に変更したログの LSN を覚え、書き出す前にそこまでログを flush させる（WAL）
+ */
 public final class Buffer {
     private final FileMgr fm;
-    private Page contents;
-    private BlockId blk;
-    private int pins = 0;
-    private boolean dirty = false;
+    // BufferMgr 内のストライプ番号とストライプ内フレーム番号（単独で作った場合は -1）
+    final int stripe;
+    final int frame;
+    private final Page contents;
+    // ページを書き出す前に「この LSN までログを永続化せよ」と頼む先（無ければ null）
+    private final LongConsumer walFlush;
+    private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+    private final AtomicInteger pins = new AtomicInteger();
+    private volatile BlockId blk;
+    private volatile boolean dirty = false;
+    private volatile long pageLsn = -1; // 最後に変更したログレコードの LSN（無ければ -1）
 
     public Buffer(FileMgr fm, int blockSize) {
+        this(fm, blockSize, -1, -1, null);
+    }
+
+    Buffer(FileMgr fm, int blockSize, int stripe, int frame, LongConsumer walFlush) {
         this.fm = fm;
+        this.stripe = stripe;
+        this.frame = frame;
+        this.walFlush = walFlush;
         this.contents = new Page(blockSize);
     }
 
-    public synchronized void assignToBlock(BlockId b) {
-        flushIfDirty();
-        this.blk = b;
-        fm.read(b, contents);
-        this.pins = 0;
-        this.dirty = false;
+    public void assignToBlock(BlockId b) {
+        latch.writeLock().lock();
+        try {
+            writeIfDirty(); // 失敗したら元のブロックのまま（dirty も残る）
+            this.blk = null; // 読み込みに失敗したら空きフレームになる
+            fm.read(b, contents);
+            this.blk = b;
+            pins.set(0);
+            this.dirty = false;
+            this.pageLsn = -1;
+        } finally {
+            latch.writeLock().unlock();
+        }
     }
 
-    public synchronized void flushIfDirty() {
-        if (dirty && blk != null) {
-            fm.write(blk, contents);
-            dirty = false;
+    public void flushIfDirty() {
+        if (!dirty)
+            return;
+        latch.writeLock().lock();
+        try {
+            writeIfDirty();
+        } finally {
+            latch.writeLock().unlock();
         }
     }
 
-    public synchronized void pin() {
-        pins++;
+    public void pin() {
+        pins.incrementAndGet();
     }
 
-    public synchronized void unpin() {
-        if (pins > 0)
-            pins--;
+    public void unpin() {
+        pins.updateAndGet(n -> n > 0 ? n - 1 : 0);
     }
 
-    public synchronized boolean isPinned() {
-        return pins > 0;
+    public boolean isPinned() {
+        return pins.get() > 0;
     }
 
     public synchronized void setDirty() {
         this.dirty = true;
     }
 
-    public synchronized Page contents() {
+    /** lsn のログレコードで変更した（書き出し前に lsn までのログが永続化される） */
+    public synchronized void setDirty(long lsn) {
+        if (lsn > pageLsn)
+            pageLsn = lsn;
+        this.dirty = true;
+    }
+
+    public long pageLsn() {
+        return pageLsn;
+    }
+
+    public Page contents() {
         return contents;
     }
 
-    public synchronized BlockId block() {
+    public BlockId block() {
         return blk;
     }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /** ページ内容の読み書きラッチ（複数スレッドで同じページに触る場合に取る） */
+    public ReadWriteLock latch() {
+        return latch;
+    }
+
+    /** 割り当てを捨てる（ファイル削除時など。内容は書き戻さない）。pin 中なら IllegalStateException */
+    void discard() {
+        latch.writeLock().lock();
+        try {
+            if (isPinned())
+                throw new IllegalStateException("cannot discard pinned buffer " + blk);
+            this.blk = null;
+            this.dirty = false;
+            this.pageLsn = -1;
+        } finally {
+            latch.writeLock().unlock();
+        }
+    }
+
+    /** 書き込みラッチ保持下で呼ぶ。書き出したら true（失敗したら dirty のまま残す） */
+    synchronized boolean writeIfDirty() {
+        if (!dirty || blk == null)
+            return false;
+        long lsn = pageLsn;
+        dirty = false;
+        pageLsn = -1;
+        try {
+            if (walFlush != null && lsn >= 0)
+                walFlush.accept(lsn); // WAL: ログが先
+            fm.write(blk, contents);
+        } catch (RuntimeException e) {
+            dirty = true;
+            pageLsn = lsn;
+            throw e;
+        }
+        return true;
+    }
 }
@@ -3,57 +3,632 @@ package app.memory;
 
 import app.storage.BlockId;
 import app.storage.FileMgr;
-import java.util.ArrayList;
-import java.util.List;
+import app.storage.Page;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
 
+/**
+ * 固定数フレームのバッファプール。
+ * - フレームを BlockId のハッシュでストライプに分割し、pin/unpin はそのストライプのロックだけを取る
+ * - 各ストライプは BlockId → Buffer のハッシュ表で常駐ページを O(1) で引く
+ * - 未使用フレームを優先し、無ければ ReplacementPolicy で追い出し先を選ぶ（既定は Clock。ストライプごと）
+ * - 大きな逐次走査は BufferRing を渡して pin し、使うフレーム数をリング分に抑える
+ * - ストライプの全フレームが pin 中なら maxWaitMillis まで待つ（到着順に FIFO で起こす）
+ * - attachLog した LogManager へ、ページ書き出し前に pageLsn までの flush を頼む（WAL）
+ * - startPageWriter で dirty かつ未固定のページを裏で書き出し、追い出し時の同期書き込みを減らす
+ *   （裏での書き出し失敗は次の pin/flushAll が投げる。ページは dirty のまま残り、次回また書く）
+ * - prefetch/prefetchChain で先読みを非同期に依頼できる（空きが無ければ読まずに諦める）
+ */
 public final class BufferMgr {
-    private final List<Buffer> pool;
+    /** shared(fm) で作るプールの既定フレーム数 */
+    public static final int DEFAULT_SHARED_BUFFERS = 256;
+    /** newRing() の既定フレーム数（プールの 1/8 を上限とする） */
+    public static final int DEFAULT_RING_SIZE = 16;
+    /** 空きフレームを待つ既定の上限時間 */
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 10_000;
+    /** 既定のストライプ数の上限 */
+    public static final int MAX_STRIPES = 16;
+    /** 既定でストライプ1つに割り当てる最小フレーム数（小さなプールは分割しない） */
+    public static final int MIN_FRAMES_PER_STRIPE = 64;
+    /** 先読みスレッド数 */
+    public static final int PREFETCH_THREADS = 2;
+
+    // FileMgr ごとに1つの共有プール（レコード層/B+木層が同じページを共有するため）。
+    // close で外す。close されずに捨てられた FileMgr も残らないよう弱参照で持つ
+    // （プールは fm のリスナーから強く参照されるので、fm が生きている間は回収されない。FileMgr は同一性で比べる）
+    private static final Map<FileMgr, WeakReference<BufferMgr>> SHARED = new WeakHashMap<>();
+
+    private final Buffer[] pool;
+    private final Stripe[] stripes;
     private final FileMgr fm;
     private final int blockSize;
+    private final long maxWaitMillis;
+    private volatile LogManager log;
+    private PageWriter pageWriter;
+    // PageWriter の書き出し失敗（呼び出し側へまだ知らせていないもの）
+    private final AtomicReference<RuntimeException> writerFailure = new AtomicReference<>();
+    private ExecutorService prefetcher; // 必要になった時点で作る（FileMgr の close で止める）
+    // 書き出し候補を探す位置（PageWriter のスレッドだけが触る）
+    private int writerHand = 0;
+
+    // 統計（ストライプ横断でロック無しに加算）
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitTimeouts = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder dirtyEvictions = new LongAdder();
+    private final LongAdder backgroundWrites = new LongAdder();
+    private final LongAdder prefetched = new LongAdder();
 
     public BufferMgr(FileMgr fm, int blockSize, int numBuffers) {
+        this(fm, blockSize, numBuffers, ClockPolicy::new);
+    }
+
+    /** policyFactory はフレーム数を受け取って置換方針を作る（例: n -> new LruKPolicy(n, 2)） */
+    public BufferMgr(FileMgr fm, int blockSize, int numBuffers, IntFunction<ReplacementPolicy> policyFactory) {
+        this(fm, blockSize, numBuffers, policyFactory, DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    /** maxWaitMillis: 全フレーム pin 中に空きを待つ上限（0 なら待たずに失敗） */
+    public BufferMgr(FileMgr fm, int blockSize, int numBuffers, IntFunction<ReplacementPolicy> policyFactory,
+            long maxWaitMillis) {
+        this(fm, blockSize, numBuffers, policyFactory, maxWaitMillis, defaultStripes(numBuffers));
+    }
+
+    /** numStripes: フレームを分割するストライプ数（各ストライプに置換方針を1つずつ作る） */
+    public BufferMgr(FileMgr fm, int blockSize, int numBuffers, IntFunction<ReplacementPolicy> policyFactory,
+            long maxWaitMillis, int numStripes) {
+        if (numBuffers <= 0)
+            throw new IllegalArgumentException("numBuffers must be > 0");
+        if (maxWaitMillis < 0)
+            throw new IllegalArgumentException("maxWaitMillis must be >= 0");
+        if (numStripes <= 0 || numStripes > numBuffers)
+            throw new IllegalArgumentException("numStripes must be in 1.." + numBuffers);
         this.fm = fm;
         this.blockSize = blockSize;
-        this.pool = new ArrayList<>(numBuffers);
-        for (int i = 0; i < numBuffers; i++) {
-            pool.add(new Buffer(fm, blockSize));
+        this.maxWaitMillis = maxWaitMillis;
+        this.pool = new Buffer[numBuffers];
+        this.stripes = new Stripe[numStripes];
+        int next = 0;
+        for (int s = 0; s < numStripes; s++) {
+            int n = numBuffers / numStripes + (s < numBuffers % numStripes ? 1 : 0);
+            Buffer[] frames = new Buffer[n];
+            for (int i = 0; i < n; i++) {
+                frames[i] = new Buffer(fm, blockSize, s, i, this::flushLog);
+                pool[next++] = frames[i];
+            }
+            stripes[s] = new Stripe(s, frames, Objects.requireNonNull(policyFactory.apply(n), "policy"));
         }
+        // ファイル削除で古いページが残らないようにし（使用中なら削除させない）、close 前には書き戻す
+        fm.addListener(new FileMgr.Listener() {
+            @Override
+            public void beforeDelete(String filename) {
+                checkUnpinned(filename);
+            }
+
+            @Override
+            public void onDelete(String filename) {
+                discard(filename);
+            }
+
+            @Override
+            public void onClose() {
+                stopPageWriter();
+                stopPrefetcher();
+                flushAll();
+                unregisterShared(fm, BufferMgr.this);
+            }
+        });
     }
 
-    /** 既存Buffer→未固定Bufferの順で検索。なければ null（＝今回は例外に委ねる想定） */
-    public synchronized Buffer pin(BlockId blk) {
-        Buffer b = findExisting(blk);
-        if (b == null) {
-            b = chooseUnpinned();
-            if (b == null)
-                throw new IllegalStateException("No available buffer to pin");
-            b.assignToBlock(blk);
+    private static int defaultStripes(int numBuffers) {
+        return Math.max(1, Math.min(MAX_STRIPES, numBuffers / MIN_FRAMES_PER_STRIPE));
+    }
+
+    /** fm に対応する共有プールを返す（無ければ DEFAULT_SHARED_BUFFERS で作成） */
+    public static BufferMgr shared(FileMgr fm) {
+        return shared(fm, DEFAULT_SHARED_BUFFERS);
+    }
+
+    /** fm に対応する共有プールを返す（無ければ numBuffers フレームで作成。既存なら numBuffers は無視） */
+    public static BufferMgr shared(FileMgr fm, int numBuffers) {
+        synchronized (SHARED) {
+            WeakReference<BufferMgr> ref = SHARED.get(fm);
+            BufferMgr bm = ref != null ? ref.get() : null;
+            if (bm == null) {
+                bm = new BufferMgr(fm, fm.blockSize(), numBuffers);
+                SHARED.put(fm, new WeakReference<>(bm));
+            }
+            return bm;
         }
-        if (!b.isPinned()) {
-            // 既存でも未固定なら pin カウントにより利用開始
+    }
+
+    private static void unregisterShared(FileMgr fm, BufferMgr bm) {
+        synchronized (SHARED) {
+            WeakReference<BufferMgr> ref = SHARED.get(fm);
+            if (ref != null && ref.get() == bm)
+                SHARED.remove(fm);
         }
-        b.pin();
-        return b;
     }
 
-    public synchronized void unpin(Buffer b) {
-        b.unpin();
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /** プールのフレーム数 */
+    public int capacity() {
+        return pool.length;
+    }
+
+    /** ストライプ数 */
+    public int stripeCount() {
+        return stripes.length;
+    }
+
+    /** ページ書き出し前に flush させる WAL を登録する（Tx が自身の LogManager を登録する） */
+    public void attachLog(LogManager log) {
+        this.log = log;
+    }
+
+    /** attachLog された LogManager（無ければ null） */
+    public LogManager attachedLog() {
+        return log;
+    }
+
+    private void flushLog(long lsn) {
+        LogManager l = log;
+        if (l != null)
+            l.flush(lsn);
+    }
+
+    /** 裏書き出しスレッドを開始する（既に動いていればそれを返す。FileMgr の close で停止） */
+    public synchronized PageWriter startPageWriter(long intervalMillis, int maxPagesPerRound) {
+        if (pageWriter == null || !pageWriter.isRunning())
+            pageWriter = new PageWriter(this, intervalMillis, maxPagesPerRound).start();
+        return pageWriter;
     }
 
-    private Buffer findExisting(BlockId blk) {
-        for (Buffer b : pool) {
-            if (blk.equals(b.block()))
-                return b;
+    public PageWriter startPageWriter() {
+        return startPageWriter(PageWriter.DEFAULT_INTERVAL_MILLIS, PageWriter.DEFAULT_MAX_PAGES_PER_ROUND);
+    }
+
+    /** 裏書き出しスレッドを止める（動いていなければ何もしない） */
+    public void stopPageWriter() {
+        PageWriter w;
+        synchronized (this) {
+            w = pageWriter;
+            pageWriter = null;
         }
-        return null;
+        if (w != null)
+            w.close();
+    }
+
+    /** PageWriter の書き出し失敗を記録する（知らせていない失敗が既にあればそちらを残す） */
+    void writerFailed(RuntimeException e) {
+        writerFailure.compareAndSet(null, e);
+    }
+
+    private void rethrowWriterFailure() {
+        if (writerFailure.get() == null)
+            return;
+        RuntimeException e = writerFailure.getAndSet(null);
+        if (e != null)
+            throw new IllegalStateException("background page write failed: " + e.getMessage(), e);
+    }
+
+    /**
+     * dirty かつ未固定のページを前回の続きから最大 maxPages 件書き出す（PageWriter の1回分）。
+     * 書き出した件数を返す。
+     */
+    int writeBackSome(int maxPages) {
+        int written = 0;
+        for (int i = 0; i < pool.length && written < maxPages; i++) {
+            Buffer b = pool[writerHand];
+            writerHand = (writerHand + 1) % pool.length;
+            if (b.isDirty() && !b.isPinned() && stripes[b.stripe].writeBack(b))
+                written++;
+        }
+        backgroundWrites.add(written);
+        return written;
+    }
+
+    /** blk を非同期に読み込む（常駐済み・空きフレーム無し・ファイル外なら何もしない） */
+    public void prefetch(BlockId blk) {
+        prefetch(blk, null);
+    }
+
+    /** ring 指定時はリングのフレームに読み込む（ring はその走査の pin と同じものを渡す） */
+    public void prefetch(BlockId blk, BufferRing ring) {
+        submitPrefetch(() -> stripeOf(blk).prefetch(blk, ring));
+    }
+
+    /**
+     * start から nextBlock が返すブロック番号を辿り、depth ページ先まで非同期に読み込む（B+木の葉チェーン用）。
+     * nextBlock が負を返したら終わり。
+     */
+    public void prefetchChain(BlockId start, int depth, ToIntFunction<Page> nextBlock) {
+        submitPrefetch(() -> {
+            BlockId blk = start;
+            for (int i = 0; i < depth && blk != null; i++) {
+                if (!stripeOf(blk).prefetch(blk, null))
+                    return;
+                Buffer b = pin(blk);
+                int nxt;
+                try {
+                    nxt = nextBlock.applyAsInt(b.contents());
+                } finally {
+                    unpin(b);
+                }
+                blk = nxt < 0 ? null : new BlockId(blk.filename(), nxt);
+            }
+        });
+    }
+
+    /** 先読みで読み込んだページ数（統計用） */
+    public long prefetchCount() {
+        return prefetched.sum();
+    }
+
+    private void submitPrefetch(Runnable task) {
+        ExecutorService ex;
+        synchronized (this) {
+            if (prefetcher == null) {
+                prefetcher = Executors.newFixedThreadPool(PREFETCH_THREADS, r -> {
+                    Thread t = new Thread(r, "prefetch");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            ex = prefetcher;
+        }
+        try {
+            ex.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException ignore) {
+                    // 先読みは最善努力（失敗しても本来の読み出しで読む）
+                }
+            });
+        } catch (RejectedExecutionException ignore) {
+        }
+    }
+
+    /** 実行中の先読みを終わらせてスレッドを止める（interrupt は FileChannel を閉じるのでしない） */
+    private void stopPrefetcher() {
+        ExecutorService ex;
+        synchronized (this) {
+            ex = prefetcher;
+            prefetcher = null;
+        }
+        if (ex == null)
+            return;
+        ex.shutdown();
+        try {
+            ex.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** dirty なフレームの数（統計用） */
+    public int dirtyCount() {
+        int n = 0;
+        for (Buffer b : pool)
+            if (b.isDirty())
+                n++;
+        return n;
+    }
+
+    /** 追い出し時に dirty だったため pin の中で同期書き込みした回数（統計用） */
+    public long dirtyEvictionCount() {
+        return dirtyEvictions.sum();
     }
 
-    /** Naïve: 最初に見つかった未固定を返す（後で FIFO/LRU/Clock に差し替え可能） */
-    private Buffer chooseUnpinned() {
-        for (Buffer b : pool) {
+    /** PageWriter が書き出したページ数（統計用） */
+    public long backgroundWriteCount() {
+        return backgroundWrites.sum();
+    }
+
+    /** 逐次走査用のリングを作る（DEFAULT_RING_SIZE とプールの 1/8 の小さい方） */
+    public BufferRing newRing() {
+        return newRing(Math.max(1, Math.min(DEFAULT_RING_SIZE, pool.length / 8)));
+    }
+
+    public BufferRing newRing(int size) {
+        return new BufferRing(size, stripes.length);
+    }
+
+    /** 常駐していればそれを、無ければ空き/追い出したフレームに読み込んで pin する */
+    public Buffer pin(BlockId blk) {
+        return pin(blk, null);
+    }
+
+    /**
+     * ring 指定時は、未常駐ページをリング内のフレームを使い回して読み込む。
+     * 空きフレームが無ければ maxWaitMillis まで待ち、それでも無ければ IllegalStateException。
+     */
+    public Buffer pin(BlockId blk, BufferRing ring) {
+        rethrowWriterFailure();
+        return stripeOf(blk).pin(blk, ring);
+    }
+
+    public void unpin(Buffer b) {
+        stripes[b.stripe].unpin(b);
+    }
+
+    /** dirty なバッファをすべて書き戻す */
+    public void flushAll() {
+        rethrowWriterFailure();
+        for (Buffer b : pool)
+            b.flushIfDirty();
+    }
+
+    /** filename に割り当てられたバッファを破棄（書き戻さない）。pin 中のページがあれば IllegalStateException */
+    public void discard(String filename) {
+        checkUnpinned(filename);
+        for (Stripe s : stripes)
+            s.discard(filename);
+    }
+
+    private void checkUnpinned(String filename) {
+        for (Stripe s : stripes)
+            s.checkUnpinned(filename);
+    }
+
+    /** 未固定のバッファ数 */
+    public int available() {
+        int n = 0;
+        for (Buffer b : pool)
             if (!b.isPinned())
-                return b;
+                n++;
+        return n;
+    }
+
+    /** 常駐ページで pin できた回数（統計用） */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /** ディスクから読み込んだ回数（統計用） */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /** フレームを待った回数（統計用） */
+    public long waitCount() {
+        return waits.sum();
+    }
+
+    /** 待っても空きが出ずに失敗した回数（統計用） */
+    public long waitTimeoutCount() {
+        return waitTimeouts.sum();
+    }
+
+    /** フレーム待ちに費やした累計時間（ミリ秒、統計用） */
+    public long waitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.sum());
+    }
+
+    /** 現在フレームを待っているスレッド数 */
+    public int waitingCount() {
+        int n = 0;
+        for (Stripe s : stripes)
+            n += s.waitingCount();
+        return n;
+    }
+
+    public long maxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    private Stripe stripeOf(BlockId blk) {
+        if (stripes.length == 1)
+            return stripes[0];
+        int h = blk.hashCode();
+        h ^= h >>> 16;
+        return stripes[Math.floorMod(h, stripes.length)];
+    }
+
+    /** フレームの部分集合と、その常駐表・置換方針・待機列。すべて自身のモニタで保護する */
+    private final class Stripe {
+        private final int index;
+        private final Buffer[] frames;
+        private final Map<BlockId, Buffer> resident;
+        // まだブロックを割り当てていない（または discard された）フレーム
+        private final ArrayDeque<Integer> freeFrames;
+        private final ReplacementPolicy policy;
+        // フレーム待ちのスレッド（到着順。先頭だけが空きフレームを取れる）
+        private final ArrayDeque<Object> waiters = new ArrayDeque<>();
+
+        Stripe(int index, Buffer[] frames, ReplacementPolicy policy) {
+            this.index = index;
+            this.frames = frames;
+            this.policy = policy;
+            this.resident = new HashMap<>(frames.length * 2);
+            this.freeFrames = new ArrayDeque<>(frames.length);
+            for (int i = 0; i < frames.length; i++)
+                freeFrames.add(i);
+        }
+
+        synchronized Buffer pin(BlockId blk, BufferRing ring) {
+            Buffer b = resident.get(blk);
+            if (b == null) {
+                b = ring != null ? ring.reusable(index) : null;
+                // 待機者がいる間は追い越さない
+                if (b == null && waiters.isEmpty())
+                    b = chooseFrame();
+                if (b == null) {
+                    b = awaitFrame(blk);
+                    if (b == null)
+                        b = resident.get(blk); // 待機中に他スレッドが読み込んだ
+                }
+            }
+            if (blk.equals(b.block())) {
+                hits.increment();
+            } else {
+                misses.increment();
+                load(b, blk, ring);
+            }
+            b.pin();
+            policy.pinned(b.frame);
+            return b;
+        }
+
+        /** 先読み: 空きがあれば pin せずに読み込む（前景の待機者がいれば譲る）。常駐していれば true */
+        synchronized boolean prefetch(BlockId blk, BufferRing ring) {
+            if (resident.containsKey(blk))
+                return true;
+            if (!waiters.isEmpty())
+                return false;
+            // 削除済みファイルを作り直さないよう、ファイル内のブロックだけ読む
+            if (blk.number() >= fm.length(blk.filename()))
+                return false;
+            Buffer b = ring != null ? ring.reusable(index) : null;
+            if (b == null)
+                b = chooseFrame();
+            if (b == null)
+                return false;
+            load(b, blk, ring);
+            policy.unpinned(b.frame); // 未参照のまま追い出し候補に入れる
+            prefetched.increment();
+            return true;
+        }
+
+        private void load(Buffer b, BlockId blk, BufferRing ring) {
+            BlockId old = b.block();
+            boolean dirty = b.isDirty();
+            try {
+                b.assignToBlock(blk);
+            } finally {
+                // 書き戻しに失敗したら old のまま残るので対応付けも残す。読み込みに失敗したら空きフレームに戻す
+                if (old != null && b.block() != old)
+                    resident.remove(old);
+                if (b.block() == null)
+                    freeFrames.add(b.frame);
+            }
+            if (dirty)
+                dirtyEvictions.increment();
+            resident.put(blk, b);
+            policy.loaded(b.frame);
+            if (ring != null)
+                ring.record(b, blk);
+        }
+
+        synchronized void unpin(Buffer b) {
+            b.unpin();
+            if (!b.isPinned()) {
+                policy.unpinned(b.frame);
+                if (!waiters.isEmpty())
+                    notifyAll();
+            }
+        }
+
+        /**
+         * 未固定の dirty ページを書き出す（PageWriter 用）。pin/dirty はストライプロック内で確かめ直し、
+         * 書き込みラッチを取れたときだけ書く（使用中のページは待たずに次へ）。ラッチを持つ間は割り当て替えされない
+         */
+        boolean writeBack(Buffer b) {
+            synchronized (this) {
+                if (!b.isDirty() || b.isPinned() || !b.latch().writeLock().tryLock())
+                    return false;
+            }
+            try {
+                return b.writeIfDirty();
+            } finally {
+                b.latch().writeLock().unlock();
+            }
+        }
+
+        synchronized void checkUnpinned(String filename) {
+            for (Map.Entry<BlockId, Buffer> e : resident.entrySet())
+                if (e.getKey().filename().equals(filename) && e.getValue().isPinned())
+                    throw new IllegalStateException("cannot discard pinned block " + e.getKey());
+        }
+
+        /** 確かめてから捨てるので、pin 中のページがあればこのストライプは何も変えない */
+        synchronized void discard(String filename) {
+            checkUnpinned(filename);
+            Iterator<Map.Entry<BlockId, Buffer>> it = resident.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<BlockId, Buffer> e = it.next();
+                if (!e.getKey().filename().equals(filename))
+                    continue;
+                Buffer b = e.getValue();
+                it.remove();
+                b.discard();
+                policy.unpinned(b.frame);
+                freeFrames.add(b.frame);
+            }
+            if (!waiters.isEmpty())
+                notifyAll();
+        }
+
+        synchronized int waitingCount() {
+            return waiters.size();
+        }
+
+        /**
+         * 空きフレームが出るまで待つ（到着順。先頭の待機者だけがフレームを取る）。
+         * 待機中に blk が他スレッドにより常駐した場合は null。
+         */
+        private Buffer awaitFrame(BlockId blk) {
+            Object ticket = new Object();
+            waiters.addLast(ticket);
+            waits.increment();
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+            try {
+                while (true) {
+                    if (resident.containsKey(blk))
+                        return null;
+                    if (waiters.peekFirst() == ticket) {
+                        Buffer b = chooseFrame();
+                        if (b != null)
+                            return b;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        waitTimeouts.increment();
+                        throw new IllegalStateException(
+                                "No available buffer to pin (waited " + maxWaitMillis + " ms)");
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a buffer", e);
+            } finally {
+                waiters.remove(ticket);
+                waitNanos.add(System.nanoTime() - start);
+                notifyAll(); // 次の先頭に判定させる
+            }
+        }
+
+        /** 空きフレーム → 置換方針の順で選ぶ。全フレーム pin 中なら null */
+        private Buffer chooseFrame() {
+            Integer f;
+            while ((f = freeFrames.poll()) != null) {
+                Buffer b = frames[f];
+                // discard 後に置換方針経由で再利用済みのフレームは読み飛ばす
+                if (b.block() == null && !b.isPinned())
+                    return b;
+            }
+            int victim = policy.victim(i -> frames[i].isPinned());
+            return victim < 0 ? null : frames[victim];
         }
-        return null;
     }
 }
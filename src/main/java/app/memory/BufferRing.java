@@ -0,0 +1,55 @@
+package app.memory;
+
+import app.storage.BlockId;
+
+/**
+ * 大きな逐次走査用の小さなフレームリング（PostgreSQL の buffer access strategy 相当）。
+ * 未常駐ページはリング内のフレームを使い回して読み込むので、走査がプール全体を押し流さない。
+ * 常駐済みページへの pin は通常どおり共有フレームを使う。1つの走査専用だが、その走査の ReadAhead が
+ * 先読みスレッドから同じリングへ読み込むので、前景の pin と先読みが同時に触りうる。
+ * フレームはストライプをまたいで使えないため、ストライプごとに小さなリングを持つ。
+ * ストライプごとの行（slots/owned/next）はその行の slots 配列をロックにして読み書きする。
+ */
+public final class BufferRing {
+    private final int size;
+    private final Buffer[][] slots;
+    // slot に自分が読み込んだブロック（他者に再割り当てされていないかの確認用）
+    private final BlockId[][] owned;
+    private final int[] next;
+
+    BufferRing(int size, int numStripes) {
+        if (size <= 0)
+            throw new IllegalArgumentException("ring size must be > 0");
+        this.size = size;
+        int perStripe = Math.max(1, (size + numStripes - 1) / numStripes);
+        this.slots = new Buffer[numStripes][perStripe];
+        this.owned = new BlockId[numStripes][perStripe];
+        this.next = new int[numStripes];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** 次に使い回せるフレーム。未使用・pin 中・他者に取られた場合は null（共有プールから取る） */
+    Buffer reusable(int stripe) {
+        synchronized (slots[stripe]) {
+            int i = next[stripe];
+            Buffer b = slots[stripe][i];
+            if (b == null || b.isPinned() || !owned[stripe][i].equals(b.block()))
+                return null;
+            return b;
+        }
+    }
+
+    /** b に blk を読み込んだことを記録し、リングを1つ進める */
+    void record(Buffer b, BlockId blk) {
+        int s = b.stripe;
+        synchronized (slots[s]) {
+            int i = next[s];
+            slots[s][i] = b;
+            owned[s][i] = blk;
+            next[s] = (i + 1) % slots[s].length;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package app.memory;
+
+import java.util.function.IntPredicate;
+
+/** Clock（second chance）。参照ビットが立っていれば1周見逃す */
+public final class ClockPolicy implements ReplacementPolicy {
+    private final boolean[] referenced;
+    private int hand = 0;
+
+    public ClockPolicy(int numFrames) {
+        this.referenced = new boolean[numFrames];
+    }
+
+    @Override
+    public void loaded(int frame) {
+        referenced[frame] = false;
+    }
+
+    @Override
+    public void pinned(int frame) {
+        referenced[frame] = true;
+    }
+
+    @Override
+    public void unpinned(int frame) {
+        // 参照ビットは pin 時に立てるので何もしない
+    }
+
+    @Override
+    public int victim(IntPredicate isPinned) {
+        int n = referenced.length;
+        // 1周目で参照ビットを落とし、2周目で必ず見つかる（全 pin なら -1）
+        for (int i = 0; i < 2 * n; i++) {
+            int f = hand;
+            hand = (hand + 1) % n;
+            if (isPinned.test(f))
+                continue;
+            if (referenced[f]) {
+                referenced[f] = false;
+                continue;
+            }
+            return f;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,116 @@
+package app.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+
+/**
+ * ログを末尾から先頭へ辿るイテレータ。各レコード末尾の長さを読んで1つ前のレコードへ戻る。
+ * セグメントの先頭まで来たら1つ前のセグメントへ移る（残っている最古のセグメントで終わり）。
+ * next() の後の lsn() はそのレコードの LSN。読み終えたら close する。
+ */
+public final class LogIterator implements Iterator<byte[]>, AutoCloseable {
+    private final NavigableMap<Long, Path> segments; // 作成時点のスナップショット
+    private long pos; // 次に返すレコードの末尾（この LSN より前を読む）
+    private long lsn = -1;
+    private long segStart = -1; // fc が指すセグメントの開始 LSN
+    private FileChannel fc;
+
+    LogIterator(NavigableMap<Long, Path> segments, long end) {
+        this.segments = segments;
+        this.pos = end;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !segments.isEmpty() && pos > segments.firstKey();
+    }
+
+    @Override
+    public byte[] next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        enterSegment(pos);
+        ByteBuffer lenBuf = ByteBuffer.allocate(Integer.BYTES);
+        readFully(lenBuf, pos - Integer.BYTES);
+        int len = lenBuf.flip().getInt();
+        long start = pos - 2L * Integer.BYTES - len;
+        if (len < 0 || start < segStart)
+            throw new IllegalStateException("corrupt log record before LSN " + pos);
+        ByteBuffer rec = ByteBuffer.allocate(len);
+        readFully(rec, start + Integer.BYTES);
+        lsn = start;
+        pos = start;
+        return rec.array();
+    }
+
+    /**
+     * 次の next() が lsn のレコードを返すよう、その末尾へ位置を合わせる（lsn はレコードの先頭）。
+     * rollback が自 Tx の1つ前のレコードへ飛ぶのに使う
+     */
+    public void seek(long lsn) {
+        if (segments.isEmpty() || lsn < segments.firstKey())
+            throw new IllegalStateException("log record at LSN " + lsn + " has been truncated");
+        enterSegment(lsn + 1);
+        ByteBuffer lenBuf = ByteBuffer.allocate(Integer.BYTES);
+        readFully(lenBuf, lsn);
+        int len = lenBuf.flip().getInt();
+        if (len < 0)
+            throw new IllegalStateException("corrupt log record at LSN " + lsn);
+        pos = lsn + 2L * Integer.BYTES + len;
+    }
+
+    /** 直前の next() が返したレコードの LSN */
+    public long lsn() {
+        return lsn;
+    }
+
+    @Override
+    public void close() {
+        closeChannel();
+    }
+
+    /** end の直前のバイトを含むセグメントを開く */
+    private void enterSegment(long end) {
+        Map.Entry<Long, Path> e = segments.lowerEntry(end);
+        if (e.getKey() == segStart)
+            return;
+        closeChannel();
+        try {
+            fc = FileChannel.open(e.getValue(), StandardOpenOption.READ);
+        } catch (IOException ex) {
+            throw new RuntimeException("cannot open log segment: " + e.getValue(), ex);
+        }
+        segStart = e.getKey();
+    }
+
+    private void closeChannel() {
+        if (fc == null)
+            return;
+        try {
+            fc.close();
+        } catch (IOException ignore) {
+        }
+        fc = null;
+        segStart = -1;
+    }
+
+    private void readFully(ByteBuffer dst, long at) {
+        long filePos = LogManager.SEGMENT_HEADER_SIZE + (at - segStart);
+        try {
+            while (dst.hasRemaining()) {
+                int n = fc.read(dst, filePos + dst.position());
+                if (n < 0)
+                    throw new IllegalStateException("unexpected end of log at " + at);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
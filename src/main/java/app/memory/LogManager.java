@@ -5,53 +5,574 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 
+/**
+ * 追記専用のログ。レコードは [len:int][body][len:int] の並びで、LSN はログ全体を通した論理オフセット。
+ * 末尾にも長さを置くので backwardIterator() で新しい順に辿れる。
+ * - ログは segmentSize ごとのセグメントファイル（simpledb.log.<開始LSN>）に分かれ、先頭に開始 LSN を持つ。
+ *   レコードはセグメントをまたがない。truncateBefore(lsn) で古いセグメントを削除（または archiveDir へ移動）する
+ * - append はメモリ上のログバッファへコピーするだけ（満杯時のみ write）
+ * - flush(lsn) はその LSN のレコードが未永続のときだけ write + force する
+ * - グループコミット: 同時に flush を待つスレッドは1人（リーダ）の force にまとめて相乗りする。
+ *   リーダは groupCommitWindowMicros だけ後続を待ってから書き出し、force 中もロックを離して追記を受け付ける
+ * - startFlusher で一定間隔の裏 force を始められる（非同期コミット用。未永続分の遅れは durabilityLag* で見る）。
+ *   裏 force の失敗は次の flush が投げる
+ * - 開くときに最後のセグメントを先頭から検査し、書きかけで落ちたレコード（前後の長さが合わない/はみ出す）以降を切り詰める
+ */
 public final class LogManager implements AutoCloseable {
-    private final Path logPath;
-    private FileChannel fc;
+    /** ログバッファの既定サイズ */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    /** リーダが後続のコミットを待つ既定時間（0 = 待たず、force 中に来た分だけをまとめる） */
+    public static final long DEFAULT_GROUP_COMMIT_WINDOW_MICROS = 0;
+    /** 裏 force の既定間隔 */
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+    /** セグメントの既定サイズ（ヘッダ込み） */
+    public static final long DEFAULT_SEGMENT_SIZE = 16L * 1024 * 1024;
+    /** セグメント先頭のヘッダ（開始 LSN:long） */
+    public static final int SEGMENT_HEADER_SIZE = Long.BYTES;
+
+    static final String LOG_NAME = "simpledb.log";
+    private static final String SEGMENT_PREFIX = LOG_NAME + ".";
+
+    private final Path dir;
+    private final long segmentSize;
+    private final Path archiveDir; // null なら古いセグメントは削除
+    // 開始 LSN -> セグメントファイル（最後が書き込み中のセグメント）
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+    private long segStart; // 書き込み中セグメントの開始 LSN
+    private FileChannel fc; // 書き込み中セグメント
+    private long truncatedSegments = 0;
+    private long repairedTailBytes = 0; // 開いたときに切り詰めた書きかけのバイト数
+    private final ByteBuffer buf;
+    private long bufStart; // buf 先頭の LSN（= ファイルへ書き出し済みの末尾）
+    private long durableEnd; // ここまでは force 済み
+    private long lastLsn = -1; // 最後に append したレコードの LSN
+    private final long groupCommitWindowNanos;
+    private boolean forcing = false; // リーダが force 中
+    private long forces = 0;
+    private long groupedFlushes = 0;
+    private long pendingSinceNanos = 0; // 未永続のレコードが最初に追記された時刻（無ければ 0）
+    private Thread flusher;
+    private boolean flusherRunning = false;
+    private RuntimeException flusherFailure; // 裏 force の失敗（次の flush で投げる）
 
     public LogManager(Path dir) {
+        this(dir, DEFAULT_BUFFER_SIZE);
+    }
+
+    public LogManager(Path dir, int bufferSize) {
+        this(dir, bufferSize, DEFAULT_GROUP_COMMIT_WINDOW_MICROS);
+    }
+
+    /** groupCommitWindowMicros: flush のリーダが相乗りを待つ最大時間 */
+    public LogManager(Path dir, int bufferSize, long groupCommitWindowMicros) {
+        this(dir, bufferSize, groupCommitWindowMicros, DEFAULT_SEGMENT_SIZE, null);
+    }
+
+    /** segmentSize: 1セグメントの上限バイト数。archiveDir: 切り捨てたセグメントの移動先（null なら削除） */
+    public LogManager(Path dir, int bufferSize, long groupCommitWindowMicros, long segmentSize, Path archiveDir) {
+        if (bufferSize < Integer.BYTES)
+            throw new IllegalArgumentException("bufferSize too small: " + bufferSize);
+        if (groupCommitWindowMicros < 0)
+            throw new IllegalArgumentException("groupCommitWindowMicros must be >= 0");
+        if (segmentSize <= SEGMENT_HEADER_SIZE + 2L * Integer.BYTES)
+            throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+        this.groupCommitWindowNanos = groupCommitWindowMicros * 1_000L;
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.archiveDir = archiveDir;
         try {
             Files.createDirectories(dir);
-            this.logPath = dir.resolve("simpledb.log");
-            this.fc = FileChannel.open(logPath,
-                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (archiveDir != null)
+                Files.createDirectories(archiveDir);
+            migrateLegacyLog(dir);
+            segments.putAll(listSegments(dir));
+            if (segments.isEmpty()) {
+                openSegment(0);
+            } else {
+                Map.Entry<Long, Path> tail = segments.lastEntry();
+                this.segStart = tail.getKey();
+                this.fc = FileChannel.open(tail.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                long valid = validLength(fc);
+                if (valid < fc.size()) {
+                    this.repairedTailBytes = fc.size() - valid;
+                    fc.truncate(valid);
+                    fc.force(true);
+                }
+            }
+            this.bufStart = segStart + fc.size() - SEGMENT_HEADER_SIZE;
+            this.durableEnd = bufStart;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        this.buf = ByteBuffer.allocate(bufferSize);
     }
 
-    /** レコードを末尾に追記し、その LSN（=ファイルオフセット）を返す */
-    public synchronized long append(byte[] record) {
-        try {
-            long lsn = fc.size();
-            fc.position(lsn);
-            // 先頭に長さを書いてから本体を書き込む（可変長対応）
-            ByteBuffer len = ByteBuffer.allocate(Integer.BYTES);
-            len.putInt(record.length).flip();
-            fc.write(len);
-            fc.write(ByteBuffer.wrap(record));
-            return lsn;
+    /** dir 内のセグメントを開始 LSN 順に返す（ヘッダの LSN を正とする） */
+    public static NavigableMap<Long, Path> listSegments(Path dir) {
+        TreeMap<Long, Path> found = new TreeMap<>();
+        if (!Files.isDirectory(dir))
+            return found;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*")) {
+            for (Path p : ds)
+                if (p.getFileName().toString().substring(SEGMENT_PREFIX.length()).matches("\\d+"))
+                    found.put(readHeader(p), p); // 作りかけの .tmp 等は除く
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        return found;
+    }
+
+    private static long readHeader(Path p) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            ByteBuffer hdr = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            while (hdr.hasRemaining())
+                if (ch.read(hdr, hdr.position()) < 0)
+                    throw new IllegalStateException("corrupt log segment header: " + p);
+            return hdr.flip().getLong();
+        }
+    }
+
+    /** 分割前の単一ファイル（simpledb.log）があれば、開始 LSN 0 のセグメントへ移す */
+    private static void migrateLegacyLog(Path dir) throws IOException {
+        Path legacy = dir.resolve(LOG_NAME);
+        if (!Files.exists(legacy))
+            return;
+        Path seg = dir.resolve(segmentName(0));
+        Path tmp = dir.resolve(segmentName(0) + ".tmp");
+        try (FileChannel src = FileChannel.open(legacy, StandardOpenOption.READ);
+                FileChannel dst = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer hdr = ByteBuffer.allocate(SEGMENT_HEADER_SIZE).putLong(0L).flip();
+            while (hdr.hasRemaining())
+                dst.write(hdr);
+            long size = src.size();
+            for (long done = 0; done < size;)
+                done += src.transferTo(done, size - done, dst);
+            dst.force(true);
+        }
+        Files.move(tmp, seg, StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(legacy);
+    }
+
+    /** セグメントの先頭から [len][body][len] が揃っているところまでの長さ（ヘッダ込み） */
+    private static long validLength(FileChannel ch) throws IOException {
+        long size = ch.size();
+        long pos = SEGMENT_HEADER_SIZE;
+        ByteBuffer lenBuf = ByteBuffer.allocate(Integer.BYTES);
+        while (pos + 2L * Integer.BYTES <= size) {
+            int len = readInt(ch, lenBuf, pos);
+            long end = pos + 2L * Integer.BYTES + len;
+            if (len < 0 || end > size || readInt(ch, lenBuf, end - Integer.BYTES) != len)
+                break;
+            pos = end;
+        }
+        return Math.min(pos, size);
+    }
+
+    private static int readInt(FileChannel ch, ByteBuffer lenBuf, long at) throws IOException {
+        lenBuf.clear();
+        while (lenBuf.hasRemaining())
+            if (ch.read(lenBuf, at + lenBuf.position()) < 0)
+                return -1;
+        return lenBuf.flip().getInt();
     }
 
-    /** 指定 LSN までフラッシュ（ここでは単純に force） */
-    public synchronized void flush(long uptoLsn) {
+    private static String segmentName(long startLsn) {
+        return String.format("%s%020d", SEGMENT_PREFIX, startLsn);
+    }
+
+    /** 開始 LSN が startLsn の空セグメントを作り、書き込み先にする */
+    private void openSegment(long startLsn) throws IOException {
+        Path p = dir.resolve(segmentName(startLsn));
+        FileChannel ch = FileChannel.open(p,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer hdr = ByteBuffer.allocate(SEGMENT_HEADER_SIZE).putLong(startLsn).flip();
+        while (hdr.hasRemaining())
+            ch.write(hdr, hdr.position());
+        ch.force(true);
+        segments.put(startLsn, p);
+        this.segStart = startLsn;
+        this.fc = ch;
+    }
+
+    /**
+     * 書き込み中セグメントを閉じて次のセグメントへ移る。
+     * 古いセグメントはここで force する（以後の flush は新しいセグメントだけを force する）
+     */
+    private void rollSegment() {
+        while (forcing)
+            waitQuietly(0); // リーダが古いチャネルを force し終えるまで待つ
+        writeBuffer();
         try {
-            fc.force(true); // メタデータ込みで同期
+            fc.force(true);
+            fc.close();
+            durableEnd = Math.max(durableEnd, bufStart);
+            openSegment(bufStart);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /** レコードをログバッファへ追記し、その LSN（=ファイルオフセット）を返す */
+    public synchronized long append(byte[] record) {
+        int need = 2 * Integer.BYTES + record.length;
+        // 現セグメントに収まらなければ次へ（空のセグメントには大きなレコードもそのまま置く）
+        while (appendedEnd() > segStart
+                && appendedEnd() - segStart + need > segmentSize - SEGMENT_HEADER_SIZE)
+            rollSegment();
+        if (need > buf.remaining())
+            writeBuffer();
+        long lsn = bufStart + buf.position();
+        if (need > buf.capacity()) {
+            // バッファより大きいレコードは直接書く
+            ByteBuffer big = ByteBuffer.allocate(need);
+            big.putInt(record.length).put(record).putInt(record.length).flip();
+            writeFully(big, lsn);
+            bufStart += need;
+        } else {
+            // 本体の前後に長さを書く（前向き/後ろ向きの両方で辿れるように）
+            buf.putInt(record.length).put(record).putInt(record.length);
+        }
+        lastLsn = lsn;
+        if (pendingSinceNanos == 0)
+            pendingSinceNanos = System.nanoTime();
+        return lsn;
+    }
+
+    /**
+     * uptoLsn のレコードまでを永続化する（既に force 済みなら何もしない）。
+     * 他スレッドの force 中なら完了を待って相乗りし、足りなければ自分がリーダとして force する。
+     * 裏 force が失敗していれば、その失敗を（一度だけ）IllegalStateException として投げる。
+     */
+    public void flush(long uptoLsn) {
+        synchronized (this) {
+            if (flusherFailure != null) {
+                RuntimeException e = flusherFailure;
+                flusherFailure = null;
+                throw new IllegalStateException("background log flush failed: " + e.getMessage(), e);
+            }
+        }
+        flushUpTo(uptoLsn);
+    }
+
+    private void flushUpTo(long uptoLsn) {
+        long end;
+        FileChannel target;
+        synchronized (this) {
+            boolean joined = false;
+            while (uptoLsn >= durableEnd && forcing) {
+                joined = true;
+                waitQuietly(0);
+            }
+            if (uptoLsn < durableEnd) {
+                if (joined)
+                    groupedFlushes++;
+                return;
+            }
+            forcing = true;
+            try {
+                // 後続のコミットが追記して相乗りできるよう、少しだけロックを離して待つ
+                long deadline = System.nanoTime() + groupCommitWindowNanos;
+                for (long left = groupCommitWindowNanos; left > 0; left = deadline - System.nanoTime())
+                    waitQuietly(left);
+                writeBuffer();
+            } catch (RuntimeException e) {
+                forcing = false;
+                notifyAll();
+                throw e;
+            }
+            end = bufStart;
+            target = fc;
+        }
+        // force はロック外（その間も append は進められる。セグメント切り替えは force の完了を待つ）
+        RuntimeException failure = null;
+        try {
+            target.force(true); // メタデータ込みで同期
+        } catch (IOException e) {
+            failure = new RuntimeException(e);
+        }
+        synchronized (this) {
+            if (failure == null) {
+                durableEnd = Math.max(durableEnd, end);
+                forces++;
+                // 全部永続化できていれば遅れは 0。残りがあれば force 開始以降に追記された分
+                pendingSinceNanos = appendedEnd() > durableEnd ? System.nanoTime() : 0;
+            }
+            forcing = false;
+            notifyAll();
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /** append 済みのすべてを永続化する */
+    public void flush() {
+        long lsn;
+        synchronized (this) {
+            lsn = lastLsn;
+        }
+        if (lsn >= 0)
+            flush(lsn);
+    }
+
+    /**
+     * 最新のレコードから古い順に辿るイテレータ（ロールバック/リカバリ用）。
+     * 作成時点までに append されたレコードが対象。ログバッファはファイルへ書き出す（force はしない）。
+     * 使い終わったら close する（古いセグメントを読むために開いたファイルを閉じる）。
+     */
+    public LogIterator backwardIterator() {
+        long end;
+        NavigableMap<Long, Path> snapshot;
+        synchronized (this) {
+            writeBuffer();
+            end = bufStart;
+            snapshot = new TreeMap<>(segments);
+        }
+        return new LogIterator(snapshot, end);
+    }
+
+    /**
+     * fromLsn のレコードから古い順に辿るイテレータ（それより新しいレコードは読まない）。
+     * ロールバックが自 Tx の最後のレコードから始めるために使う。fromLsn はレコードの先頭であること。
+     */
+    public LogIterator backwardIterator(long fromLsn) {
+        NavigableMap<Long, Path> snapshot;
+        synchronized (this) {
+            if (fromLsn < 0 || fromLsn >= appendedEnd())
+                throw new IllegalArgumentException("no log record at LSN " + fromLsn);
+            if (fromLsn >= bufStart)
+                writeBuffer(); // まだバッファにある（ファイルに無い）
+            snapshot = new TreeMap<>(segments);
+        }
+        LogIterator it = new LogIterator(snapshot, fromLsn);
+        it.seek(fromLsn);
+        return it;
+    }
+
+    /**
+     * lsn より前のレコードだけを含むセグメントを削除する（archiveDir があればそこへ移動）。
+     * 書き込み中のセグメントは残す。呼び出し側は lsn 以前のログが不要（チェックポイント済み、
+     * かつ実行中の Tx の START より前）であることを保証すること。戻り値は処理したセグメント数。
+     */
+    public synchronized int truncateBefore(long lsn) {
+        int n = 0;
+        while (segments.size() > 1) {
+            Map.Entry<Long, Path> oldest = segments.firstEntry();
+            long end = segments.higherKey(oldest.getKey()); // 次のセグメントの開始 = このセグメントの末尾
+            if (end > lsn)
+                break;
+            try {
+                if (archiveDir != null)
+                    Files.move(oldest.getValue(), archiveDir.resolve(oldest.getValue().getFileName()),
+                            StandardCopyOption.REPLACE_EXISTING);
+                else
+                    Files.deleteIfExists(oldest.getValue());
+            } catch (IOException e) {
+                throw new RuntimeException("log truncation failed: " + oldest.getValue(), e);
+            }
+            segments.remove(oldest.getKey());
+            truncatedSegments++;
+            n++;
+        }
+        return n;
+    }
+
+    /** 残っている最も古いレコードの LSN（これより前は切り捨て済み） */
+    public synchronized long firstLsn() {
+        return segments.firstKey();
+    }
+
+    /** ログのディレクトリ */
+    public Path dir() {
+        return dir;
+    }
+
+    /** 現在のセグメント数（書き込み中を含む） */
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    /** 開いたときに末尾から切り詰めた書きかけのレコードのバイト数（確認/テスト用） */
+    public synchronized long repairedTailBytes() {
+        return repairedTailBytes;
+    }
+
+    /** これまでに削除/アーカイブしたセグメント数（統計用） */
+    public synchronized long truncatedSegmentCount() {
+        return truncatedSegments;
+    }
+
+    /** 残っているセグメントの合計サイズ（ディスク使用量の監視用） */
+    public synchronized long diskUsageBytes() {
+        return appendedEnd() - segments.firstKey() + (long) segments.size() * SEGMENT_HEADER_SIZE;
+    }
+
+    /** 最後に append したレコードの LSN（無ければ -1） */
+    public synchronized long lastLsn() {
+        return lastLsn;
+    }
+
+    /** 次に append されるレコードの LSN（= 追記済みの末尾） */
+    public synchronized long endLsn() {
+        return appendedEnd();
+    }
+
+    /** force 済みのログ末尾（このオフセット未満の LSN は永続化済み） */
+    public synchronized long durableEnd() {
+        return durableEnd;
+    }
+
+    /** 追記済みだがまだ force されていないバイト数（非同期コミットの遅れ） */
+    public synchronized long durabilityLagBytes() {
+        return appendedEnd() - durableEnd;
+    }
+
+    /** 最も古い未永続レコードが追記されてからの経過時間（全部永続化済みなら 0） */
+    public synchronized long durabilityLagMillis() {
+        if (pendingSinceNanos == 0 || appendedEnd() <= durableEnd)
+            return 0;
+        return (System.nanoTime() - pendingSinceNanos) / 1_000_000;
+    }
+
+    /** intervalMillis ごとに未永続分を force する裏スレッドを開始する（動いていれば何もしない） */
+    public synchronized void startFlusher(long intervalMillis) {
+        if (intervalMillis <= 0)
+            throw new IllegalArgumentException("intervalMillis must be > 0");
+        if (flusherRunning)
+            return;
+        flusherRunning = true;
+        flusher = new Thread(() -> flusherLoop(intervalMillis), "log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public void startFlusher() {
+        startFlusher(DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /** 裏スレッドを止めて終了を待つ（FileChannel を壊さないよう interrupt はしない） */
+    public void stopFlusher() {
+        Thread t;
+        synchronized (this) {
+            if (!flusherRunning)
+                return;
+            flusherRunning = false;
+            t = flusher;
+            flusher = null;
+            notifyAll();
+        }
+        if (t == Thread.currentThread())
+            return;
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized boolean isFlusherRunning() {
+        return flusherRunning;
+    }
+
+    private void flusherLoop(long intervalMillis) {
+        while (true) {
+            long lsn;
+            synchronized (this) {
+                if (!flusherRunning)
+                    return;
+                try {
+                    wait(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!flusherRunning)
+                    return;
+                lsn = lastLsn;
+            }
+            try { // 失敗は自分では消費しない（呼び出し側の次の flush が受け取る）
+                if (lsn >= 0)
+                    flushUpTo(lsn);
+            } catch (RuntimeException e) {
+                flusherFailed(e);
+            }
+        }
+    }
+
+    /** 裏 force の失敗を記録する（まだ知らせていない失敗があればそちらを残す） */
+    synchronized void flusherFailed(RuntimeException e) {
+        if (flusherFailure == null)
+            flusherFailure = e;
+    }
+
+    /** force を行った回数（統計用） */
+    public synchronized long forceCount() {
+        return forces;
+    }
+
+    /** 他スレッドの force に相乗りして完了した flush の回数（統計用） */
+    public synchronized long groupedFlushCount() {
+        return groupedFlushes;
+    }
+
     @Override
-    public synchronized void close() {
+    public void close() {
+        stopFlusher();
+        synchronized (this) {
+            closeChannel();
+        }
+    }
+
+    private void closeChannel() {
         try {
-            if (fc != null)
+            if (fc != null && fc.isOpen()) {
+                flush();
+                while (forcing)
+                    waitQuietly(0);
                 fc.close();
+            }
         } catch (IOException ignore) {
         }
     }
+
+    private void waitQuietly(long nanos) {
+        try {
+            if (nanos > 0)
+                wait(nanos / 1_000_000, (int) (nanos % 1_000_000));
+            else
+                wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for log flush", e);
+        }
+    }
+
+    private long appendedEnd() {
+        return bufStart + buf.position();
+    }
+
+    /** ログバッファの内容をファイルへ書き出して空にする（force はしない） */
+    private void writeBuffer() {
+        if (buf.position() == 0)
+            return;
+        buf.flip();
+        writeFully(buf, bufStart);
+        bufStart += buf.limit();
+        buf.clear();
+    }
+
+    /** 論理オフセット lsn から書き込み中セグメントへ書く */
+    private void writeFully(ByteBuffer src, long lsn) {
+        long pos = SEGMENT_HEADER_SIZE + (lsn - segStart);
+        try {
+            while (src.hasRemaining())
+                fc.write(src, pos + src.position());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
@@ -0,0 +1,61 @@
+package app.memory;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * LRU-K。直近 K 回の参照時刻を保持し、K 回前の参照が最も古いフレームを追い出す。
+ * 参照が K 回未満のフレームは距離∞として優先的に追い出す（同順位は最終参照が古い順）。
+ * 一度しか読まれない走査ページがホットページを押し出さない。victim は O(フレーム数)。
+ */
+public final class LruKPolicy implements ReplacementPolicy {
+    private final int k;
+    // history[f][0] が最新。未参照は 0
+    private final long[][] history;
+    private long clock = 0;
+
+    public LruKPolicy(int numFrames, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be >= 1");
+        this.k = k;
+        this.history = new long[numFrames][k];
+    }
+
+    @Override
+    public void loaded(int frame) {
+        Arrays.fill(history[frame], 0L);
+    }
+
+    @Override
+    public void pinned(int frame) {
+        long[] h = history[frame];
+        System.arraycopy(h, 0, h, 1, k - 1);
+        h[0] = ++clock;
+    }
+
+    @Override
+    public void unpinned(int frame) {
+        // 参照時刻は pin 時に記録済み
+    }
+
+    @Override
+    public int victim(IntPredicate isPinned) {
+        int best = -1;
+        boolean bestInfinite = false;
+        long bestKey = Long.MAX_VALUE;
+        for (int f = 0; f < history.length; f++) {
+            if (isPinned.test(f))
+                continue;
+            long[] h = history[f];
+            boolean infinite = h[k - 1] == 0;
+            // ∞ 同士は最終参照時刻、それ以外は K 回前の参照時刻で比較（小さいほど古い）
+            long key = infinite ? h[0] : h[k - 1];
+            if (best < 0 || (infinite && !bestInfinite) || (infinite == bestInfinite && key < bestKey)) {
+                best = f;
+                bestInfinite = infinite;
+                bestKey = key;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,70 @@
+package app.memory;
+
+import java.util.function.IntPredicate;
+
+/** LRU。未固定フレームを unpin された順に双方向リストで保持し、先頭を追い出す（O(1)） */
+public final class LruPolicy implements ReplacementPolicy {
+    private static final int NIL = -1;
+
+    private final int[] prev;
+    private final int[] next;
+    private final boolean[] linked;
+    private int head = NIL; // 最も古い
+    private int tail = NIL; // 最も新しい
+
+    public LruPolicy(int numFrames) {
+        this.prev = new int[numFrames];
+        this.next = new int[numFrames];
+        this.linked = new boolean[numFrames];
+    }
+
+    @Override
+    public void loaded(int frame) {
+        unlink(frame);
+    }
+
+    @Override
+    public void pinned(int frame) {
+        unlink(frame); // pin 中は候補から外す
+    }
+
+    @Override
+    public void unpinned(int frame) {
+        unlink(frame);
+        linkLast(frame);
+    }
+
+    @Override
+    public int victim(IntPredicate isPinned) {
+        for (int f = head; f != NIL; f = next[f]) {
+            if (!isPinned.test(f))
+                return f;
+        }
+        return NIL;
+    }
+
+    private void linkLast(int f) {
+        prev[f] = tail;
+        next[f] = NIL;
+        if (tail != NIL)
+            next[tail] = f;
+        else
+            head = f;
+        tail = f;
+        linked[f] = true;
+    }
+
+    private void unlink(int f) {
+        if (!linked[f])
+            return;
+        if (prev[f] != NIL)
+            next[prev[f]] = next[f];
+        else
+            head = next[f];
+        if (next[f] != NIL)
+            prev[next[f]] = prev[f];
+        else
+            tail = prev[f];
+        linked[f] = false;
+    }
+}
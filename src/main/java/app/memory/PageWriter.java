@@ -0,0 +1,77 @@
+package app.memory;
+
+/**
+ * 裏書き出しスレッド（PostgreSQL の bgwriter 相当）。
+ * 一定間隔で dirty かつ未固定のページを少しずつ書き出し、追い出し候補をきれいに保つ。
+ * 書き出しは Buffer 経由なので、pageLsn までのログ flush（WAL）が先に行われる。
+ * 書き出しに失敗したら BufferMgr に渡し、次の pin/flushAll が投げる（このスレッドは次回また試す）。
+ */
+public final class PageWriter implements AutoCloseable {
+    /** 既定の実行間隔 */
+    public static final long DEFAULT_INTERVAL_MILLIS = 200;
+    /** 1回で書き出す既定の最大ページ数 */
+    public static final int DEFAULT_MAX_PAGES_PER_ROUND = 100;
+
+    private final BufferMgr bm;
+    private final long intervalMillis;
+    private final int maxPagesPerRound;
+    private final Thread thread;
+    private volatile boolean running = false;
+
+    PageWriter(BufferMgr bm, long intervalMillis, int maxPagesPerRound) {
+        if (intervalMillis <= 0)
+            throw new IllegalArgumentException("intervalMillis must be > 0");
+        if (maxPagesPerRound <= 0)
+            throw new IllegalArgumentException("maxPagesPerRound must be > 0");
+        this.bm = bm;
+        this.intervalMillis = intervalMillis;
+        this.maxPagesPerRound = maxPagesPerRound;
+        this.thread = new Thread(this::loop, "page-writer");
+        this.thread.setDaemon(true);
+    }
+
+    PageWriter start() {
+        running = true;
+        thread.start();
+        return this;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void loop() {
+        while (running) {
+            try {
+                bm.writeBackSome(maxPagesPerRound);
+            } catch (RuntimeException e) {
+                bm.writerFailed(e); // ページは dirty のまま残り、次回再試行する
+            }
+            synchronized (this) {
+                if (!running)
+                    return;
+                try {
+                    wait(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** スレッドを止めて終了を待つ（FileChannel 上の I/O を壊さないよう interrupt はしない） */
+    @Override
+    public void close() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        if (Thread.currentThread() == thread)
+            return;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
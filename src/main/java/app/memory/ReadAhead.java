@@ -0,0 +1,52 @@
+package app.memory;
+
+import app.storage.BlockId;
+
+/**
+ * 1つの走査の逐次アクセスを検出し、先の depth ブロックを BufferMgr に非同期で先読みさせる。
+ * 直前のブロック +1 が読まれたら逐次とみなす（先頭ブロックからの走査も逐次扱い）。
+ * 1つの走査（1スレッド）専用。ring を渡すと先読みスレッドもそのリングへ読み込む（BufferRing はそれを前提に同期する）。
+ */
+public final class ReadAhead {
+    /** 既定の先読みブロック数 */
+    public static final int DEFAULT_DEPTH = 8;
+
+    private final BufferMgr bm;
+    private final String filename;
+    private final BufferRing ring;
+    private final int depth;
+    private int last = -1;
+    private int issuedUpTo = -1; // 先読みを依頼済みの最大ブロック番号
+
+    public ReadAhead(BufferMgr bm, String filename, BufferRing ring) {
+        this(bm, filename, ring, DEFAULT_DEPTH);
+    }
+
+    /** ring 使用時は、先読みがリング内の未読ページを追い出さないよう depth をリングの半分までに抑える */
+    public ReadAhead(BufferMgr bm, String filename, BufferRing ring, int depth) {
+        if (depth <= 0)
+            throw new IllegalArgumentException("depth must be > 0");
+        this.bm = bm;
+        this.filename = filename;
+        this.ring = ring;
+        this.depth = ring == null ? depth : Math.max(1, Math.min(depth, ring.size() / 2));
+    }
+
+    /** blkNum を読んだことを知らせる。逐次なら fileBlocks 未満の先 depth ブロックを先読みさせる */
+    public void accessed(int blkNum, int fileBlocks) {
+        boolean sequential = blkNum == last + 1;
+        last = blkNum;
+        if (!sequential) {
+            issuedUpTo = blkNum;
+            return;
+        }
+        int end = Math.min(fileBlocks - 1, blkNum + depth);
+        for (int b = Math.max(issuedUpTo + 1, blkNum + 1); b <= end; b++)
+            bm.prefetch(new BlockId(filename, b), ring);
+        issuedUpTo = Math.max(issuedUpTo, end);
+    }
+
+    public int depth() {
+        return depth;
+    }
+}
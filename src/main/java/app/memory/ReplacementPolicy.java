@@ -0,0 +1,21 @@
+package app.memory;
+
+import java.util.function.IntPredicate;
+
+/**
+ * BufferMgr の置換方針。フレームは 0..numFrames-1 の番号で扱う。
+ * 呼び出しはすべて BufferMgr のロック下で行われる。
+ */
+public interface ReplacementPolicy {
+    /** frame に新しいブロックが読み込まれた（アクセス履歴をリセット） */
+    void loaded(int frame);
+
+    /** frame が pin された（= 参照された） */
+    void pinned(int frame);
+
+    /** frame の pin 数が 0 になった */
+    void unpinned(int frame);
+
+    /** 置換するフレームを選ぶ。isPinned が true のフレームは選ばない。候補が無ければ -1 */
+    int victim(IntPredicate isPinned);
+}
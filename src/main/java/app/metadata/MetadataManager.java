@@ -20,6 +20,7 @@ import java.util.stream.Collectors;
  *
  * type: 0=INT, 1=STRING
  * length: STRINGの最大バイト(≒ maxChars*4) / INTは0
+ * slotsize: 固定長形式のレコード長。SLOTTED 形式（可変長）では 0
  */
 public final class MetadataManager {
 
@@ -75,11 +76,16 @@ public final class MetadataManager {
 
     /** ユーザー定義テーブルの作成（カタログにレコード追加） */
     public void createTable(String tblname, Schema schema) {
+        createTable(tblname, schema, RecordFormat.FIXED);
+    }
+
+    /** format のページ形式でテーブルを作る */
+    public void createTable(String tblname, Schema schema, RecordFormat format) {
         if (tableExists(tblname))
             throw new IllegalArgumentException("table already exists: " + tblname);
         // Layout を一度作って recordSize を求める
-        Layout layout = new Layout(schema);
-        int slotSize = layout.recordSize();
+        Layout layout = new Layout(schema, format);
+        int slotSize = format == RecordFormat.SLOTTED ? 0 : layout.recordSize();
 
         // tblcat へ1件
         try (TableScan scan = new TableScan(fm, tblcat)) {
@@ -108,31 +114,26 @@ public final class MetadataManager {
     }
 
     private boolean tableExists(String tblname) {
+        return findFormat(tblname).isPresent();
+    }
+
+    // tblcat のエントリからページ形式を読む（slotsize=0 なら SLOTTED）
+    private Optional<RecordFormat> findFormat(String tblname) {
         try (TableScan scan = new TableScan(fm, tblcat)) {
             scan.beforeFirst();
             while (scan.next()) {
                 if (tblname.equals(scan.getString("tblname")))
-                    return true;
+                    return Optional.of(scan.getInt("slotsize") == 0 ? RecordFormat.SLOTTED : RecordFormat.FIXED);
             }
         }
-        return false;
+        return Optional.empty();
     }
 
     /** カタログから Layout を復元 */
     public Layout getLayout(String tblname) {
-        // tblcat のエントリ確認（slotsize は情報用途。実際の計算は fldcat から復元）
-        boolean found = false;
-        try (TableScan scan = new TableScan(fm, tblcat)) {
-            scan.beforeFirst();
-            while (scan.next()) {
-                if (tblname.equals(scan.getString("tblname"))) {
-                    found = true;
-                    break;
-                }
-            }
-        }
-        if (!found)
-            throw new IllegalArgumentException("table not found: " + tblname);
+        // tblcat のエントリ確認（slotsize はページ形式の判定にだけ使う。列は fldcat から復元）
+        RecordFormat format = findFormat(tblname)
+                .orElseThrow(() -> new IllegalArgumentException("table not found: " + tblname));
 
         // fldcat から列を復元
         Map<String, FieldType> types = new LinkedHashMap<>();
@@ -171,7 +172,7 @@ public final class MetadataManager {
             }
         }
         // Layout は新規計算（offset は一致する想定）
-        return new Layout(schema);
+        return new Layout(schema, format);
     }
 
     public void createIndex(String iname, String tname, String fname) {
@@ -230,6 +231,7 @@ public final class MetadataManager {
 
         // 物理テーブルファイルを削除
         fm.deleteFileIfExists(tblname + ".tbl");
+        fm.deleteFileIfExists(FreeSpaceMap.fileFor(tblname + ".tbl"));
         return true;
     }
 
@@ -331,15 +333,17 @@ public final class MetadataManager {
     }
 
     public Optional<String> showCreateTable(String tblname) {
-        if (!tableExists(tblname))
+        Optional<RecordFormat> format = findFormat(tblname);
+        if (format.isEmpty())
             return Optional.empty();
+        String using = format.get() == RecordFormat.SLOTTED ? " USING SLOTTED" : "";
         List<ColumnMetadata> columns = loadColumnMetadata(tblname);
         if (columns.isEmpty())
-            return Optional.of("CREATE TABLE " + tblname + " ();" );
+            return Optional.of("CREATE TABLE " + tblname + " ()" + using + ";");
         String cols = columns.stream()
                 .map(col -> "  " + col.name() + " " + formatColumnType(col))
                 .collect(Collectors.joining(",\n"));
-        return Optional.of("CREATE TABLE " + tblname + " (\n" + cols + "\n);");
+        return Optional.of("CREATE TABLE " + tblname + " (\n" + cols + "\n)" + using + ";");
     }
 
     private String formatColumnType(ColumnMetadata col) {
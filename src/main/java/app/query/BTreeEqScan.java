@@ -23,6 +23,7 @@ public final class BTreeEqScan implements Scan {
     private final String indexName;
     private final int key;
 
+    private Layout layout;
     private BTreeIndex idx;
     private RangeCursor cur; // range(k,k) のカーソル
     private TableFile tf;
@@ -49,8 +50,7 @@ public final class BTreeEqScan implements Scan {
             this.cur = idx.range(sk, /* lowInc= */true, sk, /* highInc= */true);
 
             // 3) テーブル側（RID で moveTo）
-            Layout layout = mdm.getLayout(table);
-            this.tf = new TableFile(fm, table + ".tbl", layout);
+            this.tf = new TableFile(fm, table + ".tbl", layout());
             this.ts = new TableScan(fm, tf);
             this.ts.beforeFirst();
         } catch (Exception e) {
@@ -83,6 +83,48 @@ public final class BTreeEqScan implements Scan {
         return ts.getString(fldName);
     }
 
+    /** 列番号は表の Layout の列順（beforeFirst 前の計画時にも引ける） */
+    @Override
+    public int indexOf(String fldName) {
+        return layout().index(fldName);
+    }
+
+    @Override
+    public int getInt(int col) {
+        return ts.getInt(col);
+    }
+
+    @Override
+    public String getString(int col) {
+        return ts.getString(col);
+    }
+
+    @Override
+    public boolean isString(int col) {
+        return ts.isString(col);
+    }
+
+    @Override
+    public boolean stringEquals(int col, byte[] b, int off, int len) {
+        return ts.stringEquals(col, b, off, len);
+    }
+
+    @Override
+    public boolean stringEquals(int col, Scan other, int otherCol) {
+        return ts.stringEquals(col, other, otherCol);
+    }
+
+    @Override
+    public int stringHash(int col) {
+        return ts.stringHash(col);
+    }
+
+    private Layout layout() {
+        if (layout == null)
+            layout = mdm.getLayout(table);
+        return layout;
+    }
+
     @Override
     public void close() {
         try {
@@ -2,16 +2,12 @@ package app.query;
 
 import java.util.*;
 
-/** 子Scanの行を、指定フィールドの組で一意化して返す */
+/** 子Scanの行を、指定フィールドの組で一意化して返す（列番号は fields 内の位置） */
 public final class DistinctScan implements Scan {
     private final Scan child;
     private final List<String> fields;
 
-    private static final class Row {
-        final Map<String, Object> vals = new HashMap<>();
-    }
-
-    private final List<Row> rows = new ArrayList<>();
+    private final List<Object[]> rows = new ArrayList<>();
     private int pos = -1;
 
     public DistinctScan(Scan child, List<String> fields) {
@@ -22,32 +18,32 @@ public final class DistinctScan implements Scan {
     @Override
     public void beforeFirst() {
         rows.clear();
+        int n = fields.size();
+        int[] cols = new int[n]; // 子の列番号は走査の前に一度だけ引く
+        for (int i = 0; i < n; i++)
+            cols[i] = child.indexOf(fields.get(i));
         child.beforeFirst();
         Set<List<Object>> seen = new HashSet<>();
         while (child.next()) {
-            List<Object> key = new ArrayList<>(fields.size());
-            Row r = new Row();
-            for (String f : fields) {
-                Object v = readSmart(child, f);
-                key.add(v);
-                r.vals.put(f, v);
-            }
-            if (seen.add(key))
+            Object[] r = new Object[n];
+            for (int i = 0; i < n; i++)
+                r[i] = readSmart(child, fields.get(i), cols[i]);
+            if (seen.add(Arrays.asList(r)))
                 rows.add(r);
         }
         pos = -1;
     }
 
-    private Object readSmart(Scan s, String f) {
+    private Object readSmart(Scan s, String f, int col) {
         // 文字列優先 → ダメなら int
         try {
-            String sv = s.getString(f);
+            String sv = col >= 0 ? s.getString(col) : s.getString(f);
             // 空文字も正規の値として扱う（必要なら isBlank() で除外可）
             return sv;
         } catch (Exception ignore) {
         }
         try {
-            return Integer.valueOf(s.getInt(f));
+            return Integer.valueOf(col >= 0 ? s.getInt(col) : s.getInt(f));
         } catch (Exception ignore) {
         }
         return null;
@@ -60,20 +56,41 @@ public final class DistinctScan implements Scan {
 
     @Override
     public int getInt(String field) {
-        Object v = rows.get(pos).vals.get(field);
+        int col = indexOf(field);
+        if (col < 0)
+            throw new IllegalArgumentException("not an int: " + field);
+        return getInt(col);
+    }
+
+    @Override
+    public String getString(String field) {
+        int col = indexOf(field);
+        if (col < 0)
+            throw new IllegalArgumentException("no such field: " + field);
+        return getString(col);
+    }
+
+    @Override
+    public int indexOf(String field) {
+        return fields.indexOf(field);
+    }
+
+    @Override
+    public int getInt(int col) {
+        Object v = rows.get(pos)[col];
         if (v instanceof Integer)
             return (Integer) v;
         if (v instanceof String && ((String) v).matches("-?\\d+"))
             return Integer.parseInt((String) v);
-        throw new IllegalArgumentException("not an int: " + field);
+        throw new IllegalArgumentException("not an int: " + fields.get(col));
     }
 
     @Override
-    public String getString(String field) {
-        Object v = rows.get(pos).vals.get(field);
+    public String getString(int col) {
+        Object v = rows.get(pos)[col];
         if (v != null)
             return v.toString();
-        throw new IllegalArgumentException("no such field: " + field);
+        throw new IllegalArgumentException("no such field: " + fields.get(col));
     }
 
     @Override
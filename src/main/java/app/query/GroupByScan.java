@@ -1,5 +1,6 @@
 package app.query;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -40,26 +41,49 @@ public final class GroupByScan implements Scan {
     private final Scan child;
     private final String groupField; // null なら全体集約
     private final List<Spec> specs;
+    private final List<String> outNames; // 出力の列番号 -> 列名（グループ列があれば先頭）
 
-    private static final class Row {
-        final Map<String, Object> vals = new HashMap<>();
-    }
-
-    private List<Row> results = new ArrayList<>();
+    private List<Object[]> results = new ArrayList<>();
     private int pos = -1;
 
     public GroupByScan(Scan child, String groupField, List<Spec> specs) {
         this.child = Objects.requireNonNull(child);
         this.groupField = groupField; // null 可
         this.specs = List.copyOf(specs);
+        List<String> names = new ArrayList<>();
+        if (groupField != null)
+            names.add(groupField);
+        for (Spec sp : this.specs)
+            names.add(sp.outName());
+        this.outNames = List.copyOf(names);
     }
 
     @Override
     public void beforeFirst() {
+        // 0) 子の列番号は走査の前に一度だけ引く（-1 なら名前で読む）
+        int groupCol = groupField == null ? -1 : child.indexOf(groupField);
+        int[] cols = new int[specs.size()];
+        for (int i = 0; i < cols.length; i++)
+            cols[i] = specs.get(i).field == null ? -1 : child.indexOf(specs.get(i).field);
+
+        // STRING のグループ列はページ上のバイト列で引く（既存グループの行では String を作らない）
+        StringGroups strings = groupCol >= 0 && child.isString(groupCol) ? new StringGroups() : null;
+
         // 1) 走査してグループごとの集約値を計算
         Map<Object, Acc> map = new LinkedHashMap<>();
         child.beforeFirst();
         while (child.next()) {
+            if (strings != null) {
+                int h = child.stringHash(groupCol);
+                Acc acc = strings.find(child, groupCol, h);
+                if (acc == null) {
+                    String k = child.getString(groupCol);
+                    acc = map.computeIfAbsent(k, x -> new Acc(specs.size()));
+                    strings.add(h, k.getBytes(StandardCharsets.UTF_8), acc);
+                }
+                acc.accumulate(child, specs, cols);
+                continue;
+            }
             Object key;
             if (groupField == null) {
                 key = "__global__";
@@ -67,25 +91,26 @@ public final class GroupByScan implements Scan {
                 // ★ INT優先で読む。失敗したらString。
                 Object k = null;
                 try {
-                    k = Integer.valueOf(child.getInt(groupField));
+                    k = Integer.valueOf(groupCol >= 0 ? child.getInt(groupCol) : child.getInt(groupField));
                 } catch (Exception ignore) {
                     try {
-                        k = child.getString(groupField);
+                        k = groupCol >= 0 ? child.getString(groupCol) : child.getString(groupField);
                     } catch (Exception ignore2) {
                         /* 最終的に null のまま */ }
                 }
                 key = (k == null ? "" : k);
             }
-            map.computeIfAbsent(key, k -> new Acc()).accumulate(child, specs);
+            map.computeIfAbsent(key, k -> new Acc(specs.size())).accumulate(child, specs, cols);
         }
 
-        // 2) Acc -> Row へ変換
+        // 2) Acc -> 行（出力の列番号順）へ変換
         results.clear();
+        int base = groupField == null ? 0 : 1;
         for (Map.Entry<Object, Acc> e : map.entrySet()) {
-            Row r = new Row();
+            Object[] r = new Object[outNames.size()];
             if (groupField != null)
-                r.vals.put(groupField, e.getKey());
-            e.getValue().emitTo(r, groupField, specs);
+                r[0] = e.getKey();
+            e.getValue().emitTo(r, base, specs);
             results.add(r);
         }
         pos = -1;
@@ -98,19 +123,40 @@ public final class GroupByScan implements Scan {
 
     @Override
     public int getInt(String field) {
-        Object v = results.get(pos).vals.get(field);
+        int col = indexOf(field);
+        if (col < 0)
+            throw new IllegalArgumentException("not an int: " + field);
+        return getInt(col);
+    }
+
+    @Override
+    public String getString(String field) {
+        int col = indexOf(field);
+        if (col < 0)
+            throw new IllegalArgumentException("no such field: " + field);
+        return getString(col);
+    }
+
+    @Override
+    public int indexOf(String field) {
+        return outNames.indexOf(field);
+    }
+
+    @Override
+    public int getInt(int col) {
+        Object v = results.get(pos)[col];
         if (v instanceof Integer)
             return (Integer) v;
         if (v instanceof Long)
             return ((Long) v).intValue();
-        throw new IllegalArgumentException("not an int: " + field);
+        throw new IllegalArgumentException("not an int: " + outNames.get(col));
     }
 
     @Override
-    public String getString(String field) {
-        Object v = results.get(pos).vals.get(field);
+    public String getString(int col) {
+        Object v = results.get(pos)[col];
         if (v == null)
-            throw new IllegalArgumentException("no such field: " + field);
+            throw new IllegalArgumentException("no such field: " + outNames.get(col));
         return v.toString();
     }
 
@@ -119,18 +165,24 @@ public final class GroupByScan implements Scan {
         child.close();
     }
 
+    /** グループ 1 つぶんの集約状態（配列の添字は specs の位置） */
     private static final class Acc {
         long count = 0;
-        final Map<String, Long> sum = new HashMap<>();
-        final Map<String, Integer> minInt = new HashMap<>();
-        final Map<String, Integer> maxInt = new HashMap<>();
-        final Map<String, String> minStr = new HashMap<>();
-        final Map<String, String> maxStr = new HashMap<>();
+        final long[] sum;
+        final Integer[] minMaxInt;
+        final String[] minMaxStr;
 
-        void accumulate(Scan s, List<Spec> specs) {
+        Acc(int n) {
+            this.sum = new long[n];
+            this.minMaxInt = new Integer[n];
+            this.minMaxStr = new String[n];
+        }
+
+        void accumulate(Scan s, List<Spec> specs, int[] cols) {
             count++;
-            java.util.HashSet<String> addedSum = new java.util.HashSet<>();
-            for (Spec sp : specs) {
+            for (int i = 0; i < cols.length; i++) {
+                Spec sp = specs.get(i);
+                int col = cols[i];
                 switch (sp.agg) {
                     case COUNT:
                         break;
@@ -139,34 +191,26 @@ public final class GroupByScan implements Scan {
                     case AVG: {
                         if (sp.field == null)
                             break;
-                        if (addedSum.add(sp.field)) {
-                            int v = s.getInt(sp.field);
-                            sum.merge(sp.field, (long) v, Long::sum);
-                        }
-                        break;
-                    }
-
-                    case MIN: {
-                        // ★ まずintを試す→ダメならstring
-                        try {
-                            int iv = s.getInt(sp.field);
-                            minInt.merge(sp.field, iv, Math::min);
-                        } catch (Exception ignore) {
-                            String sv = s.getString(sp.field);
-                            // 空文字は無視したいなら if (!sv.isBlank()) ...
-                            minStr.merge(sp.field, sv, (a, b) -> (a.compareTo(b) <= 0) ? a : b);
-                        }
+                        sum[i] += col >= 0 ? s.getInt(col) : s.getInt(sp.field);
                         break;
                     }
 
+                    case MIN:
                     case MAX: {
-                        // ★ まずintを試す→ダメならstring
+                        boolean min = sp.agg == Agg.MIN;
+                        // ★ まずintを試す→ダメならstring（STRING 列と分かっていれば string）
                         try {
-                            int iv = s.getInt(sp.field);
-                            maxInt.merge(sp.field, iv, Math::max);
+                            if (col >= 0 && s.isString(col))
+                                throw new IllegalArgumentException("not an int: " + sp.field);
+                            int iv = col >= 0 ? s.getInt(col) : s.getInt(sp.field);
+                            Integer cur = minMaxInt[i];
+                            minMaxInt[i] = cur == null ? iv : (min ? Math.min(cur, iv) : Math.max(cur, iv));
                         } catch (Exception ignore) {
-                            String sv = s.getString(sp.field);
-                            maxStr.merge(sp.field, sv, (a, b) -> (a.compareTo(b) >= 0) ? a : b);
+                            String sv = col >= 0 ? s.getString(col) : s.getString(sp.field);
+                            // 空文字は無視したいなら if (!sv.isBlank()) ...
+                            String cur = minMaxStr[i];
+                            if (cur == null || (min ? sv.compareTo(cur) < 0 : sv.compareTo(cur) > 0))
+                                minMaxStr[i] = sv;
                         }
                         break;
                     }
@@ -174,39 +218,77 @@ public final class GroupByScan implements Scan {
             }
         }
 
-        void emitTo(Row r, String groupField, List<Spec> specs) {
-            for (Spec sp : specs) {
-                switch (sp.agg) {
+        void emitTo(Object[] r, int base, List<Spec> specs) {
+            for (int i = 0; i < specs.size(); i++) {
+                switch (specs.get(i).agg) {
                     case COUNT:
-                        r.vals.put(sp.outName(), (int) count);
+                        r[base + i] = (int) count;
                         break;
                     case SUM:
-                        r.vals.put(sp.outName(), sum.getOrDefault(sp.field, 0L).intValue());
+                        r[base + i] = (int) sum[i];
                         break;
-                    case AVG: {
-                        long s = sum.getOrDefault(sp.field, 0L);
-                        r.vals.put(sp.outName(), (int) (count == 0 ? 0 : (s / count)));
-                        break;
-                    }
-                    case MIN: {
-                        if (minStr.containsKey(sp.field))
-                            r.vals.put(sp.outName(), minStr.get(sp.field));
-                        else
-                            r.vals.put(sp.outName(), minInt.getOrDefault(sp.field, 0));
+                    case AVG:
+                        r[base + i] = (int) (count == 0 ? 0 : (sum[i] / count));
                         break;
-                    }
-                    case MAX: {
-                        if (maxStr.containsKey(sp.field))
-                            r.vals.put(sp.outName(), maxStr.get(sp.field));
+                    case MIN:
+                    case MAX:
+                        if (minMaxStr[i] != null)
+                            r[base + i] = minMaxStr[i];
                         else
-                            r.vals.put(sp.outName(), maxInt.getOrDefault(sp.field, 0));
+                            r[base + i] = minMaxInt[i] == null ? 0 : minMaxInt[i];
                         break;
-                    }
                 }
             }
         }
     }
 
+    /** STRING のグループ列のキー表（UTF-8 バイト列のハッシュで開番地法。比較は子の行のバイト列と直接行う） */
+    private static final class StringGroups {
+        private int[] hashes = new int[16];
+        private byte[][] keys = new byte[16][];
+        private Acc[] accs = new Acc[16];
+        private int size;
+
+        /** 子の今の行のキー（ハッシュ h）のグループ。無ければ null */
+        Acc find(Scan s, int col, int h) {
+            int mask = keys.length - 1;
+            for (int i = spread(h) & mask; keys[i] != null; i = (i + 1) & mask)
+                if (hashes[i] == h && s.stringEquals(col, keys[i], 0, keys[i].length))
+                    return accs[i];
+            return null;
+        }
+
+        void add(int h, byte[] key, Acc acc) {
+            if ((size + 1) * 2 > keys.length) {
+                int[] oh = hashes;
+                byte[][] ok = keys;
+                Acc[] oa = accs;
+                hashes = new int[ok.length * 2];
+                keys = new byte[ok.length * 2][];
+                accs = new Acc[ok.length * 2];
+                for (int i = 0; i < ok.length; i++)
+                    if (ok[i] != null)
+                        put(oh[i], ok[i], oa[i]);
+            }
+            put(h, key, acc);
+            size++;
+        }
+
+        private void put(int h, byte[] key, Acc acc) {
+            int mask = keys.length - 1;
+            int i = spread(h) & mask;
+            while (keys[i] != null)
+                i = (i + 1) & mask;
+            hashes[i] = h;
+            keys[i] = key;
+            accs[i] = acc;
+        }
+
+        private static int spread(int h) {
+            return h ^ (h >>> 16);
+        }
+    }
+
     @FunctionalInterface
     private interface ThrowingSupplier<T> {
         T get() throws Exception;
@@ -12,12 +12,14 @@ public final class HavingScan implements Scan {
     private final String field; // 集約結果列名（count, sum_x, ...）
     private final Op op;
     private final int rhs; // 右辺は int 前提
+    private final int col; // field の子での列番号（-1 なら名前で読む）
 
     public HavingScan(Scan child, String field, Op op, int rhs) {
         this.child = Objects.requireNonNull(child);
         this.field = Objects.requireNonNull(field);
         this.op = Objects.requireNonNull(op);
         this.rhs = rhs;
+        this.col = child.indexOf(field);
     }
 
     @Override
@@ -28,7 +30,7 @@ public final class HavingScan implements Scan {
     @Override
     public boolean next() {
         while (child.next()) {
-            int lhs = readAsInt(child, field);
+            int lhs = readAsInt(child, field, col);
             if (switch (op) {
                 case GT -> lhs > rhs;
                 case GE -> lhs >= rhs;
@@ -41,12 +43,12 @@ public final class HavingScan implements Scan {
         return false;
     }
 
-    private static int readAsInt(Scan s, String f) {
+    private static int readAsInt(Scan s, String f, int col) {
         try {
-            return s.getInt(f);
+            return col >= 0 ? s.getInt(col) : s.getInt(f);
         } catch (Exception e) {
             try {
-                String v = s.getString(f);
+                String v = col >= 0 ? s.getString(col) : s.getString(f);
                 if (v != null && v.matches("-?\\d+"))
                     return Integer.parseInt(v);
             } catch (Exception ignore) {
@@ -65,6 +67,41 @@ public final class HavingScan implements Scan {
         return child.getString(field);
     }
 
+    @Override
+    public int indexOf(String field) {
+        return child.indexOf(field);
+    }
+
+    @Override
+    public int getInt(int col) {
+        return child.getInt(col);
+    }
+
+    @Override
+    public String getString(int col) {
+        return child.getString(col);
+    }
+
+    @Override
+    public boolean isString(int col) {
+        return child.isString(col);
+    }
+
+    @Override
+    public boolean stringEquals(int col, byte[] b, int off, int len) {
+        return child.stringEquals(col, b, off, len);
+    }
+
+    @Override
+    public boolean stringEquals(int col, Scan other, int otherCol) {
+        return child.stringEquals(col, other, otherCol);
+    }
+
+    @Override
+    public int stringHash(int col) {
+        return child.stringHash(col);
+    }
+
     @Override
     public void close() {
         child.close();
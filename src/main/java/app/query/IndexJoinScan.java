@@ -16,6 +16,7 @@ import java.util.Objects;
  * Indexed Nested Loop Join（等値結合・右側INTキーにハッシュ索引）:
  * - 左Scanの各行について、右側インデックスで key を検索し、ヒットRIDsを順に返す
  * - getInt/getStringは左→右の順に解決（左に無ければ右を参照）
+ * - 列番号は左の列 c を 2c、右の列 c（右表の Layout の列番号）を 2c+1 とする
  */
 public final class IndexJoinScan implements Scan {
     private final Scan left; // 外側
@@ -25,6 +26,7 @@ public final class IndexJoinScan implements Scan {
     private final HashIndex rightIndex; // 右側のハッシュインデックス
     private final String leftKeyField; // 左側：キー列名（例: "id"）
     private final String rightKeyField; // 右側：キー列名（例: "student_id"）
+    private final int leftKeyCol; // leftKeyField の左での列番号（-1 なら名前で読む）
 
     private List<RID> hits = new ArrayList<>();
     private int pos = -1;
@@ -41,6 +43,7 @@ public final class IndexJoinScan implements Scan {
         this.rightIndex = Objects.requireNonNull(rightIndex);
         this.leftKeyField = Objects.requireNonNull(leftKeyField);
         this.rightKeyField = Objects.requireNonNull(rightKeyField);
+        this.leftKeyCol = left.indexOf(leftKeyField);
     }
 
     @Override
@@ -77,7 +80,7 @@ public final class IndexJoinScan implements Scan {
         hits = new ArrayList<>();
         if (!leftHasRow)
             return;
-        int key = left.getInt(leftKeyField);
+        int key = leftKeyCol >= 0 ? left.getInt(leftKeyCol) : left.getInt(leftKeyField);
         hits = rightIndex.search(key);
     }
 
@@ -99,6 +102,53 @@ public final class IndexJoinScan implements Scan {
         }
     }
 
+    @Override
+    public int indexOf(String field) {
+        int c = left.indexOf(field);
+        if (c >= 0)
+            return c << 1;
+        c = rightLayout.index(field);
+        return c >= 0 ? (c << 1) | 1 : -1;
+    }
+
+    @Override
+    public int getInt(int col) {
+        return (col & 1) == 0 ? left.getInt(col >>> 1) : rightRp.getInt(rightSlot, col >>> 1);
+    }
+
+    @Override
+    public String getString(int col) {
+        return (col & 1) == 0 ? left.getString(col >>> 1) : rightRp.getString(rightSlot, col >>> 1);
+    }
+
+    @Override
+    public boolean isString(int col) {
+        return (col & 1) == 0 ? left.isString(col >>> 1) : rightLayout.isString(col >>> 1);
+    }
+
+    @Override
+    public boolean stringEquals(int col, byte[] b, int off, int len) {
+        if ((col & 1) == 0)
+            return left.stringEquals(col >>> 1, b, off, len);
+        return rightRp.stringEquals(rightSlot, col >>> 1, b, off, len);
+    }
+
+    @Override
+    public boolean stringEquals(int col, Scan other, int otherCol) {
+        if ((col & 1) == 0)
+            return left.stringEquals(col >>> 1, other, otherCol);
+        int c = col >>> 1;
+        return other.stringEquals(otherCol, rightRp.page().contents(),
+                rightRp.stringOffset(rightSlot, c), rightRp.stringLength(rightSlot, c));
+    }
+
+    @Override
+    public int stringHash(int col) {
+        if ((col & 1) == 0)
+            return left.stringHash(col >>> 1);
+        return rightRp.stringHash(rightSlot, col >>> 1);
+    }
+
     @Override
     public void close() {
         left.close();
@@ -23,6 +23,7 @@ public final class IndexOrderScan implements Scan {
     private final SearchKey highKey;
     private final boolean highInclusive;
     private final List<Predicate> residualPredicates;
+    private List<Predicate> boundPredicates = List.of(); // tableScan の列番号に解決済み
     private final int limit;
 
     private TableScan tableScan;
@@ -54,8 +55,10 @@ public final class IndexOrderScan implements Scan {
     public void beforeFirst() {
         closeCursor();
         try {
-            if (tableScan == null)
+            if (tableScan == null) {
                 tableScan = new TableScan(fm, tableFile);
+                boundPredicates = residualPredicates.stream().map(p -> p.bind(tableScan)).toList();
+            }
             tableScan.beforeFirst();
             index = new BTreeIndex(fm, indexName, tableFile.filename());
             index.open();
@@ -89,7 +92,7 @@ public final class IndexOrderScan implements Scan {
     }
 
     private boolean matchesResidualPredicates() {
-        for (Predicate predicate : residualPredicates) {
+        for (Predicate predicate : boundPredicates) {
             if (!predicate.evaluate(tableScan))
                 return false;
         }
@@ -106,6 +109,41 @@ public final class IndexOrderScan implements Scan {
         return tableScan.getString(field);
     }
 
+    @Override
+    public int indexOf(String field) {
+        return tableFile.layout().index(field);
+    }
+
+    @Override
+    public int getInt(int col) {
+        return tableScan.getInt(col);
+    }
+
+    @Override
+    public String getString(int col) {
+        return tableScan.getString(col);
+    }
+
+    @Override
+    public boolean isString(int col) {
+        return tableScan.isString(col);
+    }
+
+    @Override
+    public boolean stringEquals(int col, byte[] b, int off, int len) {
+        return tableScan.stringEquals(col, b, off, len);
+    }
+
+    @Override
+    public boolean stringEquals(int col, Scan other, int otherCol) {
+        return tableScan.stringEquals(col, other, otherCol);
+    }
+
+    @Override
+    public int stringHash(int col) {
+        return tableScan.stringHash(col);
+    }
+
     @Override
     public void close() {
         closeCursor();
@@ -63,6 +63,42 @@ public final class IndexSelectScan implements Scan {
         return rp.getString(slot, field);
     }
 
+    @Override
+    public int indexOf(String field) {
+        return layout.index(field);
+    }
+
+    @Override
+    public int getInt(int col) {
+        return rp.getInt(slot, col);
+    }
+
+    @Override
+    public String getString(int col) {
+        return rp.getString(slot, col);
+    }
+
+    @Override
+    public boolean isString(int col) {
+        return layout.isString(col);
+    }
+
+    @Override
+    public boolean stringEquals(int col, byte[] b, int off, int len) {
+        return rp.stringEquals(slot, col, b, off, len);
+    }
+
+    @Override
+    public boolean stringEquals(int col, Scan other, int otherCol) {
+        return other.stringEquals(otherCol, rp.page().contents(), rp.stringOffset(slot, col),
+                rp.stringLength(slot, col));
+    }
+
+    @Override
+    public int stringHash(int col) {
+        return rp.stringHash(slot, col);
+    }
+
     @Override
     public void close() {
         /* no resources */ }
@@ -40,6 +40,41 @@ public final class LimitScan implements Scan {
         return child.getString(field);
     }
 
+    @Override
+    public int indexOf(String field) {
+        return child.indexOf(field);
+    }
+
+    @Override
+    public int getInt(int col) {
+        return child.getInt(col);
+    }
+
+    @Override
+    public String getString(int col) {
+        return child.getString(col);
+    }
+
+    @Override
+    public boolean isString(int col) {
+        return child.isString(col);
+    }
+
+    @Override
+    public boolean stringEquals(int col, byte[] b, int off, int len) {
+        return child.stringEquals(col, b, off, len);
+    }
+
+    @Override
+    public boolean stringEquals(int col, Scan other, int otherCol) {
+        return child.stringEquals(col, other, otherCol);
+    }
+
+    @Override
+    public int stringHash(int col) {
+        return child.stringHash(col);
+    }
+
     @Override
     public void close() {
         child.close();
@@ -6,15 +6,22 @@ import java.util.*;
  * 全行をメモリに取り込み、単一キーで昇順/降順ソート。
  * 並べ替えキーに加えて carryFields で指定された列もマテリアライズし、
  * 並べ替え後の getInt/getString で取得できるようにする。
+ * 列番号は carryFields（並べ替えキーを含む）の中の位置。
  */
 public final class OrderByScan implements Scan {
     private final Scan child;
     private final String orderField;
     private final boolean asc;
     private final List<String> carryFields; // 並べ替え後も参照される列
+    private final Map<String, Integer> index = new HashMap<>(); // 列名 -> carryFields 内の位置
+    private final int orderCol;
 
     private static final class Row {
-        final Map<String, FieldValue> vals = new HashMap<>();
+        final FieldValue[] vals;
+
+        Row(int n) {
+            this.vals = new FieldValue[n];
+        }
     }
 
     private static final class FieldValue {
@@ -66,17 +73,21 @@ public final class OrderByScan implements Scan {
         LinkedHashSet<String> set = new LinkedHashSet<>(carryFields == null ? List.of() : carryFields);
         set.add(orderField); // 並べ替えキーは必ず保持
         this.carryFields = new ArrayList<>(set);
+        for (int i = 0; i < this.carryFields.size(); i++)
+            index.put(this.carryFields.get(i), i);
+        this.orderCol = index.get(orderField);
     }
 
-    private FieldValue captureField(Scan s, String f) {
+    // col は子での列番号（-1 なら名前で読む）
+    private FieldValue captureField(Scan s, String f, int col) {
         Integer iv = null;
         try {
-            iv = s.getInt(f);
+            iv = col >= 0 ? s.getInt(col) : s.getInt(f);
         } catch (Exception ignore) {
         }
         String sv = null;
         try {
-            sv = s.getString(f);
+            sv = col >= 0 ? s.getString(col) : s.getString(f);
         } catch (Exception ignore) {
         }
         if (iv == null && sv == null)
@@ -87,22 +98,20 @@ public final class OrderByScan implements Scan {
     @Override
     public void beforeFirst() {
         rows.clear();
+        int n = carryFields.size();
+        int[] cols = new int[n]; // 子の列番号は走査の前に一度だけ引く
+        for (int i = 0; i < n; i++)
+            cols[i] = child.indexOf(carryFields.get(i));
         child.beforeFirst();
         while (child.next()) {
-            Row r = new Row();
-            // 並べ替えキー
-            r.vals.put(orderField, captureField(child, orderField));
-            // それ以外の列
-            for (String f : carryFields) {
-                if (f.equals(orderField))
-                    continue;
-                r.vals.put(f, captureField(child, f));
-            }
+            Row r = new Row(n);
+            for (int i = 0; i < n; i++)
+                r.vals[i] = captureField(child, carryFields.get(i), cols[i]);
             rows.add(r);
         }
         rows.sort((a, b) -> {
-            FieldValue va = a.vals.get(orderField);
-            FieldValue vb = b.vals.get(orderField);
+            FieldValue va = a.vals[orderCol];
+            FieldValue vb = b.vals[orderCol];
             int cmp = (va != null) ? va.compareTo(vb) : (vb == null ? 0 : -1);
             return asc ? cmp : -cmp;
         });
@@ -116,21 +125,37 @@ public final class OrderByScan implements Scan {
 
     @Override
     public int getInt(String field) {
-        FieldValue v = rows.get(pos).vals.get(field);
-        if (v == null)
-            throw new IllegalArgumentException("not materialized: " + field);
-        return v.asInt();
+        return getInt(materialized(field));
     }
 
     @Override
     public String getString(String field) {
-        FieldValue v = rows.get(pos).vals.get(field);
-        if (v != null) {
-            String s = v.asString();
-            if (s != null)
-                return s;
-        }
-        throw new IllegalArgumentException("not materialized: " + field);
+        return getString(materialized(field));
+    }
+
+    @Override
+    public int indexOf(String field) {
+        return index.getOrDefault(field, -1);
+    }
+
+    @Override
+    public int getInt(int col) {
+        return rows.get(pos).vals[col].asInt();
+    }
+
+    @Override
+    public String getString(int col) {
+        String s = rows.get(pos).vals[col].asString();
+        if (s == null)
+            throw new IllegalArgumentException("not materialized: " + carryFields.get(col));
+        return s;
+    }
+
+    private int materialized(String field) {
+        int col = indexOf(field);
+        if (col < 0)
+            throw new IllegalArgumentException("not materialized: " + field);
+        return col;
     }
 
     @Override
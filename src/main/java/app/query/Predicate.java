@@ -1,5 +1,6 @@
 package app.query;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 
 public final class Predicate {
@@ -16,13 +17,31 @@ public final class Predicate {
     private final String rightField; // 右辺がフィールドの場合に使用
     private final Integer rightInt; // 右辺が定数(int)の場合に使用
     private final String rightStr; // 右辺が定数(string)の場合に使用
+    private final byte[] rightBytes; // rightStr の UTF-8（ページ上のバイト列と直接比べる）
+    // bind で解決した列番号（-1 なら名前で読む）
+    private final int leftCol;
+    private final int rightCol;
 
     private Predicate(String leftField, Op op, String rightField, Integer rightInt, String rightStr) {
+        this(leftField, op, rightField, rightInt, rightStr, -1, -1);
+    }
+
+    private Predicate(String leftField, Op op, String rightField, Integer rightInt, String rightStr,
+            int leftCol, int rightCol) {
         this.leftField = Objects.requireNonNull(leftField);
         this.op = Objects.requireNonNull(op);
         this.rightField = rightField;
         this.rightInt = rightInt;
         this.rightStr = rightStr;
+        this.rightBytes = rightStr == null ? null : rightStr.getBytes(StandardCharsets.UTF_8);
+        this.leftCol = leftCol;
+        this.rightCol = rightCol;
+    }
+
+    /** 列名を s の列番号に解決した版（計画時に一度だけ呼ぶ。返り値は s の評価にだけ使う） */
+    public Predicate bind(Scan s) {
+        return new Predicate(leftField, op, rightField, rightInt, rightStr,
+                s.indexOf(leftField), rightField == null ? -1 : s.indexOf(rightField));
     }
 
     public static Predicate eqField(String leftField, String rightField) {
@@ -47,26 +66,38 @@ public final class Predicate {
         switch (op) {
             case EQ:
                 if (rightField != null) {
+                    if (leftCol >= 0 && rightCol >= 0 && s.isString(leftCol) && s.isString(rightCol))
+                        return s.stringEquals(leftCol, s, rightCol);
                     // 型は最低限の推定（例外は上位で拾う想定）。見つからない場合は文字列として比較トライ。
                     try {
-                        return s.getInt(leftField) == s.getInt(rightField);
+                        return leftInt(s) == (rightCol >= 0 ? s.getInt(rightCol) : s.getInt(rightField));
                     } catch (Exception ignore) {
-                        return s.getString(leftField).equals(s.getString(rightField));
+                        return leftString(s).equals(rightCol >= 0 ? s.getString(rightCol) : s.getString(rightField));
                     }
                 } else if (rightInt != null) {
-                    return s.getInt(leftField) == rightInt;
+                    return leftInt(s) == rightInt;
+                } else if (leftCol >= 0 && s.isString(leftCol)) {
+                    return s.stringEquals(leftCol, rightBytes, 0, rightBytes.length);
                 } else {
-                    return s.getString(leftField).equals(rightStr);
+                    return leftString(s).equals(rightStr);
                 }
             case LT:
-                return s.getInt(leftField) < rightInt;
+                return leftInt(s) < rightInt;
             case LE:
-                return s.getInt(leftField) <= rightInt;
+                return leftInt(s) <= rightInt;
             case GT:
-                return s.getInt(leftField) > rightInt;
+                return leftInt(s) > rightInt;
             case GE:
-                return s.getInt(leftField) >= rightInt;
+                return leftInt(s) >= rightInt;
         }
         throw new IllegalStateException("Unsupported op: " + op);
     }
+
+    private int leftInt(Scan s) {
+        return leftCol >= 0 ? s.getInt(leftCol) : s.getInt(leftField);
+    }
+
+    private String leftString(Scan s) {
+        return leftCol >= 0 ? s.getString(leftCol) : s.getString(leftField);
+    }
 }
@@ -2,7 +2,10 @@ package app.query;
 
 import java.util.Objects;
 
-/** 二重ループの直積スキャン。結合はこの上に SelectScan(eqField(...)) を被せて表現。 */
+/**
+ * 二重ループの直積スキャン。結合はこの上に SelectScan(eqField(...)) を被せて表現。
+ * 列番号は左の列 c を 2c、右の列 c を 2c+1 とする（左を優先して解決する）。
+ */
 public final class ProductScan implements Scan {
     private final Scan left;
     private final Scan right;
@@ -55,6 +58,49 @@ public final class ProductScan implements Scan {
         }
     }
 
+    @Override
+    public int indexOf(String field) {
+        int c = left.indexOf(field);
+        if (c >= 0)
+            return c << 1;
+        c = right.indexOf(field);
+        return c >= 0 ? (c << 1) | 1 : -1;
+    }
+
+    @Override
+    public int getInt(int col) {
+        return (col & 1) == 0 ? left.getInt(col >>> 1) : right.getInt(col >>> 1);
+    }
+
+    @Override
+    public String getString(int col) {
+        return (col & 1) == 0 ? left.getString(col >>> 1) : right.getString(col >>> 1);
+    }
+
+    @Override
+    public boolean isString(int col) {
+        return side(col).isString(col >>> 1);
+    }
+
+    @Override
+    public boolean stringEquals(int col, byte[] b, int off, int len) {
+        return side(col).stringEquals(col >>> 1, b, off, len);
+    }
+
+    @Override
+    public boolean stringEquals(int col, Scan other, int otherCol) {
+        return side(col).stringEquals(col >>> 1, other, otherCol);
+    }
+
+    @Override
+    public int stringHash(int col) {
+        return side(col).stringHash(col >>> 1);
+    }
+
+    private Scan side(int col) {
+        return (col & 1) == 0 ? left : right;
+    }
+
     @Override
     public void close() {
         try {
@@ -33,6 +33,42 @@ public final class ProjectScan implements Scan {
         return s.getString(field);
     }
 
+    /** 射影した列だけ子の列番号を返す（射影の確認は計画時に済み、行ごとの読み出しでは行わない） */
+    @Override
+    public int indexOf(String field) {
+        return fields.contains(field) ? s.indexOf(field) : -1;
+    }
+
+    @Override
+    public int getInt(int col) {
+        return s.getInt(col);
+    }
+
+    @Override
+    public String getString(int col) {
+        return s.getString(col);
+    }
+
+    @Override
+    public boolean isString(int col) {
+        return s.isString(col);
+    }
+
+    @Override
+    public boolean stringEquals(int col, byte[] b, int off, int len) {
+        return s.stringEquals(col, b, off, len);
+    }
+
+    @Override
+    public boolean stringEquals(int col, Scan other, int otherCol) {
+        return s.stringEquals(col, other, otherCol);
+    }
+
+    @Override
+    public int stringHash(int col) {
+        return s.stringHash(col);
+    }
+
     private void ensure(String field) {
         if (!fields.contains(field)) {
             throw new IllegalArgumentException("field not projected: " + field);
@@ -1,5 +1,10 @@
 package app.query;
 
+import app.storage.Page;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 public interface Scan extends AutoCloseable {
     void beforeFirst();
 
@@ -9,6 +14,45 @@ public interface Scan extends AutoCloseable {
 
     String getString(String field);
 
+    /**
+     * field の列番号（この Scan の中でだけ有効）。計画時に一度引いておき、行ごとの読み出しは
+     * getInt(int)/getString(int) で行う（名前のハッシュ引きを行ごとに繰り返さない）。
+     * 無い列、または列番号に対応しない Scan では -1（呼び出し側は名前で読む）
+     */
+    default int indexOf(String field) {
+        return -1;
+    }
+
+    /** indexOf が返した列番号で読む */
+    int getInt(int col);
+
+    String getString(int col);
+
+    // ---- STRING 列の比較・ハッシュ（ページ上のバイト列を直接使える Scan は行ごとに割り当てない） ----
+
+    /** col が STRING 列と分かっているか（false なら呼び出し側は従来どおり getInt/getString で読む） */
+    default boolean isString(int col) {
+        return false;
+    }
+
+    /** col の値（UTF-8）が b[off, off+len) と等しいか */
+    default boolean stringEquals(int col, byte[] b, int off, int len) {
+        byte[] v = getString(col).getBytes(StandardCharsets.UTF_8);
+        return Arrays.equals(v, 0, v.length, b, off, off + len);
+    }
+
+    /** col の値が other の otherCol の値と等しいか（other には自分自身も渡せる） */
+    default boolean stringEquals(int col, Scan other, int otherCol) {
+        byte[] v = getString(col).getBytes(StandardCharsets.UTF_8);
+        return other.stringEquals(otherCol, v, 0, v.length);
+    }
+
+    /** col の値のハッシュ（UTF-8 バイト列の Page.hash） */
+    default int stringHash(int col) {
+        byte[] v = getString(col).getBytes(StandardCharsets.UTF_8);
+        return Page.hash(v, 0, v.length);
+    }
+
     @Override
     void close();
 }
@@ -8,7 +8,7 @@ public final class SelectScan implements Scan {
 
     public SelectScan(Scan s, Predicate pred) {
         this.s = Objects.requireNonNull(s);
-        this.pred = Objects.requireNonNull(pred);
+        this.pred = Objects.requireNonNull(pred).bind(s); // 列名は一度だけ解決する
     }
 
     @Override
@@ -35,6 +35,41 @@ public final class SelectScan implements Scan {
         return s.getString(field);
     }
 
+    @Override
+    public int indexOf(String field) {
+        return s.indexOf(field);
+    }
+
+    @Override
+    public int getInt(int col) {
+        return s.getInt(col);
+    }
+
+    @Override
+    public String getString(int col) {
+        return s.getString(col);
+    }
+
+    @Override
+    public boolean isString(int col) {
+        return s.isString(col);
+    }
+
+    @Override
+    public boolean stringEquals(int col, byte[] b, int off, int len) {
+        return s.stringEquals(col, b, off, len);
+    }
+
+    @Override
+    public boolean stringEquals(int col, Scan other, int otherCol) {
+        return s.stringEquals(col, other, otherCol);
+    }
+
+    @Override
+    public int stringHash(int col) {
+        return s.stringHash(col);
+    }
+
     @Override
     public void close() {
         s.close();
@@ -0,0 +1,48 @@
+package app.record;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * バイト列から 0 / 非 0 のバイトを 8 バイト（long 1 語）ずつ探す。
+ * スロットの使用フラグや空き領域マップのように 1 バイト 1 エントリの表を線形に舐めないための道具。
+ */
+final class ByteScan {
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private ByteScan() {
+    }
+
+    /** a[from, to) で最初に 0 のバイトの位置（無ければ -1） */
+    static int firstZero(byte[] a, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long v = (long) LONGS.get(a, i);
+            // 0 のバイトだけ最上位ビットが立つ（最下位の 0 バイトより上では誤検出があり得るが、最初の位置は正しい）
+            long z = (v - ONES) & ~v & HIGHS;
+            if (z != 0)
+                return i + (Long.numberOfTrailingZeros(z) >>> 3);
+        }
+        for (; i < to; i++)
+            if (a[i] == 0)
+                return i;
+        return -1;
+    }
+
+    /** a[from, to) で最初に 0 でないバイトの位置（無ければ -1） */
+    static int firstNonZero(byte[] a, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long v = (long) LONGS.get(a, i);
+            if (v != 0)
+                return i + (Long.numberOfTrailingZeros(v) >>> 3);
+        }
+        for (; i < to; i++)
+            if (a[i] != 0)
+                return i;
+        return -1;
+    }
+}
@@ -0,0 +1,100 @@
+package app.record;
+
+import app.memory.Buffer;
+import app.memory.BufferMgr;
+import app.storage.BlockId;
+import app.storage.FileMgr;
+
+/**
+ * テーブルごとの空き領域マップ（side file: テーブルファイル名 + ".fsm"）。
+ * データブロック 1 つにつき 1 バイト（0 = 空きがある/未記録、1 = 満杯）で、バッファプール経由で読み書きする。
+ * - 挿入は満杯でない最初のブロックをここから引く（テーブルの大きさによらず数ページの読み出しで済む）
+ * - ヒントとして扱う（ログに残さない）。満杯の誤りは挿入時に直し、空きの見落としは削除時と挿入の UNDO 時に直す
+ * - マップの末尾より後ろのブロックは「空きあり」とみなす（既存のテーブルもそのまま使える）
+ */
+public final class FreeSpaceMap {
+    public static final String SUFFIX = ".fsm";
+    private static final byte FULL = 1;
+
+    private final FileMgr fm;
+    private final BufferMgr bm;
+    private final String filename;
+    private final int blockSize;
+
+    FreeSpaceMap(FileMgr fm, BufferMgr bm, String tableFile) {
+        this.fm = fm;
+        this.bm = bm;
+        this.filename = fileFor(tableFile);
+        this.blockSize = fm.blockSize();
+    }
+
+    /** テーブルファイルに対応するマップのファイル名 */
+    public static String fileFor(String tableFile) {
+        return tableFile + SUFFIX;
+    }
+
+    public String filename() {
+        return filename;
+    }
+
+    /** 空きがありそうな最初のデータブロック（tableSize 未満。無ければ -1） */
+    public int findBlockWithRoom(int tableSize) {
+        int mapBlocks = fm.length(filename);
+        for (int k = 0; (long) k * blockSize < tableSize; k++) {
+            int base = k * blockSize;
+            if (k >= mapBlocks)
+                return base;
+            Buffer buf = bm.pin(new BlockId(filename, k));
+            buf.latch().readLock().lock();
+            try {
+                int i = ByteScan.firstZero(buf.contents().contents(), 0, Math.min(blockSize, tableSize - base));
+                if (i >= 0)
+                    return base + i;
+            } finally {
+                buf.latch().readLock().unlock();
+                bm.unpin(buf);
+            }
+        }
+        return -1;
+    }
+
+    /** blk が満杯になった */
+    public void markFull(int blk) {
+        set(blk, FULL);
+    }
+
+    /** blk に空きができた */
+    public void markHasRoom(int blk) {
+        set(blk, (byte) 0);
+    }
+
+    /** tableFile の blk に空きができた（挿入を UNDO したときに Tx/リカバリから呼ぶ） */
+    public static void markHasRoom(FileMgr fm, BufferMgr bm, String tableFile, int blk) {
+        new FreeSpaceMap(fm, bm, tableFile).markHasRoom(blk);
+    }
+
+    private void set(int blk, byte v) {
+        int k = blk / blockSize;
+        if (k >= fm.length(filename)) {
+            if (v == 0)
+                return; // 未記録の範囲はもともと空きあり扱い
+            synchronized (fm) {
+                while (fm.length(filename) <= k)
+                    fm.append(filename);
+            }
+        }
+        Buffer buf = bm.pin(new BlockId(filename, k));
+        buf.latch().writeLock().lock();
+        try {
+            byte[] a = buf.contents().contents();
+            int i = blk % blockSize;
+            if (a[i] != v) {
+                a[i] = v;
+                buf.setDirty();
+            }
+        } finally {
+            buf.latch().writeLock().unlock();
+            bm.unpin(buf);
+        }
+    }
+}
@@ -1,39 +1,94 @@
 package app.record;
 
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.Map;
 
-/** スキーマから各フィールドのオフセットとレコード全体サイズを決める */
+/**
+ * スキーマから各フィールドのオフセットとレコード全体サイズを決める。
+ * 列はスキーマの追加順の番号（ordinal）でも引ける（Scan.indexOf で計画時に一度だけ名前を解決する）。
+ * SLOTTED 形式ではオフセットはタプル先頭の固定部（1 列 4 バイト）内の位置で、
+ * STRING 列の固定部には文字列本体の終端（タプル先頭からの相対位置）を置く。
+ */
 public final class Layout {
     private final Schema schema;
-    private final Map<String, Integer> offsets = new LinkedHashMap<>();
+    private final RecordFormat format;
+    private final Map<String, Integer> index = new HashMap<>();
+    private final int[] offsets; // 列番号 -> オフセット
+    private final int[] maxBytes; // 列番号 -> STRING の最大バイト数（INT は 0）
+    // SLOTTED のみ: 列番号 -> 直前の STRING 列の固定部オフセット（先頭の STRING 列と INT 列は -1）
+    private final int[] prevStrings;
+    private final int[] stringEnds; // SLOTTED のみ: STRING 列の固定部オフセット（列順）
+    private final int fixedSize;
     private final int recordSize;
 
     public Layout(Schema schema) {
+        this(schema, RecordFormat.FIXED);
+    }
+
+    public Layout(Schema schema, RecordFormat format) {
         this.schema = schema;
+        this.format = format;
+        int n = schema.fields().size();
+        this.offsets = new int[n];
+        this.maxBytes = new int[n];
+        this.prevStrings = new int[n];
         int pos = 0;
+        int maxVar = 0;
+        int prev = -1;
+        int nStrings = 0;
+        int col = 0;
         for (var e : schema.fields().entrySet()) {
-            String name = e.getKey();
             Schema.FieldDef d = e.getValue();
-            offsets.put(name, pos);
-            if (d.type == FieldType.INT) {
+            index.put(e.getKey(), col);
+            offsets[col] = pos;
+            prevStrings[col] = -1;
+            if (d.type == FieldType.STRING)
+                maxBytes[col] = Math.max(1, d.maxChars) * 4; // UTF-8 で maxChars 文字の最悪想定
+            if (format == RecordFormat.SLOTTED) {
+                if (d.type == FieldType.STRING) {
+                    prevStrings[col] = prev;
+                    prev = pos;
+                    nStrings++;
+                    maxVar += maxBytes[col];
+                }
+                pos += Integer.BYTES;
+            } else if (d.type == FieldType.INT) {
                 pos += Integer.BYTES; // 4B
             } else {
                 // 文字列： [len:int][bytes(max)]
-                // maxBytes を「UTF-8でmaxChars文字」の最悪想定で = maxChars * 4 として確保
-                int maxBytes = Math.max(1, d.maxChars) * 4;
-                pos += Integer.BYTES + maxBytes;
+                pos += Integer.BYTES + maxBytes[col];
             }
+            col++;
         }
-        this.recordSize = pos;
+        this.fixedSize = pos;
+        this.recordSize = pos + maxVar; // SLOTTED では最大タプル長
+        this.stringEnds = new int[nStrings];
+        int i = 0;
+        for (int c = 0; c < n; c++)
+            if (format == RecordFormat.SLOTTED && maxBytes[c] > 0)
+                stringEnds[i++] = offsets[c];
     }
 
     public Schema schema() {
         return schema;
     }
 
+    public RecordFormat format() {
+        return format;
+    }
+
+    /** field の列番号（無ければ -1） */
+    public int index(String field) {
+        Integer col = index.get(field);
+        return col == null ? -1 : col;
+    }
+
     public int offset(String field) {
-        return offsets.get(field);
+        return offsets[index.get(field)];
+    }
+
+    public int offset(int col) {
+        return offsets[col];
     }
 
     public int recordSize() {
@@ -45,6 +100,34 @@ public final class Layout {
         var def = schema.fields().get(field);
         if (def.type != FieldType.STRING)
             throw new IllegalArgumentException("not string");
-        return Math.max(1, def.maxChars) * 4;
+        return maxStringBytes(index.get(field));
+    }
+
+    /** col が STRING 列か */
+    public boolean isString(int col) {
+        return maxBytes[col] > 0;
+    }
+
+    public int maxStringBytes(int col) {
+        if (maxBytes[col] == 0)
+            throw new IllegalArgumentException("not string");
+        return maxBytes[col];
+    }
+
+    // ---- SLOTTED 形式のタプル ----
+
+    /** タプルの固定部の大きさ（可変部はこの直後から始まる） */
+    int fixedSize() {
+        return fixedSize;
+    }
+
+    /** col の直前にある STRING 列の固定部オフセット（無ければ -1） */
+    int prevStringOffset(int col) {
+        return prevStrings[col];
+    }
+
+    /** STRING 列の固定部オフセット（列順） */
+    int[] stringEndOffsets() {
+        return stringEnds;
     }
 }
@@ -0,0 +1,9 @@
+package app.record;
+
+/** テーブルのページ形式（CREATE TABLE ... USING FIXED | SLOTTED で選ぶ） */
+public enum RecordFormat {
+    /** 固定長スロット（STRING は最大長ぶんを常に確保する。既定） */
+    FIXED,
+    /** スロット表＋可変長タプル（STRING は実際の長さだけ使う） */
+    SLOTTED
+}
@@ -2,6 +2,13 @@ package app.record;
 
 import app.storage.Page;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 1 ページ分のレコード I/O。layout.format() が SLOTTED なら SlottedPage に任せる
+ * （スロット数はページ内の実際の行数になり、空きスロットの判定は最大タプル長の空きで行う）。
+ */
 public final class RecordPage {
     private final Page page;
     private final Layout layout;
@@ -9,6 +16,7 @@ public final class RecordPage {
     private final int recordSize;
     private final int slots; // slotsPerPage
     private final int headerSize; // = slots
+    private final SlottedPage slotted; // null なら固定長形式
 
     public RecordPage(Page page, Layout layout, int blockSize) {
         this.page = page;
@@ -17,10 +25,15 @@ public final class RecordPage {
         this.recordSize = layout.recordSize();
         this.slots = blockSize / (recordSize + 1);
         this.headerSize = slots; // 1バイト/スロット
+        this.slotted = layout.format() == RecordFormat.SLOTTED ? new SlottedPage(page, layout, blockSize) : null;
     }
 
     /** ページの全スロットを空（0）で初期化 */
     public void format() {
+        if (slotted != null) {
+            slotted.format();
+            return;
+        }
         var a = page.contents();
         for (int i = 0; i < headerSize; i++)
             a[i] = 0;
@@ -28,70 +41,163 @@ public final class RecordPage {
     }
 
     public int slots() {
-        return slots;
+        return slotted != null ? slotted.slots() : slots;
+    }
+
+    /** SLOTTED 形式か（スロットの使用/文字列の更新がページ内の複数箇所に及ぶ） */
+    public boolean isSlotted() {
+        return slotted != null;
     }
 
     public boolean isUsed(int slot) {
+        if (slotted != null)
+            return slotted.isUsed(slot);
         check(slot);
         return (page.contents()[slot] != 0);
     }
 
     public void setUsed(int slot, boolean used) {
+        if (slotted != null) {
+            slotted.setUsed(slot, used);
+            return;
+        }
         check(slot);
         page.contents()[slot] = (byte) (used ? 1 : 0);
     }
 
     public int offsetOf(int slot) {
+        if (slotted != null)
+            return slotted.offsetOf(slot);
         return headerSize + slot * recordSize;
     }
 
+    /** スロットの使用フラグ（1バイト）のページ内位置（固定長形式のみ。SLOTTED では IllegalStateException） */
+    public int flagOffset(int slot) {
+        if (slotted != null)
+            throw new IllegalStateException(layout.format() + " layout has no slot flags (use setUsed)");
+        check(slot);
+        return slot;
+    }
+
+    /** slot のレコード内 col のページ内位置（SLOTTED の STRING 列では固定部の終端の位置） */
+    public int fieldOffset(int slot, int col) {
+        return offsetOf(slot) + layout.offset(col);
+    }
+
+    public int fieldOffset(int slot, String field) {
+        return fieldOffset(slot, col(field));
+    }
+
+    public int recordSize() {
+        return recordSize;
+    }
+
     private void check(int slot) {
         if (slot < 0 || slot >= slots)
             throw new IndexOutOfBoundsException();
     }
 
-    /** 次の空きスロットを返す（なければ -1） */
+    /** 次の空きスロットを返す（なければ -1）。使用フラグを 8 スロットずつ調べる */
     public int findFree() {
-        for (int s = 0; s < slots; s++)
-            if (!isUsed(s))
-                return s;
-        return -1;
+        if (slotted != null)
+            return slotted.findFree();
+        return ByteScan.firstZero(page.contents(), 0, slots);
     }
 
     /** slot 以降で次の使用中スロット（なければ -1） */
     public int nextUsed(int slot) {
-        for (int s = slot + 1; s < slots; s++)
-            if (isUsed(s))
-                return s;
-        return -1;
+        if (slotted != null)
+            return slotted.nextUsed(slot);
+        return ByteScan.firstNonZero(page.contents(), slot + 1, slots);
+    }
+
+    // ---- レコードのフィールド I/O（col は Layout の列番号。名前版は列番号を引いてから読む） ----
+    public int getInt(int slot, int col) {
+        return page.getInt(offsetOf(slot) + layout.offset(col));
+    }
+
+    public void setInt(int slot, int col, int v) {
+        page.setInt(offsetOf(slot) + layout.offset(col), v);
+    }
+
+    public String getString(int slot, int col) {
+        if (slotted != null)
+            return slotted.getString(slot, col);
+        return page.getString(offsetOf(slot) + layout.offset(col));
+    }
+
+    public void setString(int slot, int col, String s) {
+        if (slotted != null) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            int max = layout.maxStringBytes(col);
+            slotted.setString(slot, col, b.length > max ? Arrays.copyOf(b, max) : b);
+            return;
+        }
+        page.setString(offsetOf(slot) + layout.offset(col), fit(col, s));
+    }
+
+    // ---- STRING 列の UTF-8 本体をページ上のまま扱う（String も byte[] も作らない） ----
+
+    /** 文字列本体のページ内位置（FIXED は長さの直後、SLOTTED は可変部の中） */
+    public int stringOffset(int slot, int col) {
+        if (slotted != null)
+            return slotted.stringOffset(slot, col);
+        return offsetOf(slot) + layout.offset(col) + Integer.BYTES;
+    }
+
+    /** 文字列本体のバイト数 */
+    public int stringLength(int slot, int col) {
+        if (slotted != null)
+            return slotted.stringLength(slot, col);
+        return page.getInt(offsetOf(slot) + layout.offset(col));
+    }
+
+    /** slot の col が b[off, off+len)（UTF-8）と等しいか */
+    public boolean stringEquals(int slot, int col, byte[] b, int off, int len) {
+        return page.bytesEqual(stringOffset(slot, col), stringLength(slot, col), b, off, len);
+    }
+
+    /** slot の col のハッシュ（Page.hash(UTF-8 バイト列) と同じ値） */
+    public int stringHash(int slot, int col) {
+        return page.hashBytes(stringOffset(slot, col), stringLength(slot, col));
     }
 
-    // ---- レコードのフィールド I/O ----
     public int getInt(int slot, String field) {
-        int base = offsetOf(slot) + layout.offset(field);
-        return page.getInt(base);
+        return getInt(slot, col(field));
     }
 
     public void setInt(int slot, String field, int v) {
-        int base = offsetOf(slot) + layout.offset(field);
-        page.setInt(base, v);
+        setInt(slot, col(field), v);
     }
 
     public String getString(int slot, String field) {
-        int base = offsetOf(slot) + layout.offset(field);
-        return page.getString(base);
+        return getString(slot, col(field));
     }
 
     public void setString(int slot, String field, String s) {
-        int base = offsetOf(slot) + layout.offset(field);
-        // 最大バイト長に収まるように切り詰め（UTF-8換算 大まかに）
-        int max = layout.maxStringBytes(field);
-        byte[] bytes = s.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        setString(slot, col(field), s);
+    }
+
+    private int col(String field) {
+        int col = layout.index(field);
+        if (col < 0)
+            throw new IllegalArgumentException("Field not found: " + field);
+        return col;
+    }
+
+    /** 最大バイト長に収まるように切り詰め（UTF-8換算 大まかに） */
+    String fit(String field, String s) {
+        return fit(col(field), s);
+    }
+
+    String fit(int col, String s) {
+        int max = layout.maxStringBytes(col);
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
         if (bytes.length > max) {
             // 超過時はざっくり切り詰め（境界の整合性は後続で精密化可）
-            s = new String(bytes, 0, max, java.nio.charset.StandardCharsets.UTF_8);
+            s = new String(bytes, 0, max, StandardCharsets.UTF_8);
         }
-        page.setString(base, s);
+        return s;
     }
 
     public Page page() {
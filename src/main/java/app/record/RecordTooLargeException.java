@@ -0,0 +1,10 @@
+package app.record;
+
+/** SLOTTED の行を伸ばす更新がページの空きに収まらない（ページは変更されていない。行は他ページへ移さない） */
+public final class RecordTooLargeException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    public RecordTooLargeException(String message) {
+        super(message);
+    }
+}
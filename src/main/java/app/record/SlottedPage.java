@@ -0,0 +1,212 @@
+package app.record;
+
+import app.storage.Page;
+
+import java.util.Arrays;
+
+/**
+ * スロット付きページ（SLOTTED 形式）:
+ * [slotCount:int][freeEnd:int][usedBytes:int][スロット表 (offset:int, len:int)*slotCount] ... 空き ... [タプル領域]
+ * - タプルはページ末尾から手前へ積む。スロット表の offset=0 は空きスロット
+ * - タプル: [固定部: INT は値、STRING は本体の終端][STRING 本体を列順に連結]（Layout 参照）
+ * - タプルが動いてもスロット番号は変わらない（RID はそのまま使える）
+ * - 削除や縮んだ更新の隙間は残しておき、連続した空きが足りなくなったときにページ内で詰め直す
+ * - 挿入は最大タプル長ぶんの空きがあるページにだけ行う（挿入直後の列値のセットが必ず収まる）
+ * - 既存行を伸ばす更新はページ内の空きに収まる範囲だけ。収まらなければ何も変えずに拒否する（他ページへの転送はしない）
+ */
+final class SlottedPage {
+    private static final int SLOT_COUNT = 0;
+    private static final int FREE_END = 4;
+    private static final int USED_BYTES = 8; // 生きているタプルの合計長
+    private static final int HEADER = 12;
+    private static final int SLOT_SIZE = 8;
+
+    private final Page page;
+    private final Layout layout;
+    private final int blockSize;
+
+    SlottedPage(Page page, Layout layout, int blockSize) {
+        this.page = page;
+        this.layout = layout;
+        this.blockSize = blockSize;
+    }
+
+    void format() {
+        page.setInt(SLOT_COUNT, 0);
+        page.setInt(FREE_END, blockSize);
+        page.setInt(USED_BYTES, 0);
+    }
+
+    int slots() {
+        return page.getInt(SLOT_COUNT);
+    }
+
+    boolean isUsed(int slot) {
+        return slot < slots() && offsetOf(slot) != 0;
+    }
+
+    /** タプルの先頭位置（空きスロットなら 0） */
+    int offsetOf(int slot) {
+        if (slot < 0 || slot >= slots())
+            throw new IndexOutOfBoundsException();
+        return page.getInt(dir(slot));
+    }
+
+    /** 空きスロット（無ければスロット表の末尾）。最大タプル長ぶんの空きが無ければ -1 */
+    int findFree() {
+        int n = slots();
+        int s = 0;
+        while (s < n && page.getInt(dir(s)) != 0)
+            s++;
+        int need = layout.recordSize() + (s == n ? SLOT_SIZE : 0);
+        return free() >= need ? s : -1;
+    }
+
+    int nextUsed(int slot) {
+        int n = slots();
+        for (int s = slot + 1; s < n; s++)
+            if (page.getInt(dir(s)) != 0)
+                return s;
+        return -1;
+    }
+
+    void setUsed(int slot, boolean used) {
+        int n = slots();
+        if (slot < 0 || slot > n)
+            throw new IndexOutOfBoundsException();
+        if (used == isUsed(slot))
+            return;
+        if (!used) {
+            page.setInt(USED_BYTES, page.getInt(USED_BYTES) - page.getInt(dir(slot) + 4));
+            setDir(slot, 0, 0);
+            while (n > 0 && page.getInt(dir(n - 1)) == 0)
+                n--; // 末尾の空きスロットは表から外す
+            page.setInt(SLOT_COUNT, n);
+            return;
+        }
+        int fixed = layout.fixedSize();
+        int grow = slot == n ? SLOT_SIZE : 0;
+        if (free() < fixed + grow)
+            throw new IllegalStateException("no room for a new record in page");
+        if (contiguous() < fixed + grow)
+            compact();
+        if (grow > 0)
+            page.setInt(SLOT_COUNT, n + 1);
+        int t = allocate(fixed);
+        byte[] a = page.contents();
+        Arrays.fill(a, t, t + fixed, (byte) 0);
+        for (int end : layout.stringEndOffsets())
+            page.setInt(t + end, fixed); // 空文字列
+        setDir(slot, t, fixed);
+        page.setInt(USED_BYTES, page.getInt(USED_BYTES) + fixed);
+    }
+
+    String getString(int slot, int col) {
+        return page.getString(stringOffset(slot, col), stringLength(slot, col));
+    }
+
+    /** 文字列本体のページ内位置 */
+    int stringOffset(int slot, int col) {
+        int t = offsetOf(slot);
+        return t + stringStart(t, col);
+    }
+
+    /** 文字列本体のバイト数 */
+    int stringLength(int slot, int col) {
+        int t = offsetOf(slot);
+        return page.getInt(t + layout.offset(col)) - stringStart(t, col);
+    }
+
+    /**
+     * 文字列本体を置き換える。長さが変わるときは後ろの本体をずらし、伸びるときはタプルを付け替える
+     * （ページ内で最も手前にあるタプルはその場で手前へ伸ばす）。
+     * 詰め直しても収まらなければ、ページに触れる前に RecordTooLargeException
+     */
+    void setString(int slot, int col, byte[] b) {
+        int t = offsetOf(slot);
+        int len = page.getInt(dir(slot) + 4);
+        int endPos = layout.offset(col);
+        int start = stringStart(t, col);
+        int end = page.getInt(t + endPos);
+        int delta = b.length - (end - start);
+        if (delta > free())
+            throw new RecordTooLargeException("record in slot " + slot + " grows by " + delta
+                    + " bytes but the page has only " + free() + " bytes free");
+        byte[] a = page.contents();
+        if (delta <= 0) {
+            System.arraycopy(a, t + end, a, t + end + delta, len - end);
+            System.arraycopy(b, 0, a, t + start, b.length);
+        } else if (t == page.getInt(FREE_END) && contiguous() >= delta) {
+            // 先頭から本体の手前までを delta だけ手前へずらすと、本体の後ろはそのままの位置で続く
+            System.arraycopy(a, t, a, t - delta, start);
+            t -= delta;
+            page.setInt(FREE_END, t);
+            System.arraycopy(b, 0, a, t + start, b.length);
+        } else {
+            byte[] tuple = new byte[len + delta];
+            System.arraycopy(a, t, tuple, 0, start);
+            System.arraycopy(b, 0, tuple, start, b.length);
+            System.arraycopy(a, t + end, tuple, start + b.length, len - end);
+            setDir(slot, 0, 0); // 旧タプルは詰め直しで捨てる
+            if (contiguous() < tuple.length)
+                compact();
+            t = allocate(tuple.length);
+            System.arraycopy(tuple, 0, a, t, tuple.length);
+        }
+        for (int e : layout.stringEndOffsets())
+            if (e > endPos)
+                page.setInt(t + e, page.getInt(t + e) + delta);
+        page.setInt(t + endPos, start + b.length);
+        setDir(slot, t, len + delta);
+        page.setInt(USED_BYTES, page.getInt(USED_BYTES) + delta);
+    }
+
+    // 本体の開始位置（タプル先頭からの相対位置）
+    private int stringStart(int t, int col) {
+        int prev = layout.prevStringOffset(col);
+        return prev < 0 ? layout.fixedSize() : page.getInt(t + prev);
+    }
+
+    // 詰め直せば使える空き
+    private int free() {
+        return blockSize - HEADER - SLOT_SIZE * slots() - page.getInt(USED_BYTES);
+    }
+
+    // スロット表の末尾とタプル領域の間の連続した空き
+    private int contiguous() {
+        return page.getInt(FREE_END) - dir(slots());
+    }
+
+    private int allocate(int len) {
+        int t = page.getInt(FREE_END) - len;
+        page.setInt(FREE_END, t);
+        return t;
+    }
+
+    /** 生きているタプルをページ末尾へ詰め直す（スロット番号は変えない） */
+    private void compact() {
+        byte[] a = page.contents();
+        int freeEnd = page.getInt(FREE_END);
+        byte[] area = Arrays.copyOfRange(a, freeEnd, blockSize);
+        int end = blockSize;
+        for (int s = 0, n = slots(); s < n; s++) {
+            int t = page.getInt(dir(s));
+            if (t == 0)
+                continue;
+            int len = page.getInt(dir(s) + 4);
+            end -= len;
+            System.arraycopy(area, t - freeEnd, a, end, len);
+            setDir(s, end, len);
+        }
+        page.setInt(FREE_END, end);
+    }
+
+    private void setDir(int slot, int offset, int len) {
+        page.setInt(dir(slot), offset);
+        page.setInt(dir(slot) + 4, len);
+    }
+
+    private static int dir(int slot) {
+        return HEADER + slot * SLOT_SIZE;
+    }
+}
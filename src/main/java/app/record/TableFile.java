@@ -1,18 +1,33 @@
 package app.record;
 
+import app.memory.Buffer;
+import app.memory.BufferMgr;
 import app.storage.BlockId;
 import app.storage.FileMgr;
 import app.storage.Page;
 
 public final class TableFile {
     private final FileMgr fm;
+    private final BufferMgr bm;
     private final String filename; // 例: students.tbl
     private final Layout layout;
+    private final FreeSpaceMap fsm;
 
+    /** fm の共有 BufferMgr を使う */
     public TableFile(FileMgr fm, String filename, Layout layout) {
+        this(fm, BufferMgr.shared(fm), filename, layout);
+    }
+
+    public TableFile(FileMgr fm, BufferMgr bm, String filename, Layout layout) {
         this.fm = fm;
+        this.bm = bm;
         this.filename = filename;
         this.layout = layout;
+        this.fsm = new FreeSpaceMap(fm, bm, filename);
+    }
+
+    public BufferMgr bufferMgr() {
+        return bm;
     }
 
     public Layout layout() {
@@ -23,6 +38,11 @@ public final class TableFile {
         return filename;
     }
 
+    /** 挿入先のブロックを引く空き領域マップ */
+    public FreeSpaceMap freeSpace() {
+        return fsm;
+    }
+
     public int size() {
         return fm.length(filename);
     }
@@ -30,17 +50,36 @@ public final class TableFile {
     /** 新規ブロックを末尾に作成し、空フォーマットする */
     public BlockId appendFormatted() {
         BlockId b = fm.append(filename);
-        Page p = new Page(fm.blockSize());
-        RecordPage rp = new RecordPage(p, layout, fm.blockSize());
-        rp.format();
-        fm.write(b, p);
+        Buffer buf = bm.pin(b);
+        try {
+            buf.latch().writeLock().lock();
+            try {
+                new RecordPage(buf.contents(), layout, fm.blockSize()).format();
+                buf.setDirty();
+            } finally {
+                buf.latch().writeLock().unlock();
+            }
+            buf.flushIfDirty();
+        } finally {
+            bm.unpin(buf);
+        }
         return b;
     }
 
-    /** 指定ブロックを読み出して RecordPage を返す */
+    /**
+     * 指定ブロックを読み出して RecordPage を返す。
+     * 呼び出し側は unpin しないので、バッファの内容をコピーした Page を渡す。
+     */
     public RecordPage readPage(BlockId b) {
         Page p = new Page(fm.blockSize());
-        fm.read(b, p);
+        Buffer buf = bm.pin(b);
+        buf.latch().readLock().lock();
+        try {
+            System.arraycopy(buf.contents().contents(), 0, p.contents(), 0, fm.blockSize());
+        } finally {
+            buf.latch().readLock().unlock();
+            bm.unpin(buf);
+        }
         return new RecordPage(p, layout, fm.blockSize());
     }
 
@@ -62,8 +101,22 @@ public final class TableFile {
         return layout.schema().hasField(fldName);
     }
 
-    /** RecordPageの基となるPageを直接書き戻すためのユーティリティ */
+    /** RecordPageの基となるPageを書き戻すためのユーティリティ（バッファにも反映する） */
     public void writePage(BlockId b, Page page) {
-        fm.write(b, page);
+        Buffer buf = bm.pin(b);
+        try {
+            buf.latch().writeLock().lock();
+            try {
+                Page dst = buf.contents();
+                if (dst != page)
+                    System.arraycopy(page.contents(), 0, dst.contents(), 0, fm.blockSize());
+                buf.setDirty();
+            } finally {
+                buf.latch().writeLock().unlock();
+            }
+            buf.flushIfDirty();
+        } finally {
+            bm.unpin(buf);
+        }
     }
 }
@@ -1,27 +1,71 @@
 package app.record;
 
 import app.index.RID;
+import app.memory.Buffer;
+import app.memory.BufferMgr;
+import app.memory.BufferRing;
+import app.memory.ReadAhead;
 import app.storage.BlockId;
 import app.storage.FileMgr;
 import app.storage.Page;
+import app.tx.Snapshot;
+import app.tx.Tx;
 import app.index.SearchKey;
 import app.index.btree.BTreeIndex;
 import app.metadata.MetadataManager;
 
+import java.util.Arrays;
+import java.util.function.Consumer;
+
 // public final class TableScan implements AutoCloseable {
 public final class TableScan implements app.query.Scan {
     private final FileMgr fm;
+    private final BufferMgr bm;
     private final TableFile tf;
 
     private int currBlk = -1;
+    private Buffer buf; // 現在ページを保持する pin 済みバッファ
+    private BufferRing ring; // next() の逐次読み出しに使うリング（null なら共有プールを直接使う）
+    private boolean ringDecided;
+    private ReadAhead readAhead; // next() の逐次読み出しで先のブロックを先読みさせる
     private RecordPage rp; // 現在のページ（レコードI/Oは全部ここ経由）
     private int currSlot = -1;
+    private Tx tx; // null でなければ行の変更をこの Tx のログに記録する
+    private Snapshot snapshot; // null でなければこの時点の版を読む（読み取り専用）
 
     public TableScan(FileMgr fm, TableFile tf) {
         this.fm = fm;
+        this.bm = tf.bufferMgr();
         this.tf = tf;
     }
 
+    /** 全件走査（索引構築など）で ring を明示する版。プールを押し流さない */
+    public TableScan(FileMgr fm, TableFile tf, BufferRing ring) {
+        this(fm, tf);
+        this.ring = ring;
+        this.ringDecided = true;
+    }
+
+    /**
+     * 挿入/更新/削除を tx に記録する版（ロールバック/リカバリで戻せる）。
+     * 読んだブロックには S、変更したブロックには X ロックを取る（厳格 2PL）。
+     * tx は tf.bufferMgr() と同じ BufferMgr で作ること。
+     */
+    public TableScan(FileMgr fm, TableFile tf, Tx tx) {
+        this(fm, tf);
+        this.tx = tx;
+    }
+
+    /**
+     * snapshot の時点でコミット済みの行だけを読む版（ロックを取らず、更新中の Tx を待たない）。
+     * 読み取り専用。snapshot は close まで retain する。
+     */
+    public TableScan(FileMgr fm, TableFile tf, Snapshot snapshot) {
+        this(fm, tf);
+        snapshot.retain();
+        this.snapshot = snapshot;
+    }
+
     // 現在行のRIDを返す
     public RID rid() {
         if (currBlk < 0 || currSlot < 0) {
@@ -43,20 +87,21 @@ public final class TableScan implements app.query.Scan {
     }
 
     public void beforeFirst() {
+        releaseBuffer();
+        readAhead = null;
         currBlk = -1;
         currSlot = -1;
-        rp = null;
     }
 
     /** 次の使用中スロットへ。なければ次ブロックを読み進める。 */
     public boolean next() {
         if (rp == null) {
-            if (!moveToBlock(0))
+            if (!nextBlock(0))
                 return false;
         }
         int s = rp.nextUsed(currSlot);
         while (s < 0) {
-            if (!moveToBlock(currBlk + 1))
+            if (!nextBlock(currBlk + 1))
                 return false;
             s = rp.nextUsed(-1);
         }
@@ -64,27 +109,47 @@ public final class TableScan implements app.query.Scan {
         return true;
     }
 
-    /** 新規レコードを挿入（空スロットがなければ新規ブロックをappend）し、現在位置にする */
+    /**
+     * 新規レコードを挿入し、現在位置にする。
+     * 現在ブロックに空きがなければ空き領域マップから空きのあるブロックを引き、どこにもなければ新規ブロックを append する。
+     */
     public void insert() {
-        if (rp == null && !moveToBlock(0)) {
-            appendNewBlockAndMove();
-        }
-        int s = rp.findFree();
-        if (s < 0) {
-            appendNewBlockAndMove();
+        checkWritable();
+        FreeSpaceMap fsm = tf.freeSpace();
+        int s = -1;
+        if (rp != null) {
+            if (tx != null)
+                tx.xLock(buf.block());
             s = rp.findFree();
-            if (s < 0)
-                throw new IllegalStateException("no free slot after append");
         }
-        rp.setUsed(s, true);
+        while (s < 0) {
+            if (rp != null)
+                fsm.markFull(currBlk); // マップが古かった場合もここで直る
+            int b = fsm.findBlockWithRoom(tf.size());
+            if (b < 0) {
+                appendNewBlockAndMove();
+                s = rp.findFree();
+                if (s < 0)
+                    throw new IllegalStateException("no free slot after append");
+            } else {
+                // 候補は S を経ずに X で取る（同時に挿入する Tx が S からの昇格でデッドロックしない）
+                if (tx != null)
+                    tx.xLock(new BlockId(tf.filename(), b));
+                moveToBlock(b);
+                s = rp.findFree();
+            }
+        }
+        setUsed(s, true);
         currSlot = s;
-        flush();
+        if (rp.findFree() < 0)
+            fsm.markFull(currBlk);
         // NOTE:
         // ここではまだ列値がセットされていないため index 挿入はしない。
         // 値のセット時（setInt/setString）で旧値→新値差分に基づき更新する。
     }
 
     public void delete() {
+        checkWritable();
         if (currSlot < 0)
             throw new IllegalStateException("no current record");
         // 削除前にインデックスから当該レコードを取り除く（INT列のみ）
@@ -97,8 +162,8 @@ public final class TableScan implements app.query.Scan {
                 }
             }
         }
-        rp.setUsed(currSlot, false);
-        flush();
+        setUsed(currSlot, false);
+        tf.freeSpace().markHasRoom(currBlk);
     }
 
     // フィールドI/O
@@ -106,10 +171,51 @@ public final class TableScan implements app.query.Scan {
         return rp.getInt(currSlot, fld);
     }
 
+    /** 列番号はスキーマの列順（Layout.index） */
+    @Override
+    public int indexOf(String fld) {
+        return tf.layout().index(fld);
+    }
+
+    @Override
+    public int getInt(int col) {
+        return rp.getInt(currSlot, col);
+    }
+
+    @Override
+    public String getString(int col) {
+        return rp.getString(currSlot, col);
+    }
+
+    @Override
+    public boolean isString(int col) {
+        return tf.layout().isString(col);
+    }
+
+    @Override
+    public boolean stringEquals(int col, byte[] b, int off, int len) {
+        return rp.stringEquals(currSlot, col, b, off, len);
+    }
+
+    @Override
+    public boolean stringEquals(int col, app.query.Scan other, int otherCol) {
+        return other.stringEquals(otherCol, rp.page().contents(), rp.stringOffset(currSlot, col),
+                rp.stringLength(currSlot, col));
+    }
+
+    @Override
+    public int stringHash(int col) {
+        return rp.stringHash(currSlot, col);
+    }
+
     public void setInt(String fld, int v) {
+        checkWritable();
         int old = rp.getInt(currSlot, fld);
-        rp.setInt(currSlot, fld, v);
-        flush();
+        if (tx != null) {
+            tx.setInt(buf, rp.fieldOffset(currSlot, fld), v);
+        } else {
+            writeThrough(() -> rp.setInt(currSlot, fld, v));
+        }
         if (indexMaintEnabled && tf.layout().schema().fieldType(fld) == FieldType.INT) {
             // 旧値→新値でB+木を更新
             updateIndexInt(fld, old, v);
@@ -121,40 +227,137 @@ public final class TableScan implements app.query.Scan {
     }
 
     public void setString(String fld, String v) {
-        rp.setString(currSlot, fld, v);
-        flush();
+        checkWritable();
+        int slot = currSlot;
+        if (rp.isSlotted()) {
+            updateSlotted(p -> p.setString(slot, fld, v));
+        } else if (tx != null) {
+            tx.setString(buf, rp.fieldOffset(currSlot, fld), rp.fit(fld, v));
+        } else {
+            writeThrough(() -> rp.setString(slot, fld, v));
+        }
         // TODO(将来拡張): STRINGキーのB+木対応時にここで index 更新
     }
 
-    /** 指定ブロックへページを読み込み、RecordPage を張り替える */
+    /** 指定ブロックを BufferMgr 経由で pin し、RecordPage を張り替える */
     private boolean moveToBlock(int blkNum) {
         if (blkNum < 0 || blkNum >= tf.size())
             return false;
-        currBlk = blkNum;
-        BlockId b = new BlockId(tf.filename(), currBlk);
-        Page p = new Page(fm.blockSize());
-        fm.read(b, p);
-        rp = new RecordPage(p, tf.layout(), fm.blockSize());
-        currSlot = -1;
+        pinBlock(new BlockId(tf.filename(), blkNum));
         return true;
     }
 
+    /** 逐次走査で blkNum へ進む（リング経由で pin し、先のブロックを先読みさせる） */
+    private boolean nextBlock(int blkNum) {
+        int size = tf.size();
+        if (blkNum < 0 || blkNum >= size)
+            return false;
+        BufferRing r = sequentialRing();
+        pinBlock(new BlockId(tf.filename(), blkNum), r);
+        if (readAhead == null)
+            readAhead = new ReadAhead(bm, tf.filename(), r);
+        readAhead.accessed(blkNum, size);
+        return true;
+    }
+
+    /** プールの 1/4 以上あるテーブルの逐次走査だけリングを使う（小さな表はそのままキャッシュ） */
+    private BufferRing sequentialRing() {
+        if (!ringDecided) {
+            ringDecided = true;
+            if (tf.size() >= bm.capacity() / 4)
+                ring = bm.newRing();
+        }
+        return ring;
+    }
+
     /** 新規ブロックを append して、そのブロックへ移動 */
     private void appendNewBlockAndMove() {
         BlockId b = tf.appendFormatted(); // ここで layout に従って空ページを初期化
+        if (tx != null)
+            tx.xLock(b);
+        pinBlock(b);
+    }
+
+    private void pinBlock(BlockId b) {
+        pinBlock(b, null);
+    }
+
+    private void pinBlock(BlockId b, BufferRing r) {
+        releaseBuffer();
+        if (tx != null)
+            tx.sLock(b); // pin より先に（ロック待ちの間フレームを塞がない）。解放は commit/rollback 時
+        buf = bm.pin(b, r);
         currBlk = b.number();
-        Page p = new Page(fm.blockSize());
-        fm.read(b, p);
-        rp = new RecordPage(p, tf.layout(), fm.blockSize());
+        // スナップショット読みでは見えない Tx の変更を戻したコピーを読む（可視性はスロットの使用フラグに現れる）
+        rp = new RecordPage(snapshot == null ? buf.contents() : snapshot.read(buf), tf.layout(), fm.blockSize());
         currSlot = -1;
     }
 
-    /** 現在ページをディスクへ書き戻す */
-    private void flush() {
-        if (rp == null || currBlk < 0)
+    /** 現在ページの pin を外す（以後 rp は参照しない） */
+    private void releaseBuffer() {
+        if (buf != null) {
+            bm.unpin(buf);
+            buf = null;
+        }
+        rp = null;
+    }
+
+    private void setUsed(int slot, boolean used) {
+        if (rp.isSlotted()) {
+            updateSlotted(p -> p.setUsed(slot, used));
+        } else if (tx != null) {
+            tx.setSlotUsed(buf, rp.flagOffset(slot), rp.offsetOf(slot), rp.recordSize(), used);
+        } else {
+            writeThrough(() -> rp.setUsed(slot, used));
+        }
+    }
+
+    // 変わった範囲どうしの隙間がこれ以下なら 1 レコードにまとめる（SET_BYTES 1 件の固定部 36B より、隙間の旧/新 2 倍が小さい）
+    private static final int SLOTTED_MERGE_GAP = 16;
+
+    /**
+     * スロット付きページの変更（タプルの移動や詰め直しを伴うことがある）。
+     * tx があれば変更後のページを作業用コピーで組み立て、変わったバイトの連続範囲ごとに SET_BYTES を記録する
+     * （ヘッダ・スロット表の項目・タプルはページ内で離れているので、別々に記録すればページ全体を記録せずに済む）
+     */
+    private void updateSlotted(Consumer<RecordPage> change) {
+        if (tx == null) {
+            writeThrough(() -> change.accept(rp));
             return;
-        BlockId b = new BlockId(tf.filename(), currBlk);
-        fm.write(b, rp.page()); // ← RecordPage に page() ゲッターを追加（下の最小パッチ参照）
+        }
+        tx.xLock(buf.block()); // コピーを取る前に（以後この Tx 以外はページを書き換えない）
+        byte[] page = buf.contents().contents();
+        Page work = new Page(page.clone());
+        change.accept(new RecordPage(work, tf.layout(), fm.blockSize()));
+        byte[] after = work.contents();
+        int n = after.length;
+        int lo = Arrays.mismatch(page, after);
+        while (lo >= 0) {
+            int last = lo;
+            for (int i = lo + 1; i < n && i - last <= SLOTTED_MERGE_GAP; i++)
+                if (page[i] != after[i])
+                    last = i;
+            tx.setBytes(buf, lo, Arrays.copyOfRange(after, lo, last + 1)); // page にも反映される
+            int next = Arrays.mismatch(page, last + 1, n, after, last + 1, n);
+            lo = next < 0 ? -1 : last + 1 + next;
+        }
+    }
+
+    private void checkWritable() {
+        if (snapshot != null)
+            throw new IllegalStateException("snapshot scan is read-only");
+    }
+
+    /** tx 無しの更新: 書き込みラッチ内で現在ページを書き換えて dirty を立て、ディスクへ書き戻す（write-through） */
+    private void writeThrough(Runnable change) {
+        buf.latch().writeLock().lock();
+        try {
+            change.run();
+            buf.setDirty();
+        } finally {
+            buf.latch().writeLock().unlock();
+        }
+        buf.flushIfDirty();
     }
 
     // hasField
@@ -164,7 +367,12 @@ public final class TableScan implements app.query.Scan {
 
     @Override
     public void close() {
-        // 今の設計では明示 flush は各setterで実施済み。必要ならここで後始末を。
+        // 明示 flush は各setterで実施済み。ここでは pin を返すだけ。
+        releaseBuffer();
+        if (snapshot != null) {
+            snapshot.close();
+            snapshot = null;
+        }
     }
 
     // デバッグ/確認用
@@ -213,8 +421,12 @@ public final class TableScan implements app.query.Scan {
         String iname = indexNameOf(col);
         try (BTreeIndex ix = openIndex(iname)) {
             RID r = rid(); // 現在レコード
-            // 旧値を消し、新値を入れる（旧値の存在しないINSERT直後でも安全）
-            ix.delete(SearchKey.ofInt(oldVal), r);
+            // 旧値を消し、新値を入れる（INSERT 直後は旧値のエントリが無いので、消すものがあるときだけ記録する）
+            if (ix.contains(SearchKey.ofInt(oldVal), r)) {
+                logIndexEntry(false, iname, oldVal, r);
+                ix.delete(SearchKey.ofInt(oldVal), r);
+            }
+            logIndexEntry(true, iname, newVal, r);
             ix.insert(SearchKey.ofInt(newVal), r);
         }
     }
@@ -225,10 +437,20 @@ public final class TableScan implements app.query.Scan {
             return;
         String iname = indexNameOf(col);
         try (BTreeIndex ix = openIndex(iname)) {
-            ix.delete(SearchKey.ofInt(val), rid());
+            RID r = rid();
+            if (!ix.contains(SearchKey.ofInt(val), r))
+                return;
+            logIndexEntry(false, iname, val, r);
+            ix.delete(SearchKey.ofInt(val), r);
         }
     }
 
+    // Tx があれば索引の変更を先に記録する（rollback/リカバリが逆の操作で戻す）
+    private void logIndexEntry(boolean inserted, String iname, int key, RID r) {
+        if (tx != null)
+            tx.logIndexEntry(inserted, iname, tf.filename(), key, r.block().number(), r.slot());
+    }
+
     private BTreeIndex openIndex(String indexName) {
         try {
             BTreeIndex ix = new BTreeIndex(fm, indexName, tf.filename());
@@ -56,12 +56,18 @@ public final class Ast {
     public static final class CreateTableStmt implements Statement {
         public final String tableName;
         public final java.util.List<ColumnDef> columns;
+        public final TableFormat format; // USING FIXED | SLOTTED（省略時 FIXED）
 
         public CreateTableStmt(String tableName, java.util.List<ColumnDef> columns) {
+            this(tableName, columns, TableFormat.FIXED);
+        }
+
+        public CreateTableStmt(String tableName, java.util.List<ColumnDef> columns, TableFormat format) {
             this.tableName = Objects.requireNonNull(tableName);
             if (columns == null || columns.isEmpty())
                 throw new IllegalArgumentException("columns must not be empty");
             this.columns = java.util.List.copyOf(columns);
+            this.format = Objects.requireNonNull(format);
         }
 
         public static final class ColumnDef {
@@ -84,6 +90,11 @@ public final class Ast {
             INT,
             STRING
         }
+
+        public enum TableFormat {
+            FIXED,
+            SLOTTED
+        }
     }
 
     public static final class DropTableStmt implements Statement {
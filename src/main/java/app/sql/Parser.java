@@ -102,8 +102,21 @@ public final class Parser {
             columns.add(parseCreateTableColumn());
         }
         expect(RPAREN);
+        // 任意: USING FIXED | SLOTTED（ページ形式）
+        Ast.CreateTableStmt.TableFormat format = Ast.CreateTableStmt.TableFormat.FIXED;
+        if (lx.type() == USING) {
+            lx.next();
+            if (lx.type() == IDENT && lx.text().equalsIgnoreCase("FIXED")) {
+                lx.next();
+            } else if (lx.type() == IDENT && lx.text().equalsIgnoreCase("SLOTTED")) {
+                format = Ast.CreateTableStmt.TableFormat.SLOTTED;
+                lx.next();
+            } else {
+                throw err("table format (FIXED or SLOTTED)");
+            }
+        }
         expect(EOF);
-        return new Ast.CreateTableStmt(tableName, columns);
+        return new Ast.CreateTableStmt(tableName, columns, format);
     }
 
     private Ast.DropTableStmt parseDropTable() {
@@ -435,8 +448,14 @@ public final class Parser {
             return new Ast.PredicateCompare(col, Ast.CompareOp.LT, parseIntLiteral());
         if (matchSymbol(">"))
             return new Ast.PredicateCompare(col, Ast.CompareOp.GT, parseIntLiteral());
-        if (matchSymbol("="))
+        if (matchSymbol("=")) {
+            // 右辺は整数・文字列リテラル、または列（結合条件）
+            if (lx.type() == IDENT)
+                return new Ast.Predicate(new Ast.Expr.Col(col), new Ast.Expr.Col(parseIdentQualified()));
+            if (lx.type() == STRING)
+                return new Ast.Predicate(new Ast.Expr.Col(col), parseLiteral());
             return new Ast.PredicateCompare(col, Ast.CompareOp.EQ, parseIntLiteral());
+        }
 
         throw err("expected comparison operator or BETWEEN");
     }
@@ -4,10 +4,15 @@ import app.index.IndexRegistry;
 import app.index.SearchKey;
 import app.index.btree.BTreeIndex;
 import app.index.btree.BTreeRangeScan;
+import app.memory.BufferMgr;
+import app.memory.LogManager;
 import app.metadata.MetadataManager;
 import app.query.*;
 import app.record.*;
 import app.storage.FileMgr;
+import app.tx.Snapshot;
+import app.tx.Tx;
+import app.tx.VersionStore;
 
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
@@ -16,20 +21,28 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.ToIntFunction;
 
 public final class Planner {
     private final FileMgr fm;
     private final MetadataManager mdm;
     private final IndexRegistry idxReg;
+    private final LogManager log; // null なら DML はログを取らない（文ごとに sync するだけ）
 
     public Planner(FileMgr fm, MetadataManager mdm) {
         this(fm, mdm, null);
     }
 
     public Planner(FileMgr fm, MetadataManager mdm, IndexRegistry idxReg) {
+        this(fm, mdm, idxReg, null);
+    }
+
+    /** log を渡すと INSERT/UPDATE/DELETE を文単位の Tx で実行する（失敗したらロールバック） */
+    public Planner(FileMgr fm, MetadataManager mdm, IndexRegistry idxReg, LogManager log) {
         this.fm = fm;
         this.mdm = mdm;
         this.idxReg = idxReg;
+        this.log = log;
     }
 
     public Scan plan(String sql) {
@@ -39,7 +52,20 @@ public final class Planner {
         throw new IllegalArgumentException("planner.plan(String) supports SELECT statements only");
     }
 
+    /**
+     * log があれば、表の全件走査を計画時点のスナップショットで読む（実行中の DML を待たず、未コミットの行も見ない）。
+     * 索引には版が無い（未コミットの変更もそのまま入る）ので、スナップショットで読むときは索引を使う計画を選ばない
+     */
     public PreparedPlan prepare(Ast.SelectStmt ast) {
+        if (log == null)
+            return prepare(ast, null);
+        // 各 TableScan が close まで retain するので、計画を作り終えたらここでの参照は返す
+        try (Snapshot snap = VersionStore.shared(log).snapshot()) {
+            return prepare(ast, snap);
+        }
+    }
+
+    private PreparedPlan prepare(Ast.SelectStmt ast, Snapshot snap) {
 
         Layout baseLayout = mdm.getLayout(ast.from.table);
         TableFile baseTf = new TableFile(fm, ast.from.table + ".tbl", baseLayout);
@@ -49,7 +75,8 @@ public final class Planner {
         boolean orderHandled = false;
         boolean limitHandled = false;
 
-        IndexOrderPlan indexOrderPlan = tryPlanIndexOrder(ast, baseLayout, baseTf);
+        // 索引経由の走査は現在のページを読むので、スナップショットで読むときは使わない
+        IndexOrderPlan indexOrderPlan = snap == null ? tryPlanIndexOrder(ast, baseLayout, baseTf) : null;
 
         Scan s;
         PlanNode planNode;
@@ -61,7 +88,7 @@ public final class Planner {
             orderHandled = true;
             limitHandled = indexOrderPlan.limitHandled;
         } else {
-            s = new TableScan(fm, baseTf);
+            s = openForRead(baseTf, snap);
             planNode = node("TableScan", mapOf("table", ast.from.table));
         }
 
@@ -80,7 +107,7 @@ public final class Planner {
 
             PlanNode rightPlanNode = node("TableScan", mapOf("table", j.table));
             boolean usedIndex = false;
-            if (idxReg != null && rightCol != null) {
+            if (snap == null && idxReg != null && rightCol != null) {
                 Optional<app.index.HashIndex> opt = idxReg.findHashIndex(j.table, rightCol);
                 if (opt.isPresent()) {
                     System.out.println("[PLAN] join using index on " + j.table + "." + rightCol);
@@ -96,7 +123,7 @@ public final class Planner {
             }
             if (!usedIndex) {
                 System.out.println("[PLAN] join via product + filter (no index)");
-                Scan rightScan = new TableScan(fm, rightTf);
+                Scan rightScan = openForRead(rightTf, snap);
                 s = new ProductScan(s, rightScan);
                 planNode = node("NestedLoopJoin", mapOf("table", j.table), planNode, rightPlanNode);
                 Predicate predicate = toPredicate(j.on);
@@ -108,7 +135,9 @@ public final class Planner {
         Ast.Predicate predicateHandledByIndex = null;
         if (!skipWhereProcessing) {
             if (ast.joins.isEmpty()) {
-                IndexPlanResult indexPlan = planSingleTableWithPossibleIndex(ast.from.table, ast.where);
+                IndexPlanResult indexPlan = snap == null
+                        ? planSingleTableWithPossibleIndex(ast.from.table, ast.where)
+                        : null;
                 if (indexPlan != null) {
                     s = indexPlan.scan;
                     planNode = indexPlan.planNode;
@@ -241,12 +270,16 @@ public final class Planner {
     }
 
     public int executeInsert(Ast.InsertStmt stmt) {
+        return autoCommit(tx -> insert(stmt, tx));
+    }
+
+    private int insert(Ast.InsertStmt stmt, Tx tx) {
         String table = stmt.table;
         Layout layout = mdm.getLayout(table);
         Schema schema = layout.schema();
         TableFile tf = new TableFile(fm, table + ".tbl", layout);
 
-        try (TableScan ts = new TableScan(fm, tf)) {
+        try (TableScan ts = openForWrite(tf, tx)) {
             ts.enableIndexMaintenance(mdm, table);
             ts.beforeFirst();
             ts.insert();
@@ -262,11 +295,15 @@ public final class Planner {
                     default -> throw new IllegalArgumentException("Unsupported field type: " + type);
                 }
             }
-            return 1;
         }
+        return 1;
     }
 
     public int executeUpdate(Ast.UpdateStmt stmt) {
+        return autoCommit(tx -> update(stmt, tx));
+    }
+
+    private int update(Ast.UpdateStmt stmt, Tx tx) {
         String table = stmt.table;
         Layout layout = mdm.getLayout(table);
         Schema schema = layout.schema();
@@ -274,11 +311,12 @@ public final class Planner {
         List<Predicate> predicates = compilePredicates(stmt.where);
 
         int updated = 0;
-        try (TableScan ts = new TableScan(fm, tf)) {
+        try (TableScan ts = openForWrite(tf, tx)) {
             ts.enableIndexMaintenance(mdm, table);
+            List<Predicate> bound = bindAll(predicates, ts);
             ts.beforeFirst();
             while (ts.next()) {
-                if (!matchesWhere(ts, predicates))
+                if (!matchesWhere(ts, bound))
                     continue;
                 for (Ast.UpdateStmt.Assignment assignment : stmt.assignments) {
                     String col = stripQualifier(assignment.column);
@@ -288,7 +326,7 @@ public final class Planner {
                     Ast.Expr value = assignment.value;
                     switch (type) {
                         case INT -> ts.setInt(col, expectIntLiteral(value, table, col));
-                        case STRING -> ts.setString(col, expectStringLiteral(value, table, col));
+                        case STRING -> setStringInPlace(ts, table, col, expectStringLiteral(value, table, col));
                         default -> throw new IllegalArgumentException("Unsupported field type: " + type);
                     }
                 }
@@ -298,18 +336,33 @@ public final class Planner {
         return updated;
     }
 
+    /** SLOTTED の行がページに収まらなくなる UPDATE は文のエラーにする（log があれば文ごと戻る） */
+    private static void setStringInPlace(TableScan ts, String table, String col, String v) {
+        try {
+            ts.setString(col, v);
+        } catch (RecordTooLargeException e) {
+            throw new IllegalArgumentException("UPDATE " + table + " SET " + col
+                    + ": the row no longer fits in its page (" + ts.rid() + ")", e);
+        }
+    }
+
     public int executeDelete(Ast.DeleteStmt stmt) {
+        return autoCommit(tx -> delete(stmt, tx));
+    }
+
+    private int delete(Ast.DeleteStmt stmt, Tx tx) {
         String table = stmt.table;
         Layout layout = mdm.getLayout(table);
         TableFile tf = new TableFile(fm, table + ".tbl", layout);
         List<Predicate> predicates = compilePredicates(stmt.where);
 
         int deleted = 0;
-        try (TableScan ts = new TableScan(fm, tf)) {
+        try (TableScan ts = openForWrite(tf, tx)) {
             ts.enableIndexMaintenance(mdm, table);
+            List<Predicate> bound = bindAll(predicates, ts);
             ts.beforeFirst();
             while (ts.next()) {
-                if (!matchesWhere(ts, predicates))
+                if (!matchesWhere(ts, bound))
                     continue;
                 ts.delete();
                 deleted++;
@@ -318,6 +371,37 @@ public final class Planner {
         return deleted;
     }
 
+    /**
+     * 文単位の自動コミット境界。log があれば Tx で囲み、例外時は行と B+木索引エントリの変更をロールバックする。
+     * 無ければ従来通り sync するだけ。
+     */
+    private int autoCommit(ToIntFunction<Tx> body) {
+        if (log == null) {
+            int n = body.applyAsInt(null);
+            fm.syncAll();
+            return n;
+        }
+        Tx tx = new Tx(fm, BufferMgr.shared(fm), log);
+        int n;
+        try {
+            n = body.applyAsInt(tx);
+        } catch (RuntimeException e) {
+            tx.rollback();
+            throw e;
+        }
+        tx.commit(); // 行の変更はログの force だけで永続化される（ページはプールに残る）
+        fm.syncAll(); // ログを取らない索引の書き込み（write-through 済み）を同期する
+        return n;
+    }
+
+    private TableScan openForWrite(TableFile tf, Tx tx) {
+        return tx == null ? new TableScan(fm, tf) : new TableScan(fm, tf, tx);
+    }
+
+    private TableScan openForRead(TableFile tf, Snapshot snap) {
+        return snap == null ? new TableScan(fm, tf) : new TableScan(fm, tf, snap);
+    }
+
     public boolean executeDropIndex(Ast.DropIndexStmt stmt) {
         return mdm.dropIndex(stmt.indexName);
     }
@@ -331,11 +415,14 @@ public final class Planner {
                 default -> throw new IllegalArgumentException("unsupported column type: " + col.type);
             }
         }
-        mdm.createTable(stmt.tableName, schema);
+        mdm.createTable(stmt.tableName, schema, stmt.format == Ast.CreateTableStmt.TableFormat.SLOTTED
+                ? RecordFormat.SLOTTED
+                : RecordFormat.FIXED);
         Layout layout = mdm.getLayout(stmt.tableName);
         TableFile tf = new TableFile(fm, stmt.tableName + ".tbl", layout);
         if (tf.size() == 0)
             tf.appendFormatted();
+        fm.syncAll();
     }
 
     public boolean executeDropTable(Ast.DropTableStmt stmt) {
@@ -369,6 +456,14 @@ public final class Planner {
         return list;
     }
 
+    /** 述語の列を scan の列番号に解決しておく（行ごとに名前を引かない） */
+    private static List<Predicate> bindAll(List<Predicate> predicates, Scan scan) {
+        List<Predicate> list = new ArrayList<>(predicates.size());
+        for (Predicate p : predicates)
+            list.add(p.bind(scan));
+        return list;
+    }
+
     private boolean matchesWhere(Scan scan, List<Predicate> predicates) {
         for (Predicate predicate : predicates) {
             if (!predicate.evaluate(scan))
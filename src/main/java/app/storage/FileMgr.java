@@ -4,21 +4,95 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * OSファイルを「固定長ブロック」単位で扱う最小ファイルマネージャ。
  * - read(block) / write(block) / append(file) / length(file)
+ * - 開いた FileChannel はファイル名ごとに保持し、上限を超えたら LRU で閉じる
+ * - Durability.STRICT: write/append ごとに force（従来動作）
+ * - Durability.DEFERRED: OS へ書くだけ。sync(file)/syncAll() をコミット等の境界で呼ぶ
+ * 読み出し経路を差し替える実装（MappedFileMgr）のために継承を許可している。
  */
-public final class FileMgr {
+public class FileMgr implements AutoCloseable {
+    /** 同時に開いておく FileChannel の既定上限 */
+    public static final int DEFAULT_MAX_OPEN_FILES = 32;
+
+    /** ファイル削除/クローズを上位層（バッファプール等）へ知らせるフック */
+    public interface Listener {
+        /** deleteFileIfExists の前に呼ばれる。例外を投げると削除しない（使用中のページがある場合など） */
+        default void beforeDelete(String filename) {
+        }
+
+        /** deleteFileIfExists の後に呼ばれる（filename のキャッシュは破棄すること） */
+        default void onDelete(String filename) {
+        }
+
+        /** close の前に呼ばれる（未書き出しのページがあればここで write する） */
+        default void onClose() {
+        }
+    }
+
+    /** ページ書き込みの永続化タイミング */
+    public enum Durability {
+        /** write/append のたびに force(true) */
+        STRICT,
+        /** force は sync()/syncAll()/close() まで遅延 */
+        DEFERRED
+    }
+
     private final Path dbDir;
     private final int blockSize;
+    private final int maxOpenFiles;
+    private final Durability durability;
+
+    // filename -> FileChannel（accessOrder=true で LRU 順）
+    private final LinkedHashMap<String, FileChannel> openFiles;
+    // DEFERRED で未 force の書き込みがあるファイル
+    private final Set<String> unsynced = new HashSet<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
 
     public FileMgr(Path dbDir, int blockSize) {
+        this(dbDir, blockSize, Durability.STRICT);
+    }
+
+    public FileMgr(Path dbDir, int blockSize, Durability durability) {
+        this(dbDir, blockSize, DEFAULT_MAX_OPEN_FILES, durability);
+    }
+
+    public FileMgr(Path dbDir, int blockSize, int maxOpenFiles) {
+        this(dbDir, blockSize, maxOpenFiles, Durability.STRICT);
+    }
+
+    public FileMgr(Path dbDir, int blockSize, int maxOpenFiles, Durability durability) {
         if (blockSize <= 0)
             throw new IllegalArgumentException("blockSize must be > 0");
+        if (maxOpenFiles <= 0)
+            throw new IllegalArgumentException("maxOpenFiles must be > 0");
 
         this.dbDir = dbDir;
         this.blockSize = blockSize;
+        this.maxOpenFiles = maxOpenFiles;
+        this.durability = Objects.requireNonNull(durability, "durability");
+        this.openFiles = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FileChannel> eldest) {
+                if (size() <= FileMgr.this.maxOpenFiles)
+                    return false;
+                // close は fsync しないので、未同期なら先に force してから閉じる
+                forceIfUnsynced(eldest.getKey(), eldest.getValue());
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
 
         try {
             Files.createDirectories(this.dbDir); // メンバ変数を使う
@@ -31,36 +105,69 @@ public final class FileMgr {
         return blockSize;
     }
 
-    private Path path(String filename) {
+    public Durability durability() {
+        return durability;
+    }
+
+    protected Path path(String filename) {
         return dbDir.resolve(filename);
     }
 
-    /** 指定ブロックを読み込む（不足分はゼロ埋め） */
+    /** プール済みの FileChannel を返す（無ければ開いて登録。上限超過分は LRU で閉じる） */
+    protected FileChannel channel(String filename) throws IOException {
+        FileChannel fc = openFiles.get(filename);
+        if (fc != null && fc.isOpen())
+            return fc;
+        fc = FileChannel.open(path(filename),
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE);
+        openFiles.put(filename, fc);
+        return fc;
+    }
+
+    /** 既存ファイルの FileChannel を返す（ファイルが無ければ作らずに null。読み出し専用の経路用） */
+    protected FileChannel channelIfExists(String filename) throws IOException {
+        FileChannel fc = openFiles.get(filename);
+        if (fc != null && fc.isOpen())
+            return fc;
+        if (!Files.exists(path(filename)))
+            return null;
+        return channel(filename);
+    }
+
+    /** 指定ブロックを読み込む（不足分はゼロ埋め。ファイルが無くても作らない） */
     public synchronized void read(BlockId blk, Page p) {
-        try (FileChannel fc = FileChannel.open(path(blk.filename()),
-                StandardOpenOption.READ, StandardOpenOption.CREATE)) {
-            fc.position((long) blk.number() * blockSize);
+        try {
             ByteBuffer buf = ByteBuffer.wrap(p.contents());
-            int total = 0;
+            FileChannel fc = channelIfExists(blk.filename());
+            if (fc == null) {
+                Arrays.fill(p.contents(), (byte) 0);
+                return;
+            }
+            long pos = (long) blk.number() * blockSize;
             while (buf.hasRemaining()) {
-                int n = fc.read(buf);
+                int n = fc.read(buf, pos + buf.position());
                 if (n < 0)
                     break; // EOF
-                total += n;
             }
-            // 読み込み不足分は ByteBuffer が自動で0のまま
+            // 読み込み不足分（EOF 以降）はゼロ埋め
+            while (buf.hasRemaining())
+                buf.put((byte) 0);
         } catch (IOException e) {
             throw new RuntimeException("read failed: " + blk, e);
         }
     }
 
-    /** 指定ブロックへ書き込む（force(true) でメタデータ含め同期） */
+    /** 指定ブロックへ書き込む（STRICT なら force(true) でメタデータ含め同期） */
     public synchronized void write(BlockId blk, Page p) {
-        try (FileChannel fc = FileChannel.open(path(blk.filename()),
-                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
-            fc.position((long) blk.number() * blockSize);
-            fc.write(ByteBuffer.wrap(p.contents()));
-            fc.force(true);
+        try {
+            FileChannel fc = channel(blk.filename());
+            long pos = (long) blk.number() * blockSize;
+            ByteBuffer buf = ByteBuffer.wrap(p.contents());
+            while (buf.hasRemaining())
+                fc.write(buf, pos + buf.position());
+            afterWrite(blk.filename(), fc);
         } catch (IOException e) {
             throw new RuntimeException("write failed: " + blk, e);
         }
@@ -68,15 +175,14 @@ public final class FileMgr {
 
     /** ファイル末尾に空ブロックを追加し、その BlockId を返す */
     public synchronized BlockId append(String filename) {
-        Path file = path(filename);
-        try (FileChannel fc = FileChannel.open(file,
-                StandardOpenOption.READ,
-                StandardOpenOption.WRITE,
-                StandardOpenOption.CREATE)) {
+        try {
+            FileChannel fc = channel(filename);
             int newBlkNum = (int) (fc.size() / blockSize);
-            fc.position((long) newBlkNum * blockSize);
-            fc.write(ByteBuffer.allocate(blockSize)); // ゼロで1ブロック拡張
-            fc.force(true);
+            long pos = (long) newBlkNum * blockSize;
+            ByteBuffer buf = ByteBuffer.allocate(blockSize); // ゼロで1ブロック拡張
+            while (buf.hasRemaining())
+                fc.write(buf, pos + buf.position());
+            afterWrite(filename, fc);
             return new BlockId(filename, newBlkNum);
         } catch (IOException e) {
             throw new RuntimeException("append failed: " + filename, e);
@@ -84,27 +190,120 @@ public final class FileMgr {
     }
 
     /** ファイルが何ブロック分あるか（0始まりではなく個数） */
-    public int length(String filename) {
+    public synchronized int length(String filename) {
         try {
-            Path p = path(filename);
-            long size = Files.exists(p) ? Files.size(p) : 0L;
+            FileChannel fc = openFiles.get(filename);
+            long size;
+            if (fc != null && fc.isOpen()) {
+                size = fc.size();
+            } else {
+                Path p = path(filename);
+                size = Files.exists(p) ? Files.size(p) : 0L;
+            }
             return (int) (size / blockSize);
         } catch (IOException e) {
             throw new RuntimeException("length failed: " + filename, e);
         }
     }
 
-    /** DB 直下のファイルをベストエフォートで削除（存在しなければ false）。 */
+    /** 指定ファイルの未同期の書き込みを force する（STRICT では常に no-op） */
+    public synchronized void sync(String filename) {
+        if (!unsynced.contains(filename))
+            return;
+        FileChannel fc = openFiles.get(filename);
+        if (fc == null || !fc.isOpen()) {
+            // LRU で閉じる際に force 済み
+            unsynced.remove(filename);
+            return;
+        }
+        forceIfUnsynced(filename, fc);
+    }
+
+    /** 未同期のすべてのファイルを force する（コミット/チェックポイント境界で呼ぶ） */
+    public synchronized void syncAll() {
+        for (String filename : new ArrayList<>(unsynced))
+            sync(filename);
+    }
+
+    public void addListener(Listener l) {
+        listeners.add(Objects.requireNonNull(l));
+    }
+
+    public void removeListener(Listener l) {
+        listeners.remove(l);
+    }
+
+    /** DB 直下のファイルをベストエフォートで削除（存在しなければ false）。リスナが拒否すれば IllegalStateException */
     public boolean deleteFileIfExists(String filename) {
-        try {
-            return java.nio.file.Files.deleteIfExists(dbDir.resolve(filename));
-        } catch (java.io.IOException e) {
-            return false;
+        for (Listener l : listeners)
+            l.beforeDelete(filename);
+        boolean deleted;
+        synchronized (this) {
+            unsynced.remove(filename);
+            closeQuietly(openFiles.remove(filename));
+            try {
+                deleted = java.nio.file.Files.deleteIfExists(dbDir.resolve(filename));
+            } catch (java.io.IOException e) {
+                deleted = false;
+            }
         }
+        // リスナはロック外で呼ぶ（BufferMgr → FileMgr の順でロックを取る経路と逆順にしない）
+        for (Listener l : listeners)
+            l.onDelete(filename);
+        return deleted;
     }
 
     /** 便宜上、DB 直下の Path を返す */
     public java.nio.file.Path resolve(String filename) {
         return dbDir.resolve(filename);
     }
+
+    /** 現在プールされている FileChannel の数（テスト/監視用） */
+    public synchronized int openFileCount() {
+        return openFiles.size();
+    }
+
+    /** DEFERRED で未同期の書き込みが残っているファイル数（テスト/監視用） */
+    public synchronized int unsyncedFileCount() {
+        return unsynced.size();
+    }
+
+    /** プール中の FileChannel を同期してからすべて閉じる（以後の read/write は再オープンされる） */
+    @Override
+    public void close() {
+        for (Listener l : listeners)
+            l.onClose();
+        synchronized (this) {
+            syncAll();
+            for (FileChannel fc : openFiles.values())
+                closeQuietly(fc);
+            openFiles.clear();
+        }
+    }
+
+    private void afterWrite(String filename, FileChannel fc) throws IOException {
+        if (durability == Durability.STRICT)
+            fc.force(true);
+        else
+            unsynced.add(filename);
+    }
+
+    private void forceIfUnsynced(String filename, FileChannel fc) {
+        if (!unsynced.remove(filename))
+            return;
+        try {
+            fc.force(true);
+        } catch (IOException e) {
+            throw new RuntimeException("sync failed: " + filename, e);
+        }
+    }
+
+    private static void closeQuietly(FileChannel fc) {
+        if (fc == null)
+            return;
+        try {
+            fc.close();
+        } catch (IOException ignore) {
+        }
+    }
 }
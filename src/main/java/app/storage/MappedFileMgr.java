@@ -0,0 +1,116 @@
+package app.storage;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 読み出しを FileChannel.map によるメモリマップ経由で行う FileMgr。
+ * - ファイルを segmentBlocks ブロック単位のセグメントに分けて遅延マップする
+ * - 末尾セグメントはファイルの伸長に合わせて張り直す（マップ範囲はファイルサイズ以内に限る）
+ * - read(BlockId, Page) はマップ領域から Page へのメモリコピー
+ * - write/append は従来通り FileChannel 経由（OS のページキャッシュを共有するので読み出しにも見える）
+ */
+public final class MappedFileMgr extends FileMgr {
+    /** 1セグメントあたりの既定ブロック数（4KB ブロックなら 16MB） */
+    public static final int DEFAULT_SEGMENT_BLOCKS = 4096;
+
+    private final int segmentBlocks;
+    // filename -> セグメント番号順のマップ領域（未マップは null）
+    private final Map<String, List<MappedByteBuffer>> segments = new HashMap<>();
+
+    public MappedFileMgr(Path dbDir, int blockSize) {
+        this(dbDir, blockSize, Durability.STRICT);
+    }
+
+    public MappedFileMgr(Path dbDir, int blockSize, Durability durability) {
+        this(dbDir, blockSize, DEFAULT_MAX_OPEN_FILES, durability, DEFAULT_SEGMENT_BLOCKS);
+    }
+
+    public MappedFileMgr(Path dbDir, int blockSize, int maxOpenFiles, Durability durability, int segmentBlocks) {
+        super(dbDir, blockSize, maxOpenFiles, durability);
+        if (segmentBlocks <= 0)
+            throw new IllegalArgumentException("segmentBlocks must be > 0");
+        this.segmentBlocks = segmentBlocks;
+    }
+
+    /** 指定ブロックをマップ領域からコピーする（ファイル末尾より先はゼロ埋め） */
+    @Override
+    public synchronized void read(BlockId blk, Page p) {
+        MappedByteBuffer seg = segmentFor(blk);
+        byte[] dst = p.contents();
+        if (seg == null) {
+            Arrays.fill(dst, (byte) 0); // EOF 以降
+            return;
+        }
+        int off = (blk.number() % segmentBlocks) * blockSize();
+        seg.get(off, dst, 0, blockSize());
+    }
+
+    /** ファイル削除時はマップも破棄する（実際の unmap は GC 任せ） */
+    @Override
+    public boolean deleteFileIfExists(String filename) {
+        boolean deleted = super.deleteFileIfExists(filename);
+        synchronized (this) {
+            segments.remove(filename);
+        }
+        return deleted;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        synchronized (this) {
+            segments.clear();
+        }
+    }
+
+    /** 現在マップ済みのセグメント数（テスト/監視用） */
+    public synchronized int mappedSegmentCount() {
+        int n = 0;
+        for (List<MappedByteBuffer> list : segments.values())
+            for (MappedByteBuffer b : list)
+                if (b != null)
+                    n++;
+        return n;
+    }
+
+    /** blk を含むセグメントを返す。ブロックがファイル外なら null */
+    private MappedByteBuffer segmentFor(BlockId blk) {
+        int segNo = blk.number() / segmentBlocks;
+        int inSeg = blk.number() % segmentBlocks;
+        List<MappedByteBuffer> list = segments.computeIfAbsent(blk.filename(), f -> new ArrayList<>());
+        while (list.size() <= segNo)
+            list.add(null);
+
+        MappedByteBuffer seg = list.get(segNo);
+        long needed = (long) (inSeg + 1) * blockSize();
+        if (seg != null && seg.capacity() >= needed)
+            return seg;
+
+        // 未マップ or 末尾セグメントがファイル伸長に追いついていない → 張り直し
+        try {
+            FileChannel fc = channelIfExists(blk.filename());
+            if (fc == null)
+                return null;
+            long segStart = (long) segNo * segmentBlocks * blockSize();
+            long fileSize = fc.size();
+            long avail = fileSize - segStart;
+            avail -= avail % blockSize(); // ブロック境界に切り詰め
+            long len = Math.min(avail, (long) segmentBlocks * blockSize());
+            if (len < needed)
+                return null;
+            seg = fc.map(FileChannel.MapMode.READ_ONLY, segStart, len);
+            list.set(segNo, seg);
+            return seg;
+        } catch (IOException e) {
+            throw new RuntimeException("map failed: " + blk, e);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package app.storage;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /** 固定長ページのバイト配列に対する便利メソッド群 */
 public final class Page {
@@ -48,6 +49,29 @@ public final class Page {
         return new String(dst, StandardCharsets.UTF_8);
     }
 
+    /** 長さを別に持つ文字列（[offset, offset+len) の UTF-8 本体だけを読む） */
+    public String getString(int offset, int len) {
+        return new String(bb.array(), offset, len, StandardCharsets.UTF_8);
+    }
+
+    /** [offset, offset+len) のバイト列が b[bOff, bOff+bLen) と等しいか（文字列を作らずに比べる） */
+    public boolean bytesEqual(int offset, int len, byte[] b, int bOff, int bLen) {
+        return len == bLen && Arrays.equals(bb.array(), offset, offset + len, b, bOff, bOff + bLen);
+    }
+
+    /** [offset, offset+len) のハッシュ（Page.hash と同じ値） */
+    public int hashBytes(int offset, int len) {
+        return hash(bb.array(), offset, len);
+    }
+
+    /** バイト列のハッシュ（Arrays.hashCode(byte[]) と同じ式。ページ上でもコピー上でも同じ値になる） */
+    public static int hash(byte[] a, int off, int len) {
+        int h = 1;
+        for (int i = off, end = off + len; i < end; i++)
+            h = 31 * h + a[i];
+        return h;
+    }
+
     public void setString(int offset, String s) {
         byte[] src = s.getBytes(StandardCharsets.UTF_8);
         setInt(offset, src.length);
@@ -0,0 +1,10 @@
+package app.tx;
+
+/** ロック待ちがデッドロックになるため中断された（この Tx は rollback して再実行すること） */
+public final class DeadlockException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    public DeadlockException(String message) {
+        super(message);
+    }
+}
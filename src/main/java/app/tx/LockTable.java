@@ -0,0 +1,224 @@
+package app.tx;
+
+import app.memory.LogManager;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tx 間の共有/排他ロック表（厳格 2 相ロック用）。キーは BlockId（行単位にするなら RID など任意の値）。
+ * - sLock: 他 Tx の X が無ければ取れる。xLock: 他 Tx が何も持っていなければ取れる（自分の S は昇格）
+ * - 取れないときは待つ。待つ前に待ち合わせグラフ（待ち Tx → 保持 Tx）を辿り、閉路ができるなら
+ *   要求した Tx を犠牲にして DeadlockException を投げる（呼び出し側は rollback すること）
+ * - 解放は releaseAll のみ（commit/rollback 時）
+ * 実装は表全体で 1 つのモニタ（wait/notifyAll）。待ち回数・待ち時間・デッドロック数を統計に持つ。
+ */
+public final class LockTable {
+    /** ロック待ちの既定上限 */
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 10_000;
+
+    private static final Map<LogManager, LockTable> SHARED = new WeakHashMap<>();
+
+    private final long maxWaitMillis;
+    // キー -> 保持状態
+    private final Map<Object, Entry> locks = new HashMap<>();
+    // Tx -> 保持しているキー
+    private final Map<Integer, Set<Object>> held = new HashMap<>();
+    // 待っている Tx -> 待っているキー（待ち合わせグラフの辺はここと locks から作る）
+    private final Map<Integer, Object> waitingFor = new HashMap<>();
+
+    // 統計
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder deadlocks = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    private static final class Entry {
+        final Set<Integer> shared = new HashSet<>();
+        int exclusive = -1; // X を持つ Tx（無ければ -1）
+
+        boolean isFree() {
+            return exclusive < 0 && shared.isEmpty();
+        }
+    }
+
+    public LockTable() {
+        this(DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    /** maxWaitMillis: ロック待ちの上限（超えたら IllegalStateException。0 なら待たずに失敗） */
+    public LockTable(long maxWaitMillis) {
+        if (maxWaitMillis < 0)
+            throw new IllegalArgumentException("maxWaitMillis must be >= 0");
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /** log（= 1 つのデータベース）を共有する Tx が使うロック表 */
+    public static LockTable shared(LogManager log) {
+        synchronized (SHARED) {
+            return SHARED.computeIfAbsent(log, l -> new LockTable());
+        }
+    }
+
+    /** 共有ロックを取る（既に S/X を持っていれば何もしない） */
+    public synchronized void sLock(int txId, Object key) {
+        acquire(txId, key, false);
+    }
+
+    /** 排他ロックを取る（自分だけが S を持っていれば昇格） */
+    public synchronized void xLock(int txId, Object key) {
+        acquire(txId, key, true);
+    }
+
+    /** txId が持つロックをすべて外し、待っている Tx を起こす */
+    public synchronized void releaseAll(int txId) {
+        Set<Object> keys = held.remove(txId);
+        if (keys == null)
+            return;
+        for (Object key : keys) {
+            Entry e = locks.get(key);
+            if (e == null)
+                continue;
+            e.shared.remove(txId);
+            if (e.exclusive == txId)
+                e.exclusive = -1;
+            if (e.isFree())
+                locks.remove(key);
+        }
+        notifyAll();
+    }
+
+    private void acquire(int txId, Object key, boolean exclusive) {
+        Entry e = locks.computeIfAbsent(key, k -> new Entry());
+        if (grantable(e, txId, exclusive)) {
+            grant(e, txId, key, exclusive);
+            return;
+        }
+        long start = System.nanoTime();
+        long deadline = start + maxWaitMillis * 1_000_000L;
+        waits.increment();
+        waitingFor.put(txId, key);
+        try {
+            while (true) {
+                if (closesCycle(txId)) {
+                    deadlocks.increment();
+                    throw new DeadlockException("deadlock: tx " + txId + " aborted waiting for " + key);
+                }
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    timeouts.increment();
+                    throw new IllegalStateException(
+                            "lock wait timed out after " + maxWaitMillis + "ms: tx " + txId + " on " + key);
+                }
+                try {
+                    wait(left / 1_000_000, (int) (left % 1_000_000));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for lock on " + key, ie);
+                }
+                e = locks.computeIfAbsent(key, k -> new Entry()); // releaseAll で消えていることがある
+                if (grantable(e, txId, exclusive)) {
+                    grant(e, txId, key, exclusive);
+                    return;
+                }
+            }
+        } finally {
+            waitingFor.remove(txId);
+            waitNanos.add(System.nanoTime() - start);
+            if (e.isFree())
+                locks.remove(key, e);
+        }
+    }
+
+    private static boolean grantable(Entry e, int txId, boolean exclusive) {
+        if (e.exclusive >= 0)
+            return e.exclusive == txId;
+        if (!exclusive)
+            return true;
+        return e.shared.isEmpty() || (e.shared.size() == 1 && e.shared.contains(txId));
+    }
+
+    private void grant(Entry e, int txId, Object key, boolean exclusive) {
+        if (exclusive) {
+            e.exclusive = txId;
+            e.shared.remove(txId);
+        } else if (e.exclusive != txId) {
+            e.shared.add(txId);
+        }
+        if (held.computeIfAbsent(txId, t -> new LinkedHashSet<>()).add(key))
+            acquired.increment();
+    }
+
+    /** 待ち合わせグラフで txId から出発して txId に戻れるか */
+    private boolean closesCycle(int txId) {
+        Set<Integer> seen = new HashSet<>();
+        Deque<Integer> stack = new ArrayDeque<>(blockers(txId));
+        while (!stack.isEmpty()) {
+            int t = stack.pop();
+            if (t == txId)
+                return true;
+            if (seen.add(t))
+                stack.addAll(blockers(t));
+        }
+        return false;
+    }
+
+    // t が待っているキーを持つ他の Tx（待っていなければ空）
+    private Set<Integer> blockers(int t) {
+        Object key = waitingFor.get(t);
+        if (key == null)
+            return Set.of();
+        Entry e = locks.get(key);
+        if (e == null)
+            return Set.of();
+        Set<Integer> s = new HashSet<>(e.shared);
+        if (e.exclusive >= 0)
+            s.add(e.exclusive);
+        s.remove(t);
+        return s;
+    }
+
+    /** txId が持つロックの数（テスト/監視用） */
+    public synchronized int heldCount(int txId) {
+        Set<Object> keys = held.get(txId);
+        return keys == null ? 0 : keys.size();
+    }
+
+    /** いま待っている Tx の数 */
+    public synchronized int waitingCount() {
+        return waitingFor.size();
+    }
+
+    /** 取得したロックの延べ数（同じ Tx の再取得は数えない） */
+    public long acquiredCount() {
+        return acquired.sum();
+    }
+
+    /** 待ちが発生した回数 */
+    public long waitCount() {
+        return waits.sum();
+    }
+
+    /** ロック待ちの累計時間 */
+    public long waitMillis() {
+        return waitNanos.sum() / 1_000_000;
+    }
+
+    /** デッドロックで Tx を中断した回数 */
+    public long deadlockCount() {
+        return deadlocks.sum();
+    }
+
+    /** 待ち時間の上限を超えた回数 */
+    public long timeoutCount() {
+        return timeouts.sum();
+    }
+}
@@ -1,9 +1,19 @@
 package app.tx;
 
+import app.storage.Page;
+
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
-/** ログのシリアライズ/デシリアライズ（固定ヘッダ＋可変ペイロード） */
+/**
+ * ログのシリアライズ/デシリアライズ（固定ヘッダ＋可変ペイロード）。
+ * ページを変更するレコードはファイル名の代わりにファイル ID（FILE_ID レコードで宣言）を持つ。
+ */
 public final class LogCodec {
     // レコード共通ヘッダ: [type:int][txId:int]
     public static byte[] start(int txId) {
@@ -25,61 +35,359 @@ public final class LogCodec {
     }
 
     /**
-     * SET_INT:
-     * [type:int][txId:int][fnameLen:int][fname:utf8][blk:int][offset:int][oldVal:int]
+     * CHECKPOINT: [type:int][txId:int=-1][files][txIdEnd:int]
+     * files はその時点のファイル ID 辞書、txIdEnd は Tx ID の予約の末尾（古い形式には無い）
+     */
+    public static byte[] checkpoint(Map<Integer, String> files, int txIdEnd) {
+        byte[] dict = encodeFiles(files);
+        var bb = ByteBuffer.allocate(12 + dict.length);
+        bb.putInt(LogType.CHECKPOINT.code).putInt(-1).put(dict).putInt(txIdEnd);
+        return bb.array();
+    }
+
+    /**
+     * NQCKPT: [type:int][txId:int=-1][redoLsn:long][n:int][activeTxId:int]*n[files][txIdEnd:int]
+     * redoLsn はページ書き出しを始める前のログ末尾（これ以降のコミット済み変更だけ REDO すればよい）
      */
-    public static byte[] setInt(int txId, String filename, int blk, int offset, int oldVal) {
+    public static byte[] nqCheckpoint(long redoLsn, Collection<Integer> activeTxs, Map<Integer, String> files,
+            int txIdEnd) {
+        byte[] dict = encodeFiles(files);
+        var bb = ByteBuffer.allocate(24 + 4 * activeTxs.size() + dict.length);
+        bb.putInt(LogType.NQCKPT.code).putInt(-1).putLong(redoLsn).putInt(activeTxs.size());
+        for (int t : activeTxs)
+            bb.putInt(t);
+        bb.put(dict).putInt(txIdEnd);
+        return bb.array();
+    }
+
+    /** FILE_ID: [type:int][txId:int=-1][fileId:int][nameLen:int][name:utf8] */
+    public static byte[] fileId(int fileId, String filename) {
         var nameBytes = filename.getBytes(StandardCharsets.UTF_8);
-        var bb = ByteBuffer.allocate(4 + 4 + 4 + nameBytes.length + 4 + 4 + 4);
+        var bb = ByteBuffer.allocate(16 + nameBytes.length);
+        bb.putInt(LogType.FILE_ID.code).putInt(-1).putInt(fileId).putInt(nameBytes.length).put(nameBytes);
+        return bb.array();
+    }
+
+    /** TXID_RESERVE: [type:int][txId:int=-1][reservedEnd:int]（reservedEnd 未満の ID は使用済みとみなす） */
+    public static byte[] txIdReserve(int reservedEnd) {
+        return ByteBuffer.allocate(12).putInt(LogType.TXID_RESERVE.code).putInt(-1).putInt(reservedEnd).array();
+    }
+
+    /**
+     * SET_INT（UNDO 用の旧値と REDO 用の新値を持つ）:
+     * [type:int][txId:int][fileId:int][blk:int][offset:int][oldVal:int][newVal:int]
+     */
+    public static byte[] setInt(int txId, int fileId, int blk, int offset, int oldVal, int newVal) {
+        var bb = ByteBuffer.allocate(28);
         bb.putInt(LogType.SET_INT.code).putInt(txId);
-        bb.putInt(nameBytes.length).put(nameBytes);
-        bb.putInt(blk).putInt(offset).putInt(oldVal);
+        bb.putInt(fileId).putInt(blk).putInt(offset).putInt(oldVal).putInt(newVal);
+        return bb.array();
+    }
+
+    /**
+     * SET_STRING（フィールド領域 [len][bytes] の旧/新をそのまま持つ）:
+     * [type:int][txId:int][fileId:int][blk:int][offset:int][oldLen:int][old][newLen:int][new]
+     */
+    public static byte[] setString(int txId, int fileId, int blk, int offset, byte[] oldBytes, byte[] newBytes) {
+        var bb = ByteBuffer.allocate(28 + oldBytes.length + newBytes.length);
+        bb.putInt(LogType.SET_STRING.code).putInt(txId);
+        bb.putInt(fileId).putInt(blk).putInt(offset);
+        bb.putInt(oldBytes.length).put(oldBytes).putInt(newBytes.length).put(newBytes);
+        return bb.array();
+    }
+
+    /**
+     * SET_BYTES（ページ内の範囲の旧/新。SET_STRING と同じ並び）:
+     * [type:int][txId:int][fileId:int][blk:int][offset:int][oldLen:int][old][newLen:int][new]
+     */
+    public static byte[] setBytes(int txId, int fileId, int blk, int offset, byte[] oldBytes, byte[] newBytes) {
+        byte[] rec = setString(txId, fileId, blk, offset, oldBytes, newBytes);
+        ByteBuffer.wrap(rec).putInt(0, LogType.SET_BYTES.code);
+        return rec;
+    }
+
+    /** INSERT_SLOT: [type:int][txId:int][fileId:int][blk:int][flagOffset:int] */
+    public static byte[] insertSlot(int txId, int fileId, int blk, int flagOffset) {
+        var bb = ByteBuffer.allocate(20);
+        bb.putInt(LogType.INSERT_SLOT.code).putInt(txId);
+        bb.putInt(fileId).putInt(blk).putInt(flagOffset);
+        return bb.array();
+    }
+
+    /**
+     * DELETE_SLOT（UNDO でレコード内容も戻せるよう削除前の内容を持つ）:
+     * [type:int][txId:int][fileId:int][blk:int][flagOffset:int][recOffset:int][len:int][record]
+     */
+    public static byte[] deleteSlot(int txId, int fileId, int blk, int flagOffset, int recOffset, byte[] record) {
+        var bb = ByteBuffer.allocate(28 + record.length);
+        bb.putInt(LogType.DELETE_SLOT.code).putInt(txId);
+        bb.putInt(fileId).putInt(blk).putInt(flagOffset).putInt(recOffset);
+        bb.putInt(record.length).put(record);
+        return bb.array();
+    }
+
+    /**
+     * PAGE_IMAGE（REDO 専用。txId は -1）: [type:int][txId:int][fileId:int][blk:int][versionOffset:int][len:int][image]
+     * versionOffset はページ内の版番号（int）の位置。ディスク上の版がイメージの版以上なら REDO しない
+     */
+    public static byte[] pageImage(int fileId, int blk, int versionOffset, byte[] image) {
+        var bb = ByteBuffer.allocate(24 + image.length);
+        bb.putInt(LogType.PAGE_IMAGE.code).putInt(-1);
+        bb.putInt(fileId).putInt(blk).putInt(versionOffset).putInt(image.length).put(image);
+        return bb.array();
+    }
+
+    /**
+     * COMPENSATE（ロールバックで戻した後の範囲の内容。REDO 専用）:
+     * [type:int][txId:int][fileId:int][blk:int][offset:int][len:int][bytes]
+     */
+    public static byte[] compensate(int txId, int fileId, int blk, int offset, byte[] bytes) {
+        var bb = ByteBuffer.allocate(24 + bytes.length);
+        bb.putInt(LogType.COMPENSATE.code).putInt(txId);
+        bb.putInt(fileId).putInt(blk).putInt(offset).putInt(bytes.length).put(bytes);
+        return bb.array();
+    }
+
+    /**
+     * INDEX_ENTRY（B+木への追加/削除。UNDO で逆の操作をする）:
+     * [type:int][txId:int][inserted:int][key:int][blk:int][slot:int][indexLen:int][indexFile][dataLen:int][dataFile]
+     */
+    public static byte[] indexEntry(int txId, boolean inserted, String indexFile, String dataFile, int key, int blk,
+            int slot) {
+        byte[] idx = indexFile.getBytes(StandardCharsets.UTF_8);
+        byte[] data = dataFile.getBytes(StandardCharsets.UTF_8);
+        var bb = ByteBuffer.allocate(32 + idx.length + data.length);
+        bb.putInt(LogType.INDEX_ENTRY.code).putInt(txId).putInt(inserted ? 1 : 0).putInt(key).putInt(blk)
+                .putInt(slot);
+        bb.putInt(idx.length).put(idx).putInt(data.length).put(data);
         return bb.array();
     }
 
+    /**
+     * Tx が書くレコードの末尾に、同じ Tx の1つ前のレコードの LSN（無ければ -1）を付ける:
+     * [rec][prevLsn:long]。rollback はこれを辿り、間にある他 Tx のレコードを読まない
+     */
+    public static byte[] withPrevLsn(byte[] rec, long prevLsn) {
+        return ByteBuffer.allocate(rec.length + Long.BYTES).put(rec).putLong(prevLsn).array();
+    }
+
     /** 単純なパーサ（必要範囲のみ提供） */
     public static Parsed parse(byte[] rec) {
         var bb = ByteBuffer.wrap(rec);
         var type = LogType.from(bb.getInt());
         var txId = bb.getInt();
-        if (type == LogType.SET_INT) {
-            int nlen = bb.getInt();
-            byte[] nb = new byte[nlen];
-            bb.get(nb);
-            String fname = new String(nb, StandardCharsets.UTF_8);
-            int blk = bb.getInt();
-            int offset = bb.getInt();
-            int oldVal = bb.getInt();
-            return Parsed.setInt(txId, fname, blk, offset, oldVal);
-        } else {
-            return Parsed.simple(type, txId);
+        Parsed p = parseBody(type, txId, bb);
+        // prevLsn を持たない古い形式なら -1 のまま
+        if (type.hasPrevLsn() && bb.remaining() >= Long.BYTES)
+            p.prevLsn = bb.getLong();
+        return p;
+    }
+
+    private static Parsed parseBody(LogType type, int txId, ByteBuffer bb) {
+        switch (type) {
+            case SET_INT: {
+                int fileId = bb.getInt(), blk = bb.getInt(), offset = bb.getInt();
+                int oldVal = bb.getInt(), newVal = bb.getInt();
+                return Parsed.setInt(txId, fileId, blk, offset, oldVal, newVal);
+            }
+            case SET_STRING:
+            case SET_BYTES: {
+                int fileId = bb.getInt(), blk = bb.getInt(), offset = bb.getInt();
+                byte[] oldBytes = getBytes(bb);
+                byte[] newBytes = getBytes(bb);
+                return new Parsed(type, txId, fileId, blk, offset, null, null, null, oldBytes, newBytes);
+            }
+            case INSERT_SLOT: {
+                int fileId = bb.getInt(), blk = bb.getInt(), flag = bb.getInt();
+                return new Parsed(type, txId, fileId, blk, flag, null, null, null, null, null);
+            }
+            case DELETE_SLOT: {
+                int fileId = bb.getInt(), blk = bb.getInt(), flag = bb.getInt(), recOffset = bb.getInt();
+                byte[] record = getBytes(bb);
+                return new Parsed(type, txId, fileId, blk, flag, null, null, recOffset, record, null);
+            }
+            case COMPENSATE: {
+                int fileId = bb.getInt(), blk = bb.getInt(), offset = bb.getInt();
+                byte[] bytes = getBytes(bb);
+                return new Parsed(type, txId, fileId, blk, offset, null, null, null, null, bytes);
+            }
+            case PAGE_IMAGE: {
+                int fileId = bb.getInt(), blk = bb.getInt(), versionOffset = bb.getInt();
+                byte[] image = getBytes(bb);
+                return new Parsed(type, txId, fileId, blk, versionOffset, null, null, null, null, image);
+            }
+            case INDEX_ENTRY: {
+                int inserted = bb.getInt(), key = bb.getInt(), blk = bb.getInt(), slot = bb.getInt();
+                String indexFile = new String(getBytes(bb), StandardCharsets.UTF_8);
+                String dataFile = new String(getBytes(bb), StandardCharsets.UTF_8);
+                return new Parsed(type, txId, null, blk, slot, key, inserted, null, null, null, null, null,
+                        Map.of(0, indexFile, 1, dataFile));
+            }
+            case FILE_ID: {
+                int fileId = bb.getInt();
+                String name = new String(getBytes(bb), StandardCharsets.UTF_8);
+                return Parsed.withFiles(type, null, null, Map.of(fileId, name), null);
+            }
+            case TXID_RESERVE:
+                return new Parsed(type, txId, null, null, null, null, bb.getInt(), null, null, null);
+            case CHECKPOINT:
+                return Parsed.withFiles(type, null, null, decodeFiles(bb), txIdEnd(bb));
+            case NQCKPT: {
+                long redoLsn = bb.getLong();
+                int n = bb.getInt();
+                List<Integer> active = new ArrayList<>(n);
+                for (int i = 0; i < n; i++)
+                    active.add(bb.getInt());
+                return Parsed.withFiles(type, redoLsn, active, decodeFiles(bb), txIdEnd(bb));
+            }
+            default:
+                return Parsed.simple(type, txId);
         }
     }
 
+    // 辞書: [n:int]([fileId:int][nameLen:int][name:utf8])*n
+    private static byte[] encodeFiles(Map<Integer, String> files) {
+        List<byte[]> names = new ArrayList<>(files.size());
+        int size = 4;
+        for (String f : files.values()) {
+            byte[] b = f.getBytes(StandardCharsets.UTF_8);
+            names.add(b);
+            size += 8 + b.length;
+        }
+        var bb = ByteBuffer.allocate(size).putInt(files.size());
+        int i = 0;
+        for (int id : files.keySet()) {
+            byte[] b = names.get(i++);
+            bb.putInt(id).putInt(b.length).put(b);
+        }
+        return bb.array();
+    }
+
+    private static Map<Integer, String> decodeFiles(ByteBuffer bb) {
+        Map<Integer, String> files = new LinkedHashMap<>();
+        int n = bb.getInt();
+        for (int i = 0; i < n; i++) {
+            int id = bb.getInt();
+            files.put(id, new String(getBytes(bb), StandardCharsets.UTF_8));
+        }
+        return files;
+    }
+
+    // チェックポイント末尾の Tx ID 予約（予約を持たない古い形式なら null）
+    private static Integer txIdEnd(ByteBuffer bb) {
+        return bb.remaining() >= Integer.BYTES ? bb.getInt() : null;
+    }
+
+    private static byte[] getBytes(ByteBuffer bb) {
+        byte[] b = new byte[bb.getInt()];
+        bb.get(b);
+        return b;
+    }
+
     /** デシリアライズ結果のコンテナ */
     public static final class Parsed {
         public final LogType type;
         public final int txId;
-        public final String filename;
+        public final Integer fileId; // ページ変更レコードのみ
         public final Integer blk;
-        public final Integer offset;
-        public final Integer oldVal;
+        public final Integer offset; // スロット操作では使用フラグ、PAGE_IMAGE では版番号の位置、INDEX_ENTRY ではスロット
+        public final Integer oldVal; // INDEX_ENTRY ではキー
+        public final Integer newVal; // TXID_RESERVE / チェックポイントでは Tx ID の予約の末尾、INDEX_ENTRY では追加なら 1
+        public final Integer recOffset; // DELETE_SLOT のみ
+        public final byte[] oldBytes; // SET_STRING/SET_BYTES の旧値 / DELETE_SLOT のレコード内容
+        public final byte[] newBytes; // SET_STRING/SET_BYTES の新値 / PAGE_IMAGE のページ内容 / COMPENSATE の内容
+        public final Long redoLsn; // NQCKPT のみ
+        public final List<Integer> activeTxs; // NQCKPT のみ
+        public final Map<Integer, String> files; // FILE_ID / チェックポイント、INDEX_ENTRY（0: 索引, 1: データ）
+        private long prevLsn = -1; // Tx のレコードのみ（parse が設定する）
 
-        private Parsed(LogType t, int txId, String f, Integer b, Integer off, Integer ov) {
+        private Parsed(LogType t, int txId, Integer fileId, Integer b, Integer off, Integer ov, Integer nv,
+                Integer recOffset, byte[] oldBytes, byte[] newBytes) {
+            this(t, txId, fileId, b, off, ov, nv, recOffset, oldBytes, newBytes, null, null, null);
+        }
+
+        private Parsed(LogType t, int txId, Integer fileId, Integer b, Integer off, Integer ov, Integer nv,
+                Integer recOffset, byte[] oldBytes, byte[] newBytes,
+                Long redoLsn, List<Integer> active, Map<Integer, String> files) {
             this.type = t;
             this.txId = txId;
-            this.filename = f;
+            this.fileId = fileId;
             this.blk = b;
             this.offset = off;
             this.oldVal = ov;
+            this.newVal = nv;
+            this.recOffset = recOffset;
+            this.oldBytes = oldBytes;
+            this.newBytes = newBytes;
+            this.redoLsn = redoLsn;
+            this.activeTxs = active;
+            this.files = files;
+        }
+
+        /** 同じ Tx の1つ前のレコードの LSN（先頭のレコード、または記録の無い古い形式なら -1） */
+        public long prevLsn() {
+            return prevLsn;
         }
 
         public static Parsed simple(LogType t, int txId) {
-            return new Parsed(t, txId, null, null, null, null);
+            return new Parsed(t, txId, null, null, null, null, null, null, null, null);
+        }
+
+        public static Parsed setInt(int txId, int fileId, int b, int off, int ov, int nv) {
+            return new Parsed(LogType.SET_INT, txId, fileId, b, off, ov, nv, null, null, null);
+        }
+
+        static Parsed withFiles(LogType t, Long redoLsn, List<Integer> active, Map<Integer, String> files,
+                Integer txIdEnd) {
+            return new Parsed(t, -1, null, null, null, null, txIdEnd, null, null, null,
+                    redoLsn, active == null ? null : List.copyOf(active), files);
+        }
+
+        /** このレコードの変更を p に適用する（REDO）。適用しなかったら false */
+        boolean redo(Page p) {
+            byte[] a = p.contents();
+            switch (type) {
+                case SET_INT -> p.setInt(offset, newVal);
+                case SET_STRING, SET_BYTES, COMPENSATE -> System.arraycopy(newBytes, 0, a, offset, newBytes.length);
+                case INSERT_SLOT -> a[offset] = 1;
+                case DELETE_SLOT -> a[offset] = 0;
+                case PAGE_IMAGE -> {
+                    // ディスク上の版が同じか新しければ、イメージ以降の書き込みが載っているので触らない
+                    if (p.getInt(offset) >= ByteBuffer.wrap(newBytes).getInt(offset))
+                        return false;
+                    System.arraycopy(newBytes, 0, a, 0, Math.min(newBytes.length, a.length));
+                }
+                default -> throw new IllegalStateException("not a page operation: " + type);
+            }
+            return true;
+        }
+
+        /** このレコードの変更を p から取り消す（UNDO。PAGE_IMAGE/COMPENSATE は REDO 専用なので何もしない） */
+        void undo(Page p) {
+            byte[] a = p.contents();
+            switch (type) {
+                case SET_INT -> p.setInt(offset, oldVal);
+                case SET_STRING, SET_BYTES -> System.arraycopy(oldBytes, 0, a, offset, oldBytes.length);
+                case INSERT_SLOT -> a[offset] = 0;
+                case DELETE_SLOT -> {
+                    System.arraycopy(oldBytes, 0, a, recOffset, oldBytes.length);
+                    a[offset] = 1;
+                }
+                case PAGE_IMAGE, COMPENSATE -> {
+                }
+                default -> throw new IllegalStateException("not a page operation: " + type);
+            }
         }
 
-        public static Parsed setInt(int txId, String f, int b, int off, int ov) {
-            return new Parsed(LogType.SET_INT, txId, f, b, off, ov);
+        /** undo が書き換える範囲 {offset, len} の並び（CLR に戻した後の内容を残すため） */
+        int[][] undoRanges() {
+            return switch (type) {
+                case SET_INT -> new int[][] { { offset, Integer.BYTES } };
+                case SET_STRING, SET_BYTES -> new int[][] { { offset, oldBytes.length } };
+                case INSERT_SLOT -> new int[][] { { offset, 1 } };
+                case DELETE_SLOT -> new int[][] { { recOffset, oldBytes.length }, { offset, 1 } };
+                default -> new int[0][];
+            };
         }
     }
 }
@@ -0,0 +1,59 @@
+package app.tx;
+
+import app.memory.LogManager;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * LogManager ごとのファイル ID 辞書。初めて使うファイルに ID を振り、FILE_ID レコードで宣言する。
+ * チェックポイントは辞書全体を持つので、FILE_ID が切り捨てられても ID は引ける。
+ * ID の割り当てと宣言は log のモニタ内で行う（チェックポイントの辞書と食い違わないように）。
+ */
+final class LogFileIds {
+    private static final Map<LogManager, LogFileIds> BY_LOG = new WeakHashMap<>();
+
+    private final LogManager log;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final Map<Integer, String> names = new LinkedHashMap<>();
+
+    private LogFileIds(LogManager log) {
+        this.log = log;
+    }
+
+    static synchronized LogFileIds of(LogManager log) {
+        return BY_LOG.computeIfAbsent(log, LogFileIds::new);
+    }
+
+    /** filename の ID（未宣言なら採番して FILE_ID を追記する） */
+    int idOf(String filename) {
+        synchronized (log) {
+            Integer id = ids.get(filename);
+            if (id == null) {
+                id = names.size() + 1;
+                log.append(LogCodec.fileId(id, filename));
+                ids.put(filename, id);
+                names.put(id, filename);
+            }
+            return id;
+        }
+    }
+
+    String name(int id) {
+        synchronized (log) {
+            String f = names.get(id);
+            if (f == null)
+                throw new IllegalStateException("unknown log file id: " + id);
+            return f;
+        }
+    }
+
+    /** 現在の辞書のコピー（チェックポイントに載せる） */
+    Map<Integer, String> snapshot() {
+        synchronized (log) {
+            return new LinkedHashMap<>(names);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package app.tx;
 
+import app.memory.LogManager;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
@@ -8,21 +10,28 @@ import java.nio.file.*;
 import java.util.ArrayList;
 import java.util.List;
 
-/** ログファイルを先頭から全件読み出して byte[] のリストにして返す簡易リーダ */
+/**
+ * ログを先頭から全件読み出して byte[] のリストにして返す簡易リーダ。
+ * レコード形式は [len:int][body][len:int]（LogManager 参照）。残っているセグメントを開始 LSN 順に読む。
+ */
 public final class LogReader {
-    private final Path logPath;
+    private final Path dir;
 
     public LogReader(Path dir) {
-        this.logPath = dir.resolve("simpledb.log");
+        this.dir = dir;
     }
 
     public List<byte[]> readAll() {
         var list = new ArrayList<byte[]>();
-        if (!Files.exists(logPath))
-            return list;
-        try (FileChannel fc = FileChannel.open(logPath, StandardOpenOption.READ)) {
+        for (Path seg : LogManager.listSegments(dir).values())
+            readSegment(seg, list);
+        return list;
+    }
+
+    private static void readSegment(Path seg, List<byte[]> list) {
+        try (FileChannel fc = FileChannel.open(seg, StandardOpenOption.READ)) {
             long size = fc.size();
-            long pos = 0;
+            long pos = LogManager.SEGMENT_HEADER_SIZE;
             while (pos < size) {
                 // 先頭の長さ（int）を読む
                 var lenBuf = ByteBuffer.allocate(Integer.BYTES);
@@ -36,9 +45,8 @@ public final class LogReader {
                 if (fc.read(recBuf) != len)
                     break;
                 list.add(recBuf.array());
-                pos += Integer.BYTES + len;
+                pos += 2L * Integer.BYTES + len; // 末尾の長さも読み飛ばす
             }
-            return list;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -1,7 +1,29 @@
 package app.tx;
 
 public enum LogType {
-    START(1), COMMIT(2), ROLLBACK(3), SET_INT(4);
+    START(1), COMMIT(2), ROLLBACK(3), SET_INT(4),
+    /** 静止チェックポイント（実行中の Tx が無い時点。これより前はリカバリ不要） */
+    CHECKPOINT(5),
+    /** 非静止（ファジー）チェックポイント。その時点で実行中だった Tx の一覧を持つ */
+    NQCKPT(6),
+    /** 文字列フィールドの書き換え（旧/新のバイト列） */
+    SET_STRING(7),
+    /** スロットを使用中にする（レコード挿入） */
+    INSERT_SLOT(8),
+    /** スロットを空きにする（レコード削除。UNDO 用にレコード内容を持つ） */
+    DELETE_SLOT(9),
+    /** ページ全体の内容（B+木の分割など。REDO 専用） */
+    PAGE_IMAGE(10),
+    /** ファイル ID とファイル名の対応（以降のレコードは ID でファイルを指す） */
+    FILE_ID(11),
+    /** Tx ID をここまで予約した（再起動後はこの値から振る） */
+    TXID_RESERVE(12),
+    /** ページ内のバイト範囲の書き換え（スロット付きページの更新。旧/新のバイト列） */
+    SET_BYTES(13),
+    /** ロールバックで戻した範囲の内容（CLR。REDO 専用で、それ自体は UNDO しない） */
+    COMPENSATE(14),
+    /** 索引エントリの追加/削除（ページ操作ではなく、UNDO で逆の操作をする論理レコード） */
+    INDEX_ENTRY(15);
 
     public final int code;
 
@@ -15,4 +37,17 @@ public enum LogType {
                 return t;
         throw new IllegalArgumentException("unknown log type: " + c);
     }
+
+    /** ページ内容を変更するレコードか（UNDO/REDO の対象） */
+    public boolean isPageOp() {
+        return this == SET_INT || this == SET_STRING || this == INSERT_SLOT
+                || this == DELETE_SLOT || this == PAGE_IMAGE || this == SET_BYTES || this == COMPENSATE;
+    }
+
+    /** Tx が書くレコードか（末尾に同じ Tx の1つ前のレコードの LSN を持つ） */
+    public boolean hasPrevLsn() {
+        return this == START || this == COMMIT || this == ROLLBACK || this == SET_INT || this == SET_STRING
+                || this == INSERT_SLOT || this == DELETE_SLOT || this == SET_BYTES || this == COMPENSATE
+                || this == INDEX_ENTRY;
+    }
 }
@@ -0,0 +1,234 @@
+package app.tx;
+
+import app.memory.Buffer;
+import app.memory.BufferMgr;
+import app.memory.LogIterator;
+import app.memory.LogManager;
+import app.storage.BlockId;
+import app.storage.FileMgr;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 起動時のリカバリとチェックポイント。
+ * - recover(): ログを末尾から直近のチェックポイントまで辿り、
+ * コミット済み/ロールバック済み Tx（と PAGE_IMAGE）の REDO → 未完了 Tx の UNDO の順に適用する。
+ * ロールバックは戻した内容を CLR（COMPENSATE）に残すので、ロールバック済み Tx も変更と CLR を順に REDO すれば戻った状態になる
+ * （CLR を持たない古いログのロールバック済み Tx だけは UNDO する）
+ * - checkpoint(): 静止チェックポイント（実行中の Tx が無いときだけ）
+ * - fuzzyCheckpoint(): 実行中の Tx 一覧を記録する非静止チェックポイント
+ * どちらもバッファを書き出してから記録するので、チェックポイント（非静止なら redoLsn）以前のコミット済み変更は REDO 不要。
+ * チェックポイント後は、不要になったログセグメントを切り捨てる（実行中の Tx の START より前、かつ REDO 開始点より前）。
+ * 書き込む Tx はブロックの X ロックを終了まで持つ（厳格 2PL）ので、同じブロックの未完了の変更は高々 1 Tx 分。
+ */
+public final class RecoveryMgr {
+    private final FileMgr fm;
+    private final BufferMgr bm;
+    private final LogManager log;
+
+    public RecoveryMgr(FileMgr fm, BufferMgr bm, LogManager log) {
+        this.fm = fm;
+        this.bm = bm;
+        this.log = log;
+    }
+
+    /** recover() の結果（件数は確認/テスト用） */
+    public static final class Result {
+        public final int scanned;
+        public final int redone;
+        public final int undone;
+
+        Result(int scanned, int redone, int undone) {
+            this.scanned = scanned;
+            this.redone = redone;
+            this.undone = undone;
+        }
+    }
+
+    /** 起動直後（Tx を始める前）に呼ぶ。最後に静止チェックポイントを書く */
+    public Result recover() {
+        bm.attachLog(log); // UNDO の CLR を書いたページは、このログを先に flush してから書き出す
+        // 1) 解析: 末尾から読み、チェックポイントで止まる（新しい順に溜める）
+        List<LogCodec.Parsed> recs = new ArrayList<>();
+        List<Long> lsns = new ArrayList<>();
+        Set<Integer> committed = new HashSet<>();
+        Set<Integer> rolledBack = new HashSet<>();
+        Set<Integer> compensated = new HashSet<>(); // CLR を書いた Tx
+        Set<Integer> started = new HashSet<>();
+        Set<Integer> waitingStart = null; // NQCKPT の実行中 Tx のうち START を待つもの
+        long redoFrom = -1; // この LSN 以降だけ REDO する
+        Map<Integer, String> files = new HashMap<>(); // 走査範囲より前に宣言されたファイル ID
+
+        try (LogIterator it = log.backwardIterator()) {
+            while (it.hasNext()) {
+                LogCodec.Parsed r = LogCodec.parse(it.next());
+                long lsn = it.lsn();
+                if (r.type == LogType.CHECKPOINT) {
+                    redoFrom = Math.max(redoFrom, lsn);
+                    files.putAll(r.files);
+                    break;
+                }
+                // NQCKPT 以降は、実行中だった Tx の START が揃い、かつ REDO 開始点まで戻ったら終わり
+                if (waitingStart != null && waitingStart.isEmpty() && lsn < redoFrom)
+                    break;
+                if (r.type == LogType.NQCKPT) {
+                    if (waitingStart == null) {
+                        redoFrom = r.redoLsn;
+                        waitingStart = new HashSet<>(r.activeTxs);
+                        waitingStart.removeAll(started);
+                        files.putAll(r.files); // 同じ ID を振り直すことは無いので、より前のレコードにも使える
+                    }
+                    continue;
+                }
+                recs.add(r);
+                lsns.add(lsn);
+                switch (r.type) {
+                    case COMMIT -> committed.add(r.txId);
+                    case ROLLBACK -> rolledBack.add(r.txId);
+                    case COMPENSATE -> compensated.add(r.txId);
+                    case START -> {
+                        started.add(r.txId);
+                        if (waitingStart != null)
+                            waitingStart.remove(r.txId);
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+
+        // ファイル ID を古い順に解決する（FILE_ID はそれ以降のレコードに効く）
+        String[] names = new String[recs.size()];
+        for (int i = recs.size() - 1; i >= 0; i--) {
+            LogCodec.Parsed r = recs.get(i);
+            if (r.type == LogType.FILE_ID)
+                files.putAll(r.files);
+            else if (r.type.isPageOp())
+                names[i] = files.get(r.fileId);
+        }
+
+        int undone = 0, redone = 0;
+        // 2) CLR の無い（古い形式の）ロールバック済み Tx の UNDO。redoFrom より前はチェックポイントで書き出し済み
+        for (int i = 0; i < recs.size(); i++) {
+            LogCodec.Parsed r = recs.get(i);
+            if (r.type.isPageOp() && rolledBack.contains(r.txId) && !compensated.contains(r.txId)
+                    && lsns.get(i) >= redoFrom) {
+                apply(r, lsns.get(i), names[i], false);
+                undone++;
+            }
+        }
+        // 3) 履歴の REDO（古い順）: コミット済み Tx、CLR 付きでロールバック済みの Tx、Tx に属さないページ内容
+        for (int i = recs.size() - 1; i >= 0; i--) {
+            LogCodec.Parsed r = recs.get(i);
+            boolean redo = r.type == LogType.PAGE_IMAGE || committed.contains(r.txId)
+                    || rolledBack.contains(r.txId) && compensated.contains(r.txId);
+            if (r.type.isPageOp() && redo && lsns.get(i) >= redoFrom && apply(r, lsns.get(i), names[i], true))
+                redone++;
+        }
+        // 4) 未完了 Tx の UNDO（新しい順）。通常のロールバックと同じく CLR を残す
+        Set<Integer> incomplete = new HashSet<>();
+        for (int i = 0; i < recs.size(); i++) {
+            LogCodec.Parsed r = recs.get(i);
+            if (r.txId < 0 || committed.contains(r.txId) || rolledBack.contains(r.txId))
+                continue;
+            incomplete.add(r.txId);
+            if (r.type.isPageOp() && r.type != LogType.COMPENSATE) {
+                undoWithClr(r, names[i]);
+                undone++;
+            } else if (r.type == LogType.INDEX_ENTRY) {
+                Tx.undoIndexEntry(fm, r);
+                undone++;
+            }
+        }
+        // 未完了 Tx は ROLLBACK を記録して閉じる（次回のリカバリで再び UNDO しない）
+        for (int t : incomplete) {
+            log.append(LogCodec.rollback(t));
+            Tx.deactivate(log, t);
+        }
+
+        writeCheckpoint();
+        return new Result(recs.size(), redone, undone);
+    }
+
+    /** 静止チェックポイント。実行中の Tx があれば IllegalStateException */
+    public void checkpoint() {
+        List<Integer> active = Tx.activeTxIds(log);
+        if (!active.isEmpty())
+            throw new IllegalStateException("Quiescent checkpoint needs no active transactions: " + active);
+        writeCheckpoint();
+    }
+
+    /** 非静止チェックポイント。実行中の Tx は止めずに一覧だけ記録する */
+    public void fuzzyCheckpoint() {
+        long redoLsn = log.endLsn(); // これより前の変更は以下の書き出しでデータファイルに載る
+        flushPages();
+        long lsn;
+        long oldestStart;
+        TxIds ids = TxIds.of(log); // log のモニタの外で取る（初回はログを辿るため）
+        // Tx の START 追記と登録は log のモニタ内で行われるので、一覧と START の位置が食い違わない
+        synchronized (log) {
+            lsn = log.append(LogCodec.nqCheckpoint(redoLsn, Tx.activeTxIds(log), LogFileIds.of(log).snapshot(),
+                    ids.reservedEnd())); // 切り捨てで予約レコードが消えても、ここから再開できる
+            oldestStart = Tx.oldestStartLsn(log);
+        }
+        log.flush(lsn);
+        log.truncateBefore(Math.min(redoLsn, oldestStart));
+    }
+
+    private void writeCheckpoint() {
+        flushPages();
+        long lsn;
+        TxIds ids = TxIds.of(log);
+        synchronized (log) {
+            lsn = log.append(LogCodec.checkpoint(LogFileIds.of(log).snapshot(), ids.reservedEnd()));
+        }
+        log.flush(lsn);
+        log.truncateBefore(lsn);
+    }
+
+    // チェックポイント以前の変更をデータファイルへ（WAL によりログが先に force される）
+    private void flushPages() {
+        bm.flushAll();
+        fm.syncAll();
+    }
+
+    private void undoWithClr(LogCodec.Parsed r, String filename) {
+        if (filename == null)
+            throw new IllegalStateException("log record refers to undeclared file id " + r.fileId);
+        Buffer buf = bm.pin(new BlockId(filename, r.blk));
+        buf.latch().writeLock().lock();
+        try {
+            long clr = Tx.undoWithClr(log, r, buf.contents(), -1); // 未完了 Tx の鎖は辿らないので繋がない
+            if (clr >= 0)
+                buf.setDirty(clr);
+        } finally {
+            buf.latch().writeLock().unlock();
+            bm.unpin(buf);
+        }
+        Tx.undoneFreeSpace(fm, bm, r, filename);
+    }
+
+    // lsn は r の LSN（書き出す前にそこまでログを force させる）
+    private boolean apply(LogCodec.Parsed r, long lsn, String filename, boolean redo) {
+        if (filename == null)
+            throw new IllegalStateException("log record refers to undeclared file id " + r.fileId);
+        Buffer buf = bm.pin(new BlockId(filename, r.blk));
+        buf.latch().writeLock().lock();
+        try {
+            if (redo && !r.redo(buf.contents()))
+                return false;
+            if (!redo)
+                r.undo(buf.contents());
+            buf.setDirty(lsn);
+            return true;
+        } finally {
+            buf.latch().writeLock().unlock();
+            bm.unpin(buf);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package app.tx;
+
+import app.memory.Buffer;
+import app.storage.Page;
+
+import java.util.Set;
+
+/**
+ * 読み取り専用のスナップショット。作成時点でコミット済みの Tx の変更だけが見える。
+ * - sees(txId): txId が作成時点より前に始まり、作成時点で実行中でなかった（= コミット済み）
+ * - 参照カウント付き。作成時 1、retain で +1、close で -1。0 になると VersionStore から外れ、
+ *   この Snapshot のために残していた旧版が vacuum で回収される
+ */
+public final class Snapshot implements AutoCloseable {
+    private final VersionStore store;
+    private final int xmax; // 作成時点で次に振られる Tx ID（これ以降の Tx は見えない）
+    private final Set<Integer> active; // 作成時点で実行中だった Tx
+    int refs = 1; // store のモニタで保護
+
+    Snapshot(VersionStore store, int xmax, Set<Integer> active) {
+        this.store = store;
+        this.xmax = xmax;
+        this.active = Set.copyOf(active);
+    }
+
+    /** txId の変更がこのスナップショットから見えるか */
+    public boolean sees(int txId) {
+        return txId < xmax && !active.contains(txId);
+    }
+
+    /** pin 済みバッファの内容を、このスナップショットから見える版に戻したコピーを返す */
+    public Page read(Buffer buf) {
+        return store.readVisible(buf, this);
+    }
+
+    /** 参照を 1 つ増やす（スキャンなど、別の持ち主が close するまで使う場合） */
+    public void retain() {
+        store.retain(this);
+    }
+
+    @Override
+    public void close() {
+        store.release(this);
+    }
+}
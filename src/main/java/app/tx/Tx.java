@@ -1,94 +1,396 @@
 package app.tx;
 
+import app.index.RID;
+import app.index.SearchKey;
+import app.index.btree.BTreeIndex;
 import app.memory.Buffer;
 import app.memory.BufferMgr;
+import app.memory.LogIterator;
 import app.memory.LogManager;
+import app.record.FreeSpaceMap;
 import app.storage.BlockId;
 import app.storage.FileMgr;
 import app.storage.Page;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public final class Tx implements AutoCloseable {
-    private static final AtomicInteger SEQ = new AtomicInteger(1);
+    // 実行中（commit/rollback 前）の Tx（チェックポイントとログ切り捨てが参照する）。
+    // ID はデータベース（ログ）ごとに振るので、ID ではなく Tx 自体を持つ
+    private static final Set<Tx> ACTIVE = ConcurrentHashMap.newKeySet();
+
+    /** コミットの永続化方式 */
+    public enum CommitMode {
+        /** COMMIT レコードを force してから返る（既定） */
+        SYNC,
+        /**
+         * COMMIT レコードをログバッファに入れた時点で返る。force は LogManager の裏スレッドが行う。
+         * 結果は force を待たずに他の Tx とスナップショットに見える（ロックも解放する）ので、
+         * force 前に落ちると、既に読まれたコミットが失われうる（失われるのは durabilityLag* の範囲）
+         */
+        ASYNC
+    }
 
     private final int txId;
     private final FileMgr fm;
     private final BufferMgr bm;
     private final LogManager log;
-    private final Path logDir;
+    private final LockTable locks;
+    private final VersionStore versions;
+    private final long startLsn; // START レコードの LSN
+    private long lastLsn = -1; // このTxが最後に書いたログの LSN
+    // BlockId 指定の読み書きで pin したバッファ（commit/rollback でまとめて unpin する）
+    private final Map<BlockId, Buffer> pins = new HashMap<>();
+    private CommitMode commitMode;
+
+    public Tx(FileMgr fm, BufferMgr bm, LogManager log) {
+        this(fm, bm, log, null, CommitMode.SYNC);
+    }
 
     public Tx(FileMgr fm, BufferMgr bm, LogManager log, Path logDir) {
-        this.txId = SEQ.getAndIncrement();
+        this(fm, bm, log, logDir, CommitMode.SYNC);
+    }
+
+    /**
+     * commitMode=ASYNC は直近のコミットをクラッシュで失ってよい取り込み処理向け。
+     * logDir は従来の呼び出し互換のため受け取る（ロールバックは log から直接辿る）。
+     */
+    public Tx(FileMgr fm, BufferMgr bm, LogManager log, Path logDir, CommitMode commitMode) {
         this.fm = fm;
         this.bm = bm;
         this.log = log;
-        this.logDir = logDir;
-        // START ログ
-        log.append(LogCodec.start(txId));
+        this.commitMode = Objects.requireNonNull(commitMode, "commitMode");
+        this.locks = LockTable.shared(log);
+        this.versions = VersionStore.shared(log);
+        TxIds ids = TxIds.of(log);
+        bm.attachLog(log); // ページ書き出し前に WAL を flush させる
+        // 採番、START ログの追記と登録を log のモニタ内でまとめて行う（チェックポイントとスナップショットから見て不可分にする）
+        synchronized (log) {
+            this.txId = ids.next();
+            this.startLsn = appendOwn(LogCodec.start(txId));
+            ACTIVE.add(this);
+        }
+    }
+
+    /** 実行中の Tx の ID 一覧（スナップショット） */
+    public static List<Integer> activeTxIds() {
+        List<Integer> ids = new ArrayList<>();
+        for (Tx tx : ACTIVE)
+            ids.add(tx.txId);
+        return ids;
+    }
+
+    /** log を使う実行中の Tx の ID 一覧 */
+    static List<Integer> activeTxIds(LogManager log) {
+        List<Integer> ids = new ArrayList<>();
+        for (Tx tx : ACTIVE)
+            if (tx.log == log)
+                ids.add(tx.txId);
+        return ids;
+    }
+
+    /** log を使う実行中の Tx のうち最も古い START の LSN（無ければ Long.MAX_VALUE） */
+    static long oldestStartLsn(LogManager log) {
+        long min = Long.MAX_VALUE;
+        for (Tx tx : ACTIVE)
+            if (tx.log == log)
+                min = Math.min(min, tx.startLsn);
+        return min;
+    }
+
+    /**
+     * リカバリで閉じた Tx を実行中一覧から外す（同一プロセス内で中断された Tx 用）。
+     * 中断前の LogManager は別インスタンスのことがあるので、同じログディレクトリの Tx を探す
+     */
+    static void deactivate(LogManager log, int txId) {
+        for (Tx tx : ACTIVE) {
+            if (tx.txId != txId || !tx.log.dir().equals(log.dir()))
+                continue;
+            tx.versions.aborted(txId); // ページはリカバリが戻している
+            ACTIVE.remove(tx);
+            tx.locks.releaseAll(txId);
+        }
     }
 
     public int id() {
         return txId;
     }
 
-    // setInt: WAL → flush(log) → ページ更新 → dirty → flush(page)
-    public void setInt(BlockId blk, int offset, int newVal) {
-        Buffer buf = bm.pin(blk);
-        try {
-            Page p = buf.contents();
-            int old = p.getInt(offset);
+    public CommitMode commitMode() {
+        return commitMode;
+    }
 
-            // 1) 旧値をログへ
-            log.append(LogCodec.setInt(txId, blk.filename(), blk.number(), offset, old));
-            log.flush(0); // ログを先に永続化（WAL）
+    /** commit 前ならいつでも切り替えられる */
+    public void setCommitMode(CommitMode mode) {
+        this.commitMode = Objects.requireNonNull(mode, "mode");
+    }
 
-            // 2) ページ更新
-            p.setInt(offset, newVal);
-            buf.setDirty();
+    /** blk の共有ロックを取る（commit/rollback まで保持する。読み出し側が呼ぶ） */
+    public void sLock(BlockId blk) {
+        locks.sLock(txId, blk);
+    }
 
-            // 3) データもフラッシュ（サンプルでは即時書き戻しでシンプルに）
-            buf.flushIfDirty();
+    /** blk の排他ロックを取る（commit/rollback まで保持する。更新メソッドは自分で取る） */
+    public void xLock(BlockId blk) {
+        locks.xLock(txId, blk);
+    }
+
+    /** この Tx が使うロック表（統計の参照用） */
+    public LockTable lockTable() {
+        return locks;
+    }
 
+    /** blk の int を共有ロックを取ってから読む */
+    public int getInt(BlockId blk, int offset) {
+        sLock(blk);
+        Buffer buf = pin(blk);
+        buf.latch().readLock().lock();
+        try {
+            return buf.contents().getInt(offset);
         } finally {
+            buf.latch().readLock().unlock();
+        }
+    }
+
+    // setInt: WAL（バッファへ追記）→ ページ更新 → dirty(lsn)。ページは追い出し/チェックポイントまでプールに残る
+    public void setInt(BlockId blk, int offset, int newVal) {
+        xLock(blk); // pin より先に取る（ロック待ちの間フレームを塞がない）
+        setInt(pin(blk), offset, newVal);
+    }
+
+    // 同じブロックは Tx の終わりまで pin したままにする（繰り返しの読み書きで pin/unpin しない）
+    private Buffer pin(BlockId blk) {
+        Buffer buf = pins.get(blk);
+        if (buf == null) {
+            buf = bm.pin(blk);
+            pins.put(blk, buf);
+        }
+        return buf;
+    }
+
+    private void unpinAll() {
+        for (Buffer buf : pins.values())
             bm.unpin(buf);
+        pins.clear();
+    }
+
+    /** pin 済みバッファ上の int を書き換える（TableScan などページを保持したまま更新する経路用） */
+    public void setInt(Buffer buf, int offset, int newVal) {
+        BlockId blk = buf.block();
+        update(buf, offset, Integer.BYTES,
+                p -> LogCodec.setInt(txId, fileId(blk), blk.number(), offset, p.getInt(offset), newVal),
+                p -> p.setInt(offset, newVal));
+    }
+
+    /** pin 済みバッファ上の文字列フィールド（[len][bytes]）を書き換える */
+    public void setString(Buffer buf, int offset, String newVal) {
+        BlockId blk = buf.block();
+        byte[] nb = newVal.getBytes(StandardCharsets.UTF_8);
+        byte[] newBytes = ByteBuffer.allocate(Integer.BYTES + nb.length).putInt(nb.length).put(nb).array();
+        update(buf, offset, newBytes.length, p -> LogCodec.setString(txId, fileId(blk), blk.number(), offset,
+                stringField(p, offset), newBytes),
+                p -> System.arraycopy(newBytes, 0, p.contents(), offset, newBytes.length));
+    }
+
+    /**
+     * pin 済みバッファ上の [offset, offset+newBytes.length) を書き換える
+     * （スロット付きページの挿入/削除/文字列更新など、ページ内の複数箇所に及ぶ変更をまとめて 1 レコードにする）
+     */
+    public void setBytes(Buffer buf, int offset, byte[] newBytes) {
+        BlockId blk = buf.block();
+        update(buf, offset, newBytes.length, p -> LogCodec.setBytes(txId, fileId(blk), blk.number(), offset,
+                Arrays.copyOfRange(p.contents(), offset, offset + newBytes.length), newBytes),
+                p -> System.arraycopy(newBytes, 0, p.contents(), offset, newBytes.length));
+    }
+
+    /**
+     * スロットの使用フラグ（1 バイト）を切り替える。
+     * 削除（used=false）では UNDO で戻せるよう [recOffset, recOffset+recLen) の内容も記録する。
+     */
+    public void setSlotUsed(Buffer buf, int flagOffset, int recOffset, int recLen, boolean used) {
+        BlockId blk = buf.block();
+        update(buf, flagOffset, 1, p -> used
+                ? LogCodec.insertSlot(txId, fileId(blk), blk.number(), flagOffset)
+                : LogCodec.deleteSlot(txId, fileId(blk), blk.number(), flagOffset, recOffset,
+                        Arrays.copyOfRange(p.contents(), recOffset, recOffset + recLen)),
+                p -> p.contents()[flagOffset] = (byte) (used ? 1 : 0));
+    }
+
+    /**
+     * Tx に属さないページ全体の内容を記録する（B+木の分割など、ロールバックしない構造変更の REDO 用）。
+     * versionOffset の int は記録のたびに増やしておくこと（リカバリはディスク上の版が古いときだけ戻す）。
+     * 呼び出し側はバッファに返り値の LSN を setDirty(lsn) すること。
+     */
+    public static long logPageImage(LogManager log, BlockId blk, byte[] image, int versionOffset) {
+        int fileId = LogFileIds.of(log).idOf(blk.filename());
+        return log.append(LogCodec.pageImage(fileId, blk.number(), versionOffset, image));
+    }
+
+    // WAL（バッファへ追記）→ ページ更新 → dirty(lsn)。データページは書き出さない（no-force）。
+    // 未コミットのページが追い出されて書かれてもよい（steal）。その前に lsn までのログが force され、リカバリが UNDO する。
+    // 追記からページ更新までを書き込みラッチ内で行う（チェックポイントの書き出しが途中の状態を見ないように）。
+    // [offset, offset+len) は change が書き換える範囲（スナップショット用に旧版を残す）
+    private void update(Buffer buf, int offset, int len, Function<Page, byte[]> record, Consumer<Page> change) {
+        xLock(buf.block()); // ラッチを取る前に（ラッチを持ったままロックを待たない）
+        buf.latch().writeLock().lock();
+        try {
+            Page p = buf.contents();
+            // 1) 旧値/新値をログへ（ログバッファへのコピーのみ）
+            long lsn = appendOwn(record.apply(p));
+            // 2) 旧版を残してからページ更新（書き出し前に lsn までのログ flush が保証される）
+            versions.record(txId, buf.block(), offset, Arrays.copyOfRange(p.contents(), offset, offset + len));
+            change.accept(p);
+            buf.setDirty(lsn);
+        } finally {
+            buf.latch().writeLock().unlock();
+        }
+    }
+
+    /**
+     * 索引エントリの追加/削除を記録する（索引を書き換える前に呼ぶ）。rollback とリカバリが逆の操作で戻す。
+     * 索引ページは write-through なので、行のページと違い REDO はしない
+     */
+    public void logIndexEntry(boolean inserted, String indexFile, String dataFile, int key, int blk, int slot) {
+        appendOwn(LogCodec.indexEntry(txId, inserted, indexFile, dataFile, key, blk, slot));
+    }
+
+    /** INDEX_ENTRY を逆の操作で戻す（何度戻しても同じ結果になる。索引が削除済みなら何もしない） */
+    static void undoIndexEntry(FileMgr fm, LogCodec.Parsed r) {
+        String indexFile = r.files.get(0);
+        String dataFile = r.files.get(1);
+        if (fm.length(indexFile) == 0)
+            return;
+        SearchKey key = SearchKey.ofInt(r.oldVal);
+        RID rid = new RID(new BlockId(dataFile, r.blk), r.offset);
+        try (BTreeIndex ix = new BTreeIndex(fm, indexFile, dataFile)) {
+            if (r.newVal == 1)
+                ix.delete(key, rid);
+            else if (!ix.contains(key, rid))
+                ix.insert(key, rid);
+        } catch (Exception e) {
+            throw new RuntimeException("failed to undo index entry in " + indexFile, e);
         }
     }
 
-    /** commit: ここでは dirty を明示 flush → COMMIT ログ */
+    /**
+     * r の変更を p から取り消し、戻した範囲ごとに戻した後の内容を CLR として追記する（書き込みラッチ保持下で呼ぶ）。
+     * CLR は prevLsn から続けて繋ぐ。最後の CLR の LSN を返す（戻すものが無ければ -1）。
+     * 呼び出し側がバッファに setDirty(返り値) すること
+     */
+    static long undoWithClr(LogManager log, LogCodec.Parsed r, Page p, long prevLsn) {
+        r.undo(p);
+        long lsn = -1;
+        for (int[] range : r.undoRanges()) {
+            lsn = log.append(LogCodec.withPrevLsn(LogCodec.compensate(r.txId, r.fileId, r.blk, range[0],
+                    Arrays.copyOfRange(p.contents(), range[0], range[0] + range[1])), prevLsn));
+            prevLsn = lsn;
+        }
+        return lsn;
+    }
+
+    /** 挿入を戻したブロックを空き領域マップで空きありに戻す（満杯の印がロールバック後も残らないように） */
+    static void undoneFreeSpace(FileMgr fm, BufferMgr bm, LogCodec.Parsed r, String filename) {
+        if (r.type == LogType.INSERT_SLOT)
+            FreeSpaceMap.markHasRoom(fm, bm, filename, r.blk);
+    }
+
+    // 自 Tx のレコードを追記する（末尾に自 Tx の1つ前のレコードの LSN を付ける）
+    private long appendOwn(byte[] rec) {
+        lastLsn = log.append(LogCodec.withPrevLsn(rec, lastLsn));
+        return lastLsn;
+    }
+
+    private int fileId(BlockId blk) {
+        return LogFileIds.of(log).idOf(blk.filename());
+    }
+
+    // offset にある [len][bytes] をそのまま切り出す（未書き込みなら len=0）
+    private static byte[] stringField(Page p, int offset) {
+        byte[] a = p.contents();
+        int len = p.getInt(offset);
+        len = Math.max(0, Math.min(len, a.length - offset - Integer.BYTES));
+        return Arrays.copyOfRange(a, offset, offset + Integer.BYTES + len);
+    }
+
+    /**
+     * commit: COMMIT ログを追記して force する（no-force: データページは書き出さない）。
+     * 変更したページはプールに dirty のまま残り、追い出し/チェックポイントで書かれる。
+     * それまでにクラッシュしてもリカバリがログから REDO する。
+     * SYNC では force が終わってから実行中一覧から外す（スナップショットに見えるのは永続化の後）。
+     */
     public void commit() {
-        // 実運用のWALでは「ログ先flush→データflush」の順。
-        // このサンプルでは setInt 時点でログflush済みなので、ここではページ側の書き戻しを促す形に。
-        // シンプルのため Buffer が持つ flushIfDirty を使うなら、置換時/終了時に呼ばれる想定。
-        log.append(LogCodec.commit(txId));
-        log.flush(0);
+        if (commitMode == CommitMode.ASYNC) {
+            // ログバッファへ入れるだけ。force は裏スレッド（または次の同期コミット/ページ書き出し）に任せる。
+            // 見えるようになるのは force より前（CommitMode.ASYNC 参照）
+            appendOwn(LogCodec.commit(txId));
+            ACTIVE.remove(this);
+            versions.committed(txId);
+            unpinAll();
+            locks.releaseAll(txId);
+            log.startFlusher();
+            return;
+        }
+        appendOwn(LogCodec.commit(txId));
+        log.flush(lastLsn); // 同時にコミットする Tx とは1回の force にまとめられる（グループコミット）
+        ACTIVE.remove(this);
+        versions.committed(txId);
+        unpinAll();
+        locks.releaseAll(txId); // 厳格 2PL: COMMIT が永続化されてから解放する
     }
 
-    /** rollback: 自Txのログを後ろ向きに辿り、SET_INT を元に戻す */
+    /**
+     * rollback: 自Txの最後のレコード（lastLsn）から各レコードの prevLsn を辿り、ページ変更を元に戻す（自身の START で止まる）。
+     * 間にある他 Tx のレコードは読まない。戻すたびに CLR を書くので、リカバリは履歴どおり REDO すればよい
+     * （戻す前の値がチェックポイントで書き出されていても、後の CLR が戻した値を再現する）
+     */
     public void rollback() {
-        List<byte[]> all = new LogReader(logDir).readAll();
-        for (int i = all.size() - 1; i >= 0; i--) {
-            var parsed = LogCodec.parse(all.get(i));
-            if (parsed.txId != txId)
-                continue;
-            if (parsed.type == LogType.SET_INT) {
-                BlockId b = new BlockId(parsed.filename, parsed.blk);
-                Buffer buf = bm.pin(b);
-                try {
-                    buf.contents().setInt(parsed.offset, parsed.oldVal);
-                    buf.setDirty();
-                    buf.flushIfDirty();
-                } finally {
-                    bm.unpin(buf);
+        LogFileIds files = LogFileIds.of(log);
+        try (LogIterator it = log.backwardIterator(lastLsn)) {
+            while (it.hasNext()) {
+                var parsed = LogCodec.parse(it.next());
+                if (parsed.txId != txId)
+                    continue; // prevLsn の無い古い形式のときだけ通る
+                if (parsed.type.isPageOp()) {
+                    // 戻したページも書き出さない（ROLLBACK 前に落ちてもリカバリが未完了 Tx として UNDO する）
+                    Buffer buf = pin(new BlockId(files.name(parsed.fileId), parsed.blk));
+                    buf.latch().writeLock().lock();
+                    try {
+                        long clr = undoWithClr(log, parsed, buf.contents(), lastLsn);
+                        if (clr >= 0) {
+                            buf.setDirty(clr);
+                            lastLsn = clr;
+                        }
+                    } finally {
+                        buf.latch().writeLock().unlock();
+                    }
+                    undoneFreeSpace(fm, bm, parsed, buf.block().filename());
+                } else if (parsed.type == LogType.INDEX_ENTRY) {
+                    undoIndexEntry(fm, parsed);
+                } else if (parsed.type == LogType.START) {
+                    break; // ここまででこのTxのUNDO完了
                 }
-            } else if (parsed.type == LogType.START) {
-                break; // ここまででこのTxのUNDO完了
+                if (parsed.prevLsn() >= 0)
+                    it.seek(parsed.prevLsn());
             }
         }
-        log.append(LogCodec.rollback(txId));
-        log.flush(0);
+        versions.aborted(txId); // ページは戻したので旧版は不要（実行中のうちに捨てる。見えない Snapshot は何も戻さない）
+        appendOwn(LogCodec.rollback(txId));
+        ACTIVE.remove(this);
+        log.flush(lastLsn);
+        unpinAll();
+        locks.releaseAll(txId);
     }
 
     @Override
@@ -0,0 +1,77 @@
+package app.tx;
+
+import app.memory.LogIterator;
+import app.memory.LogManager;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * LogManager ごとの Tx ID 採番。再起動をまたいで ID が重ならないよう、RESERVE_BLOCK 個ずつ
+ * TXID_RESERVE レコードで予約してからメモリ上で振る（予約以外はログに触れない）。
+ * - 予約レコードは force しない。その ID を使う START は必ず予約より後ろにあるので、
+ *   START が永続化されていれば予約も永続化されている
+ * - 初回利用時にログを後ろから辿り、最新の予約（無ければ見つかった最大の txId + 1）から再開する
+ * - チェックポイントにも予約の末尾を載せる（古いセグメントの切り捨てで予約レコードが消えても引けるように）
+ * 採番は log のモニタ内で行う（START の追記・スナップショットの取得と不可分にする）。
+ */
+final class TxIds {
+    /** 1 回の予約で確保する ID の数 */
+    static final int RESERVE_BLOCK = 1024;
+
+    private static final Map<LogManager, TxIds> BY_LOG = new WeakHashMap<>();
+
+    private final LogManager log;
+    private int next; // 次に振る ID
+    private int reservedEnd; // これ未満は予約済み
+
+    private TxIds(LogManager log) {
+        this.log = log;
+        this.next = recoverNext(log);
+        this.reservedEnd = next; // 最初の採番で新しく予約する
+    }
+
+    static synchronized TxIds of(LogManager log) {
+        return BY_LOG.computeIfAbsent(log, TxIds::new);
+    }
+
+    /** 新しい ID を振る（予約を使い切っていれば次のブロックを予約する） */
+    int next() {
+        synchronized (log) {
+            if (next >= reservedEnd) {
+                reservedEnd = next + RESERVE_BLOCK;
+                log.append(LogCodec.txIdReserve(reservedEnd));
+            }
+            return next++;
+        }
+    }
+
+    /** 次に振られる ID（これ以上の ID はまだ始まっていない） */
+    int peek() {
+        synchronized (log) {
+            return next;
+        }
+    }
+
+    /** 再起動後に振り始めてよい ID（チェックポイントに載せる） */
+    int reservedEnd() {
+        synchronized (log) {
+            return Math.max(reservedEnd, next);
+        }
+    }
+
+    // 最新の予約（予約レコードかチェックポイント）より後ろのレコードはすべて予約内の ID なので、そこで止めてよい
+    private static int recoverNext(LogManager log) {
+        int max = 0;
+        try (LogIterator it = log.backwardIterator()) {
+            while (it.hasNext()) {
+                LogCodec.Parsed r = LogCodec.parse(it.next());
+                if (r.type == LogType.TXID_RESERVE
+                        || ((r.type == LogType.CHECKPOINT || r.type == LogType.NQCKPT) && r.newVal != null))
+                    return Math.max(r.newVal, max + 1);
+                max = Math.max(max, r.txId);
+            }
+        }
+        return max + 1;
+    }
+}
@@ -0,0 +1,203 @@
+package app.tx;
+
+import app.memory.Buffer;
+import app.memory.LogManager;
+import app.storage.BlockId;
+import app.storage.Page;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MVCC 用の旧版ストア（UNDO 方式。メモリ上のみで、クラッシュ後には残らない）。
+ * - Tx の更新はページを書き換える前に、変える範囲の旧バイト列を txId 付きでブロックごとの版チェーンへ積む
+ * - スナップショット読み出しはページをコピーし、見えない Tx の旧版を新しい順に書き戻す。
+ *   同じブロックは X ロックで直列に更新されるので、見えない版より後に見える版が積まれることはない
+ * - 旧版はその Tx が rollback したら即座に、コミットしたら生きているすべての Snapshot から見えるようになった時点で不要。
+ *   コミット時に回収できなければ保留し、Snapshot の close（vacuum）で回収する
+ * スナップショット読み出しはロックを取らない（ページのラッチだけ）。
+ */
+public final class VersionStore {
+    private static final Map<LogManager, VersionStore> SHARED = new WeakHashMap<>();
+
+    private final LogManager log;
+    // ブロック -> 古い順の旧版
+    private final Map<BlockId, List<Version>> chains = new HashMap<>();
+    // Tx -> 旧版を積んだブロック
+    private final Map<Integer, Set<BlockId>> touched = new HashMap<>();
+    // コミット済みだが、まだ見えない Snapshot があるため旧版を残している Tx
+    private final Set<Integer> committedPending = new LinkedHashSet<>();
+    private final Set<Snapshot> live = new HashSet<>();
+    private int versionCount = 0;
+
+    // 統計
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder reclaimed = new LongAdder();
+    private final LongAdder reconstructed = new LongAdder();
+
+    private record Version(int txId, int offset, byte[] before) {
+    }
+
+    private VersionStore(LogManager log) {
+        this.log = log;
+    }
+
+    /** log（= 1 つのデータベース）を共有する Tx と Snapshot が使う旧版ストア */
+    public static VersionStore shared(LogManager log) {
+        synchronized (SHARED) {
+            return SHARED.computeIfAbsent(log, VersionStore::new);
+        }
+    }
+
+    /** 現在コミット済みの状態を読むスナップショットを作る（使い終わったら close） */
+    public Snapshot snapshot() {
+        TxIds ids = TxIds.of(log); // log のモニタの外で取る（初回はログを辿るため）
+        // Tx の採番/開始と同じ log のモニタ内で取る（実行中一覧と採番の境目を食い違わせない）
+        synchronized (log) {
+            synchronized (this) {
+                Snapshot s = new Snapshot(this, ids.peek(), new HashSet<>(Tx.activeTxIds(log)));
+                live.add(s);
+                return s;
+            }
+        }
+    }
+
+    /** txId が blk の [offset, offset+before.length) を書き換える前の内容を積む（ページの書き込みラッチ内で呼ぶ） */
+    synchronized void record(int txId, BlockId blk, int offset, byte[] before) {
+        chains.computeIfAbsent(blk, b -> new ArrayList<>()).add(new Version(txId, offset, before));
+        touched.computeIfAbsent(txId, t -> new HashSet<>()).add(blk);
+        versionCount++;
+        recorded.increment();
+    }
+
+    /** txId がコミットした（どの Snapshot からも見えるなら旧版をすぐ捨てる） */
+    synchronized void committed(int txId) {
+        if (!touched.containsKey(txId))
+            return;
+        if (seenByAll(txId))
+            drop(txId);
+        else
+            committedPending.add(txId);
+    }
+
+    /** txId が rollback を終えた（ページは戻っているので旧版は不要） */
+    synchronized void aborted(int txId) {
+        committedPending.remove(txId);
+        drop(txId);
+    }
+
+    /** もう誰にも必要ない旧版を捨てる。戻り値は回収した旧版の数 */
+    public synchronized int vacuum() {
+        int n = 0;
+        for (Iterator<Integer> it = committedPending.iterator(); it.hasNext();) {
+            int txId = it.next();
+            if (seenByAll(txId)) {
+                n += drop(txId);
+                it.remove();
+            }
+        }
+        return n;
+    }
+
+    /** pin 済みバッファの内容をコピーし、snap から見えない Tx の旧版を新しい順に書き戻す */
+    Page readVisible(Buffer buf, Snapshot snap) {
+        byte[] src = buf.contents().contents();
+        Page copy = new Page(src.length);
+        byte[] dst = copy.contents();
+        List<Version> undo = new ArrayList<>();
+        buf.latch().readLock().lock();
+        try {
+            System.arraycopy(src, 0, dst, 0, src.length);
+            synchronized (this) {
+                List<Version> chain = chains.get(buf.block());
+                if (chain != null)
+                    for (int i = chain.size() - 1; i >= 0; i--)
+                        if (!snap.sees(chain.get(i).txId()))
+                            undo.add(chain.get(i));
+            }
+        } finally {
+            buf.latch().readLock().unlock();
+        }
+        for (Version v : undo)
+            System.arraycopy(v.before(), 0, dst, v.offset(), v.before().length);
+        if (!undo.isEmpty())
+            reconstructed.increment();
+        return copy;
+    }
+
+    synchronized void retain(Snapshot s) {
+        if (s.refs <= 0)
+            throw new IllegalStateException("snapshot already closed");
+        s.refs++;
+    }
+
+    void release(Snapshot s) {
+        synchronized (this) {
+            if (s.refs <= 0 || --s.refs > 0)
+                return;
+            live.remove(s);
+        }
+        vacuum();
+    }
+
+    private boolean seenByAll(int txId) {
+        for (Snapshot s : live)
+            if (!s.sees(txId))
+                return false;
+        return true;
+    }
+
+    // txId の旧版をすべて捨てる
+    private int drop(int txId) {
+        Set<BlockId> blks = touched.remove(txId);
+        if (blks == null)
+            return 0;
+        int n = 0;
+        for (BlockId b : blks) {
+            List<Version> chain = chains.get(b);
+            if (chain == null)
+                continue;
+            int before = chain.size();
+            chain.removeIf(v -> v.txId() == txId);
+            n += before - chain.size();
+            if (chain.isEmpty())
+                chains.remove(b);
+        }
+        versionCount -= n;
+        reclaimed.add(n);
+        return n;
+    }
+
+    /** 保持している旧版の数 */
+    public synchronized int versionCount() {
+        return versionCount;
+    }
+
+    /** 生きている Snapshot の数 */
+    public synchronized int liveSnapshotCount() {
+        return live.size();
+    }
+
+    /** 積んだ旧版の延べ数 */
+    public long recordedCount() {
+        return recorded.sum();
+    }
+
+    /** 回収した旧版の延べ数 */
+    public long reclaimedCount() {
+        return reclaimed.sum();
+    }
+
+    /** 旧版を書き戻して読んだページ数 */
+    public long reconstructedReads() {
+        return reconstructed.sum();
+    }
+}
@@ -29,7 +29,7 @@ final class TestIO {
         @Override
         public void close() throws Exception {
             try {
-                // fm.close();
+                fm.close();
             } catch (Throwable ignore) {
             }
             // テスト終わりで消す（Windowsでロックが残る場合は手動削除に切り替え）
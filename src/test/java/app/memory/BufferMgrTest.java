@@ -0,0 +1,368 @@
+package app.memory;
+
+import app.storage.BlockId;
+import app.storage.FileMgr;
+import app.storage.Page;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferMgrTest {
+
+    private static final int BLOCK_SIZE = 256;
+    private static final String FILE = "buf.tbl";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void residentPagesAreHitsAndAllPinnedThrows() {
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE)) {
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, 2, ClockPolicy::new, 0);
+            Buffer a = bm.pin(blk(0));
+            Buffer b = bm.pin(blk(1));
+            assertSame(a, bm.pin(blk(0)));
+            assertEquals(1, bm.hitCount());
+            assertEquals(2, bm.missCount());
+            assertThrows(IllegalStateException.class, () -> bm.pin(blk(2)));
+
+            bm.unpin(a);
+            bm.unpin(a);
+            Buffer c = bm.pin(blk(2)); // a のフレームが追い出される
+            assertSame(a, c);
+            assertEquals(blk(2), c.block());
+            bm.unpin(b);
+            bm.unpin(c);
+            assertEquals(2, bm.available());
+        }
+    }
+
+    @Test
+    void lruEvictsLeastRecentlyUnpinned() {
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE)) {
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, 3, LruPolicy::new);
+            touch(bm, 0, 1, 2, 0); // 最も古いのは 1
+            touch(bm, 3);
+            assertResident(bm, 0, 2, 3);
+            assertNotResident(bm, 1);
+        }
+    }
+
+    @Test
+    void clockGivesReferencedPagesASecondChance() {
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE)) {
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, 3, ClockPolicy::new);
+            touch(bm, 0, 1, 2);
+            touch(bm, 3); // 全ビットを落として一周 → ブロック0を追い出す
+            touch(bm, 1); // 1 の参照ビットを立てる
+            touch(bm, 4); // 1 は見逃され 2 が追い出される
+            assertResident(bm, 1, 3, 4);
+            assertNotResident(bm, 2);
+        }
+    }
+
+    @Test
+    void lruKKeepsHotPagesDuringSequentialScan() {
+        assertHotPageSurvivesScan(n -> new LruKPolicy(n, 2), true);
+        assertHotPageSurvivesScan(LruPolicy::new, false);
+    }
+
+    @Test
+    void discardedFramesAreReused() {
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE)) {
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, 2, LruPolicy::new);
+            touch(bm, 0, 1);
+            fm.deleteFileIfExists(FILE);
+            assertNotResident(bm, 0);
+            assertNotResident(bm, 1);
+            long misses = bm.missCount();
+            touch(bm, 5, 6);
+            assertEquals(misses + 2, bm.missCount());
+            assertResident(bm, 5, 6);
+        }
+    }
+
+    @Test
+    void failedWriteBackKeepsTheEvictedPageResident() {
+        AtomicBoolean failWrites = new AtomicBoolean();
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE) {
+            @Override
+            public synchronized void write(BlockId blk, Page p) {
+                if (failWrites.get())
+                    throw new UncheckedIOException(new IOException("disk full"));
+                super.write(blk, p);
+            }
+        }) {
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, 2, ClockPolicy::new, 0);
+            Buffer a = bm.pin(blk(0));
+            a.contents().setInt(0, 42);
+            a.setDirty();
+            bm.unpin(a);
+            touch(bm, 2);
+
+            failWrites.set(true);
+            assertThrows(UncheckedIOException.class, () -> bm.pin(blk(1))); // blk(0) のフレームが選ばれる
+            failWrites.set(false);
+
+            // 対応付けが残っていれば当たる（外れると針の先の別フレームに古い内容を読み直す）
+            long hits = bm.hitCount();
+            assertSame(a, bm.pin(blk(0)));
+            assertEquals(hits + 1, bm.hitCount());
+            assertEquals(42, a.contents().getInt(0));
+            assertTrue(a.isDirty());
+            bm.unpin(a);
+        }
+    }
+
+    @Test
+    void pinnedPagesAreNotDiscardedAndBlockFileDeletion() {
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE)) {
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, 2, LruPolicy::new);
+            fm.append(FILE);
+            fm.append(FILE);
+            touch(bm, 1);
+            Buffer pinned = bm.pin(blk(0));
+            pinned.contents().setInt(0, 42);
+
+            assertThrows(IllegalStateException.class, () -> bm.discard(FILE));
+            assertThrows(IllegalStateException.class, () -> fm.deleteFileIfExists(FILE));
+            assertEquals(2, fm.length(FILE)); // 削除されていない
+            assertEquals(blk(0), pinned.block());
+            assertEquals(42, pinned.contents().getInt(0));
+            assertResident(bm, 1); // 拒否したときは他のページも捨てない
+
+            bm.unpin(pinned);
+            assertTrue(fm.deleteFileIfExists(FILE));
+            assertNotResident(bm, 0);
+        }
+    }
+
+    @Test
+    void sharedPoolDoesNotKeepAnUnclosedFileMgrAlive() throws Exception {
+        FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE);
+        touch(BufferMgr.shared(fm), 0);
+        WeakReference<FileMgr> ref = new WeakReference<>(fm);
+        fm = null;
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+    }
+
+    @Test
+    void ringRecyclesItsOwnFramesAndLeavesHotPagesResident() {
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE)) {
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, 8, LruPolicy::new);
+            touch(bm, 100, 101, 102, 103);
+            BufferRing ring = bm.newRing(2);
+            for (int i = 0; i < 50; i++)
+                bm.unpin(bm.pin(blk(i), ring));
+            assertResident(bm, 100, 101, 102, 103, 48, 49);
+            assertNotResident(bm, 47);
+        }
+    }
+
+    @Test
+    void pinWaitsForUnpinAndWakesWaitersInArrivalOrder() throws Exception {
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE)) {
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, 2, LruPolicy::new, 5_000);
+            Buffer a = bm.pin(blk(0));
+            Buffer b = bm.pin(blk(1));
+
+            CompletableFuture<Buffer> first = CompletableFuture.supplyAsync(() -> bm.pin(blk(2)));
+            awaitWaiting(bm, 1);
+            CompletableFuture<Buffer> second = CompletableFuture.supplyAsync(() -> bm.pin(blk(3)));
+            awaitWaiting(bm, 2);
+
+            bm.unpin(a); // 先に待ち始めた方だけが起きる
+            assertEquals(blk(2), first.get(5, TimeUnit.SECONDS).block());
+            assertFalse(second.isDone());
+            assertEquals(1, bm.waitingCount());
+
+            bm.unpin(b);
+            assertEquals(blk(3), second.get(5, TimeUnit.SECONDS).block());
+            assertEquals(2, bm.waitCount());
+            assertEquals(0, bm.waitTimeoutCount());
+            assertEquals(0, bm.waitingCount());
+        }
+    }
+
+    @Test
+    void pinTimesOutWhenNothingIsUnpinned() {
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE)) {
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, 1, ClockPolicy::new, 50);
+            bm.pin(blk(0));
+            assertThrows(IllegalStateException.class, () -> bm.pin(blk(1)));
+            assertEquals(1, bm.waitCount());
+            assertEquals(1, bm.waitTimeoutCount());
+            assertTrue(bm.waitMillis() >= 50);
+            // 常駐ページへの pin は待たない
+            assertEquals(blk(0), bm.pin(blk(0)).block());
+        }
+    }
+
+    @Test
+    void stripedPoolServesConcurrentPinsWithCorrectPages() throws Exception {
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE)) {
+            int blocks = 200;
+            for (int i = 0; i < blocks; i++) {
+                Page p = new Page(BLOCK_SIZE);
+                p.setInt(0, i);
+                fm.write(fm.append(FILE), p);
+            }
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, 64, ClockPolicy::new, 5_000, 4);
+            assertEquals(4, bm.stripeCount());
+
+            List<CompletableFuture<Void>> workers = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                workers.add(CompletableFuture.runAsync(() -> {
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    for (int i = 0; i < 2_000; i++) {
+                        int n = rnd.nextInt(blocks);
+                        Buffer b = bm.pin(blk(n));
+                        try {
+                            assertEquals(n, b.contents().getInt(0));
+                        } finally {
+                            bm.unpin(b);
+                        }
+                    }
+                }));
+            }
+            for (CompletableFuture<Void> w : workers)
+                w.get(30, TimeUnit.SECONDS);
+            assertEquals(bm.capacity(), bm.available());
+            assertEquals(16_000, bm.hitCount() + bm.missCount());
+        }
+    }
+
+    @Test
+    void defaultStripingKeepsSmallPoolsUnpartitioned() {
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE)) {
+            assertEquals(1, new BufferMgr(fm, BLOCK_SIZE, 8).stripeCount());
+            assertEquals(4, new BufferMgr(fm, BLOCK_SIZE, 256).stripeCount());
+            assertEquals(BufferMgr.MAX_STRIPES, new BufferMgr(fm, BLOCK_SIZE, 100_000).stripeCount());
+        }
+    }
+
+    @Test
+    void prefetchLoadsPagesWithoutPinningAndReadAheadFollowsSequentialAccess() throws Exception {
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE)) {
+            for (int i = 0; i < 20; i++)
+                fm.append(FILE);
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, 16, LruPolicy::new);
+
+            bm.prefetch(blk(5));
+            bm.prefetch(blk(99)); // ファイル外は読まない
+            awaitPrefetched(bm, 1);
+            assertEquals(16, bm.available());
+            assertResident(bm, 5);
+
+            ReadAhead ra = new ReadAhead(bm, FILE, null, 4);
+            touch(bm, 0);
+            ra.accessed(0, 20); // 先頭からの走査 → 1..4 を先読み
+            awaitPrefetched(bm, 1 + 4);
+            assertResident(bm, 1, 2, 3, 4);
+
+            ra.accessed(10, 20); // 飛び越し（逐次ではない）→ 先読みしない
+            ra.accessed(11, 20); // 再び逐次 → 12..15
+            awaitPrefetched(bm, 1 + 4 + 4);
+            assertResident(bm, 12, 15);
+            assertFalse(java.nio.file.Files.exists(tempDir.resolve("other.tbl")));
+            bm.prefetch(new BlockId("other.tbl", 0)); // 無いファイルは作らない
+            Thread.sleep(50);
+            assertFalse(java.nio.file.Files.exists(tempDir.resolve("other.tbl")));
+        }
+    }
+
+    @Test
+    void ringSharedWithReadAheadServesCorrectPages() throws Exception {
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE)) {
+            int blocks = 300;
+            Page p = new Page(BLOCK_SIZE);
+            for (int i = 0; i < blocks; i++) {
+                p.setInt(0, i);
+                fm.write(fm.append(FILE), p);
+            }
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, 256, LruPolicy::new);
+            for (int round = 0; round < 3; round++) {
+                BufferRing ring = bm.newRing(8);
+                ReadAhead ra = new ReadAhead(bm, FILE, ring, 4); // 先読みスレッドも同じリングへ読む
+                for (int i = 0; i < blocks; i++) {
+                    Buffer b = bm.pin(blk(i), ring);
+                    assertEquals(i, b.contents().getInt(0));
+                    ra.accessed(i, blocks);
+                    bm.unpin(b);
+                }
+            }
+            assertEquals(256, bm.available());
+        }
+    }
+
+    private static void awaitPrefetched(BufferMgr bm, long n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (bm.prefetchCount() < n) {
+            if (System.currentTimeMillis() > deadline)
+                fail("prefetch did not complete: " + bm.prefetchCount());
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitWaiting(BufferMgr bm, int n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (bm.waitingCount() < n) {
+            if (System.currentTimeMillis() > deadline)
+                fail("waiters did not arrive");
+            Thread.sleep(5);
+        }
+    }
+
+    private void assertHotPageSurvivesScan(IntFunction<ReplacementPolicy> policy, boolean expectResident) {
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE)) {
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, 4, policy);
+            touch(bm, 100, 100); // ホットページ（2回参照）
+            for (int i = 0; i < 10; i++)
+                touch(bm, i); // 一度きりの走査
+            long hits = bm.hitCount();
+            touch(bm, 100);
+            assertEquals(expectResident, bm.hitCount() == hits + 1);
+        }
+    }
+
+    private static void touch(BufferMgr bm, int... blocks) {
+        for (int n : blocks)
+            bm.unpin(bm.pin(blk(n)));
+    }
+
+    private static void assertResident(BufferMgr bm, int... blocks) {
+        for (int n : blocks) {
+            long hits = bm.hitCount();
+            touch(bm, n);
+            assertEquals(hits + 1, bm.hitCount(), "block " + n + " should be resident");
+        }
+    }
+
+    private static void assertNotResident(BufferMgr bm, int n) {
+        long misses = bm.missCount();
+        Buffer b = bm.pin(blk(n));
+        bm.unpin(b);
+        assertEquals(misses + 1, bm.missCount(), "block " + n + " should not be resident");
+    }
+
+    private static BlockId blk(int n) {
+        return new BlockId(FILE, n);
+    }
+}
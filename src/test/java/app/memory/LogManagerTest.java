@@ -0,0 +1,260 @@
+package app.memory;
+
+import app.tx.LogReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogManagerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void appendIsBufferedAndFlushSkipsDurableLsns() {
+        try (LogManager log = new LogManager(tempDir)) {
+            long a = log.append(new byte[] { 1, 2, 3 });
+            long b = log.append(new byte[] { 4 });
+            assertEquals(0, a);
+            assertEquals(2 * Integer.BYTES + 3, b); // LSN = ファイルオフセット（[len][body][len]）
+            assertEquals(b, log.lastLsn());
+            assertEquals(0, log.forceCount());
+            assertTrue(new LogReader(tempDir).readAll().isEmpty()); // まだバッファ内
+
+            log.flush(a);
+            assertEquals(1, log.forceCount());
+            assertTrue(log.durableEnd() > b);
+            log.flush(a); // 既に永続化済み → no-op
+            log.flush(b);
+            assertEquals(1, log.forceCount());
+
+            List<byte[]> recs = new LogReader(tempDir).readAll();
+            assertEquals(2, recs.size());
+            assertArrayEquals(new byte[] { 4 }, recs.get(1));
+        }
+    }
+
+    @Test
+    void bufferOverflowAndOversizedRecordsKeepOrderAcrossReopen() {
+        try (LogManager log = new LogManager(tempDir, 16)) {
+            for (int i = 0; i < 10; i++)
+                log.append(new byte[] { (byte) i, (byte) i });
+            log.append(new byte[40]); // バッファより大きい
+            log.append(new byte[] { 42 });
+        }
+        long next;
+        try (LogManager log = new LogManager(tempDir, 16)) {
+            next = log.append(new byte[] { 99 });
+        }
+        List<byte[]> recs = new LogReader(tempDir).readAll();
+        assertEquals(13, recs.size());
+        for (int i = 0; i < 10; i++)
+            assertArrayEquals(new byte[] { (byte) i, (byte) i }, recs.get(i));
+        assertEquals(40, recs.get(10).length);
+        assertArrayEquals(new byte[] { 42 }, recs.get(11));
+        assertArrayEquals(new byte[] { 99 }, recs.get(12));
+        assertEquals(10 * 10 + 48 + 9, next);
+    }
+
+    @Test
+    void backwardIteratorReturnsNewestFirstIncludingBufferedRecords() {
+        try (LogManager log = new LogManager(tempDir, 32)) {
+            long[] lsns = new long[5];
+            for (int i = 0; i < 5; i++)
+                lsns[i] = log.append(new byte[i + 1]);
+            long forces = log.forceCount();
+
+            LogIterator it = log.backwardIterator();
+            for (int i = 4; i >= 0; i--) {
+                assertTrue(it.hasNext());
+                assertEquals(i + 1, it.next().length);
+                assertEquals(lsns[i], it.lsn());
+            }
+            assertFalse(it.hasNext());
+            assertEquals(forces, log.forceCount()); // 書き出すだけで force はしない
+        }
+    }
+
+    @Test
+    void durabilityLagCoversBufferedRecordsUntilForced() throws Exception {
+        try (LogManager log = new LogManager(tempDir)) {
+            assertEquals(0, log.durabilityLagMillis());
+            long lsn = log.append(new byte[] { 7 });
+            Thread.sleep(20);
+            assertEquals(2 * Integer.BYTES + 1, log.durabilityLagBytes());
+            assertTrue(log.durabilityLagMillis() >= 20);
+            log.flush(lsn);
+            assertEquals(0, log.durabilityLagBytes());
+            assertEquals(0, log.durabilityLagMillis());
+        }
+    }
+
+    @Test
+    void backgroundFlushFailureIsThrownOnceByTheNextFlush() {
+        try (LogManager log = new LogManager(tempDir)) {
+            long lsn = log.append(new byte[] { 1 });
+            log.flusherFailed(new RuntimeException("disk gone"));
+            IllegalStateException e = assertThrows(IllegalStateException.class, () -> log.flush(lsn));
+            assertEquals("disk gone", e.getCause().getMessage());
+            log.flush(lsn); // 知らせるのは一度だけ
+            assertEquals(0, log.durabilityLagBytes());
+        }
+    }
+
+    @Test
+    void concurrentCommittersShareForces() throws Exception {
+        int committers = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(committers);
+        try (LogManager log = new LogManager(tempDir, LogManager.DEFAULT_BUFFER_SIZE, 20_000)) {
+            CountDownLatch start = new CountDownLatch(1);
+            List<CompletableFuture<Long>> fs = new ArrayList<>();
+            for (int i = 0; i < committers; i++) {
+                byte id = (byte) i;
+                fs.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    long lsn = log.append(new byte[] { id });
+                    log.flush(lsn);
+                    return lsn;
+                }, pool));
+            }
+            start.countDown();
+            for (CompletableFuture<Long> f : fs)
+                assertTrue(f.get(10, TimeUnit.SECONDS) < log.durableEnd());
+
+            assertTrue(log.forceCount() < committers, "forces=" + log.forceCount());
+            // force 完了後に flush した分はどちらにも数えない
+            assertTrue(log.forceCount() + log.groupedFlushCount() <= committers);
+            assertTrue(log.groupedFlushCount() > 0);
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(committers, new LogReader(tempDir).readAll().size());
+    }
+
+    @Test
+    void recordsRollIntoSegmentsAndIteratorCrossesThem() {
+        long segSize = LogManager.SEGMENT_HEADER_SIZE + 64; // 20 バイトのレコードが 3 件入る
+        long[] lsns = new long[10];
+        try (LogManager log = new LogManager(tempDir, 32, 0, segSize, null)) {
+            for (int i = 0; i < 10; i++)
+                lsns[i] = log.append(new byte[] { (byte) i, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 });
+            assertEquals(4, log.segmentCount());
+            assertEquals(9 * 20, lsns[9]); // LSN はセグメントをまたいでも連続
+
+            try (LogIterator it = log.backwardIterator()) {
+                for (int i = 9; i >= 0; i--) {
+                    assertTrue(it.hasNext());
+                    assertEquals(i, it.next()[0]);
+                    assertEquals(lsns[i], it.lsn());
+                }
+                assertFalse(it.hasNext());
+            }
+        }
+        // 再オープンしても末尾セグメントから続ける
+        try (LogManager log = new LogManager(tempDir, 32, 0, segSize, null)) {
+            assertEquals(10 * 20, log.append(new byte[12]));
+            assertEquals(4, log.segmentCount());
+        }
+        assertEquals(11, new LogReader(tempDir).readAll().size());
+    }
+
+    @Test
+    void backwardIteratorFromLsnStartsAtThatRecordAcrossSegments() {
+        long segSize = LogManager.SEGMENT_HEADER_SIZE + 64;
+        try (LogManager log = new LogManager(tempDir, 32, 0, segSize, null)) {
+            long[] lsns = new long[10];
+            for (int i = 0; i < 10; i++)
+                lsns[i] = log.append(new byte[] { (byte) i, 0, 0 });
+            for (int from : new int[] { 9, 5, 0 }) { // 9 はまだバッファの中
+                try (LogIterator it = log.backwardIterator(lsns[from])) {
+                    for (int i = from; i >= 0; i--) {
+                        assertEquals(i, it.next()[0]);
+                        assertEquals(lsns[i], it.lsn());
+                    }
+                    assertFalse(it.hasNext());
+                }
+            }
+            assertThrows(IllegalArgumentException.class, () -> log.backwardIterator(log.endLsn()));
+        }
+    }
+
+    @Test
+    void seekJumpsBackToAnEarlierRecordWithoutReadingTheOnesBetween() {
+        long segSize = LogManager.SEGMENT_HEADER_SIZE + 64;
+        try (LogManager log = new LogManager(tempDir, 32, 0, segSize, null)) {
+            long[] lsns = new long[10];
+            for (int i = 0; i < 10; i++)
+                lsns[i] = log.append(new byte[] { (byte) i, 0, 0 });
+            try (LogIterator it = log.backwardIterator(lsns[8])) {
+                assertEquals(8, it.next()[0]);
+                it.seek(lsns[2]); // 別のセグメントへ
+                assertEquals(2, it.next()[0]);
+                assertEquals(lsns[2], it.lsn());
+                assertEquals(1, it.next()[0]);
+            }
+        }
+    }
+
+    @Test
+    void truncateBeforeDeletesOrArchivesWholeSegmentsOnly() throws Exception {
+        long segSize = LogManager.SEGMENT_HEADER_SIZE + 64;
+        Path archive = tempDir.resolve("archive");
+        try (LogManager log = new LogManager(tempDir, 32, 0, segSize, archive)) {
+            long[] lsns = new long[10];
+            for (int i = 0; i < 10; i++)
+                lsns[i] = log.append(new byte[12]);
+            long usage = log.diskUsageBytes();
+
+            assertEquals(1, log.truncateBefore(lsns[4])); // lsns[4] を含むセグメントは残す
+            assertEquals(lsns[3], log.firstLsn());
+            assertEquals(2, log.truncateBefore(Long.MAX_VALUE)); // 書き込み中のセグメントは消さない
+            assertEquals(1, log.segmentCount());
+            assertEquals(lsns[9], log.firstLsn());
+            assertEquals(3, log.truncatedSegmentCount());
+            assertTrue(log.diskUsageBytes() < usage);
+            try (var files = Files.list(archive)) {
+                assertEquals(3, files.count());
+            }
+
+            try (LogIterator it = log.backwardIterator()) {
+                assertTrue(it.hasNext());
+                it.next();
+                assertEquals(lsns[9], it.lsn());
+                assertFalse(it.hasNext());
+            }
+        }
+        assertEquals(1, new LogReader(tempDir).readAll().size());
+    }
+
+    @Test
+    void legacySingleFileLogIsMigratedToFirstSegment() throws Exception {
+        // 分割前の形式: simpledb.log に [len][body][len] が並ぶだけ
+        java.nio.ByteBuffer bb = java.nio.ByteBuffer.allocate(9);
+        bb.putInt(1).put((byte) 5).putInt(1);
+        Files.write(tempDir.resolve("simpledb.log"), bb.array());
+        try (LogManager log = new LogManager(tempDir)) {
+            assertEquals(9, log.append(new byte[] { 6 })); // LSN は旧ファイルのオフセットのまま
+            try (LogIterator it = log.backwardIterator()) {
+                assertEquals(6, it.next()[0]);
+                assertEquals(5, it.next()[0]);
+                assertEquals(0, it.lsn());
+            }
+        }
+        assertFalse(Files.exists(tempDir.resolve("simpledb.log")));
+    }
+}
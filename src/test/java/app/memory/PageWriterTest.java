@@ -0,0 +1,188 @@
+package app.memory;
+
+import app.storage.BlockId;
+import app.storage.FileMgr;
+import app.storage.Page;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageWriterTest {
+
+    private static final int BLOCK_SIZE = 256;
+    private static final String FILE = "pw.tbl";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writerCleansDirtyUnpinnedPagesAndSkipsPinnedOnes() throws Exception {
+        // fm を先に閉じる（close 時の書き戻しで WAL を flush するため）
+        try (LogManager log = new LogManager(tempDir);
+                FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE)) {
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, 8);
+            bm.attachLog(log);
+            for (int i = 0; i < 4; i++) {
+                Buffer b = bm.pin(new BlockId(FILE, i));
+                long lsn = log.append(new byte[] { (byte) i });
+                b.contents().setInt(0, 100 + i);
+                b.setDirty(lsn);
+                assertEquals(lsn, b.pageLsn());
+                if (i > 0)
+                    bm.unpin(b); // ブロック0は pin したまま
+            }
+            assertEquals(4, bm.dirtyCount());
+
+            PageWriter w = bm.startPageWriter(10, 2);
+            assertSame(w, bm.startPageWriter());
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (bm.dirtyCount() > 1 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            bm.stopPageWriter();
+            assertFalse(w.isRunning());
+
+            assertEquals(1, bm.dirtyCount()); // pin 中のページは書かない
+            assertEquals(3, bm.backgroundWriteCount());
+            for (int i = 1; i < 4; i++)
+                assertEquals(100 + i, readInt(fm, new BlockId(FILE, i)));
+            assertEquals(0, readInt(fm, new BlockId(FILE, 0)));
+        }
+    }
+
+    @Test
+    void evictingDirtyPageWithoutWriterIsCountedAsForegroundWrite() {
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE)) {
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, 1);
+            Buffer b = bm.pin(new BlockId(FILE, 0));
+            b.contents().setInt(0, 7);
+            b.setDirty();
+            bm.unpin(b);
+
+            bm.unpin(bm.pin(new BlockId(FILE, 1)));
+            assertEquals(1, bm.dirtyEvictionCount());
+            assertEquals(7, readInt(fm, new BlockId(FILE, 0)));
+        }
+    }
+
+    @Test
+    void writeFailureIsThrownByTheNextPinAndThePageStaysDirty() throws Exception {
+        AtomicBoolean failing = new AtomicBoolean(true);
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE) {
+            @Override
+            public void write(BlockId b, Page p) {
+                if (failing.get())
+                    throw new RuntimeException("disk full");
+                super.write(b, p);
+            }
+        }) {
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, 4);
+            Buffer b = bm.pin(new BlockId(FILE, 0));
+            b.contents().setInt(0, 9);
+            b.setDirty();
+            bm.unpin(b);
+
+            bm.startPageWriter(10, 4);
+            IllegalStateException e = null;
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (e == null && System.currentTimeMillis() < deadline) {
+                try {
+                    bm.unpin(bm.pin(new BlockId(FILE, 1)));
+                    Thread.sleep(10);
+                } catch (IllegalStateException thrown) {
+                    e = thrown;
+                }
+            }
+            assertNotNull(e, "write failure was not reported");
+            assertEquals("disk full", e.getCause().getMessage());
+            assertTrue(bm.dirtyCount() > 0);
+
+            failing.set(false); // 次回の書き出しで書ける
+            deadline = System.currentTimeMillis() + 5_000;
+            while (bm.dirtyCount() > 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            bm.stopPageWriter();
+            assertEquals(0, bm.dirtyCount());
+            assertEquals(9, readInt(fm, new BlockId(FILE, 0)));
+            try {
+                bm.flushAll(); // 再試行の間に記録された失敗が残っていれば、close の前に受け取っておく
+            } catch (IllegalStateException ignore) {
+            }
+        }
+    }
+
+    @Test
+    void writerSkipsLatchedPagesAndKeepsDirtySetDuringWrite() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        BlockId blk = new BlockId(FILE, 0);
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE) {
+            @Override
+            public void write(BlockId b, Page p) {
+                if (b.equals(blk) && writing.getCount() > 0) {
+                    writing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                super.write(b, p);
+            }
+        }) {
+            BufferMgr bm = new BufferMgr(fm, BLOCK_SIZE, 4);
+            Buffer b = bm.pin(blk);
+            bm.unpin(b);
+
+            // 書き換え中（他スレッドが書き込みラッチを保持中）のページは書き出さない
+            CountDownLatch latched = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(1);
+            Thread holder = new Thread(() -> {
+                b.latch().writeLock().lock();
+                try {
+                    b.contents().setInt(0, 1);
+                    b.setDirty();
+                    latched.countDown();
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    b.latch().writeLock().unlock();
+                }
+            });
+            holder.start();
+            assertTrue(latched.await(5, TimeUnit.SECONDS));
+            assertEquals(0, bm.writeBackSome(4));
+            done.countDown();
+            holder.join();
+            assertTrue(b.isDirty());
+
+            // 書き出しの最中に立てた dirty は、書き出し後も残る
+            Thread writer = new Thread(() -> bm.writeBackSome(4));
+            writer.start();
+            assertTrue(writing.await(5, TimeUnit.SECONDS));
+            Thread modifier = new Thread(b::setDirty);
+            modifier.start();
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (modifier.getState() != Thread.State.BLOCKED && modifier.isAlive()
+                    && System.currentTimeMillis() < deadline)
+                Thread.sleep(1);
+            release.countDown();
+            writer.join();
+            modifier.join();
+            assertTrue(b.isDirty());
+            assertEquals(1, readInt(fm, blk));
+        }
+    }
+
+    private static int readInt(FileMgr fm, BlockId blk) {
+        Page p = new Page(BLOCK_SIZE);
+        fm.read(blk, p);
+        return p.getInt(0);
+    }
+}
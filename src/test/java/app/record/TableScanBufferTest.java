@@ -0,0 +1,285 @@
+package app.record;
+
+import app.memory.BufferMgr;
+import app.memory.LogManager;
+import app.metadata.MetadataManager;
+import app.query.Predicate;
+import app.query.ProductScan;
+import app.query.Scan;
+import app.query.SelectScan;
+import app.storage.BlockId;
+import app.storage.FileMgr;
+import app.tx.Tx;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TableScanBufferTest {
+
+    private static final int BLOCK_SIZE = 4096;
+
+    @TempDir
+    Path tempDir;
+
+    private FileMgr fm;
+    private BufferMgr bm;
+
+    @BeforeEach
+    void setUp() {
+        fm = new FileMgr(tempDir, BLOCK_SIZE);
+        bm = BufferMgr.shared(fm);
+    }
+
+    @Test
+    void scansPinThroughSharedPoolAndReleaseOnClose() {
+        TableFile tf = new TableFile(fm, "t.tbl", new Layout(new Schema().addInt("id")));
+        assertSame(bm, tf.bufferMgr());
+        int total = bm.available();
+
+        try (TableScan ts = new TableScan(fm, tf)) {
+            for (int i = 0; i < 2000; i++) { // 複数ブロックにまたがる
+                ts.insert();
+                ts.setInt("id", i);
+            }
+            assertEquals(total - 1, bm.available()); // 現在ページだけ pin
+        }
+        assertEquals(total, bm.available());
+        assertTrue(tf.size() > 1);
+
+        try (TableScan ts = new TableScan(fm, tf)) {
+            ts.beforeFirst();
+            int n = 0;
+            while (ts.next())
+                assertEquals(n++, ts.getInt("id"));
+            assertEquals(2000, n);
+        }
+        assertEquals(total, bm.available());
+
+        // readPage はコピーを返すので pin を残さない
+        RecordPage rp = tf.readPage(new BlockId("t.tbl", 0));
+        assertEquals(0, rp.getInt(0, "id"));
+        assertEquals(total, bm.available());
+    }
+
+    @Test
+    void largeSequentialScanDoesNotFlushTheSharedPool() {
+        TableFile hot = new TableFile(fm, "hot.tbl", new Layout(new Schema().addInt("id")));
+        try (TableScan ts = new TableScan(fm, hot)) {
+            ts.insert();
+            ts.setInt("id", 1);
+        }
+        TableFile big = new TableFile(fm, "big.tbl", new Layout(new Schema().addInt("id")));
+        for (int i = 0; i < bm.capacity() * 2; i++)
+            fm.append("big.tbl"); // ゼロ埋め = 全スロット空き（プールを経由しない）
+
+        try (TableScan ts = new TableScan(fm, big)) {
+            ts.beforeFirst();
+            while (ts.next()) {
+            }
+        }
+        // 走査後も小さな表のページは常駐したまま
+        long misses = bm.missCount();
+        try (TableScan ts = new TableScan(fm, hot)) {
+            ts.beforeFirst();
+            assertTrue(ts.next());
+            assertEquals(1, ts.getInt("id"));
+        }
+        assertEquals(misses, bm.missCount());
+        assertEquals(bm.capacity(), bm.available());
+    }
+
+    @Test
+    void droppedTableDoesNotLeaveStalePagesInPool() {
+        MetadataManager mdm = new MetadataManager(fm);
+        Schema schema = new Schema().addInt("id");
+        mdm.createTable("t", schema);
+        TableFile tf = new TableFile(fm, "t.tbl", mdm.getLayout("t"));
+        try (TableScan ts = new TableScan(fm, tf)) {
+            ts.insert();
+            ts.setInt("id", 42);
+        }
+
+        assertTrue(mdm.dropTable("t"));
+        mdm.createTable("t", schema);
+        tf = new TableFile(fm, "t.tbl", mdm.getLayout("t"));
+        tf.appendFormatted();
+        try (TableScan ts = new TableScan(fm, tf)) {
+            ts.beforeFirst();
+            assertFalse(ts.next());
+        }
+    }
+
+    @Test
+    void insertFindsRoomThroughFreeSpaceMapWithoutScanningTheTable() {
+        TableFile tf = new TableFile(fm, "fsm.tbl", new Layout(new Schema().addInt("id")));
+        int perBlock = new RecordPage(new app.storage.Page(BLOCK_SIZE), tf.layout(), BLOCK_SIZE).slots();
+        int rows = perBlock * 20;
+        try (TableScan ts = new TableScan(fm, tf)) {
+            for (int i = 0; i < rows; i++) {
+                ts.insert();
+                ts.setInt("id", i);
+            }
+        }
+        assertEquals(20, tf.size());
+
+        // 満杯のブロックを辿らず、マップの 1 ページとデータ 1 ページで挿入先が決まる
+        long accesses = bm.hitCount() + bm.missCount();
+        try (TableScan ts = new TableScan(fm, tf)) {
+            ts.insert();
+            ts.setInt("id", -1);
+            assertEquals(20, ts.currentBlockNumber());
+        }
+        assertTrue(bm.hitCount() + bm.missCount() - accesses <= 4);
+
+        // 削除で空いたスロットは次の挿入で再利用される
+        int target = perBlock * 7 + 13;
+        try (TableScan ts = new TableScan(fm, tf)) {
+            ts.beforeFirst();
+            while (ts.next())
+                if (ts.getInt("id") == target) {
+                    ts.delete();
+                    break;
+                }
+        }
+        try (TableScan ts = new TableScan(fm, tf)) {
+            ts.insert();
+            ts.setInt("id", -2);
+            assertEquals(7, ts.currentBlockNumber());
+            assertEquals(13, ts.currentSlot());
+        }
+        assertEquals(21, tf.size());
+    }
+
+    @Test
+    void rolledBackInsertLeavesItsBlockMarkedWithRoom() {
+        TableFile tf = new TableFile(fm, "undo.tbl", new Layout(new Schema().addInt("id")));
+        int perBlock = new RecordPage(new app.storage.Page(BLOCK_SIZE), tf.layout(), BLOCK_SIZE).slots();
+        try (TableScan ts = new TableScan(fm, tf)) {
+            for (int i = 0; i < perBlock - 1; i++) {
+                ts.insert();
+                ts.setInt("id", i);
+            }
+        }
+        try (LogManager log = new LogManager(tempDir.resolve("log"))) {
+            Tx tx = new Tx(fm, bm, log);
+            try (TableScan ts = new TableScan(fm, tf, tx)) {
+                ts.insert(); // 最後の空きを埋める → マップ上は満杯
+                ts.setInt("id", -1);
+            }
+            tx.rollback();
+        }
+        // 挿入が戻ったので、新しいブロックを足さずに同じスロットを使う
+        try (TableScan ts = new TableScan(fm, tf)) {
+            ts.insert();
+            ts.setInt("id", -2);
+            assertEquals(0, ts.currentBlockNumber());
+            assertEquals(perBlock - 1, ts.currentSlot());
+        }
+        assertEquals(1, tf.size());
+    }
+
+    @Test
+    void slotSearchSkipsWholeWordsOfFlags() {
+        Layout layout = new Layout(new Schema().addInt("id"));
+        RecordPage rp = new RecordPage(new app.storage.Page(BLOCK_SIZE), layout, BLOCK_SIZE);
+        for (int s = 0; s < rp.slots(); s++)
+            rp.setUsed(s, s != 21 && s != rp.slots() - 1);
+        assertEquals(21, rp.findFree());
+        assertEquals(20, rp.nextUsed(19));
+        assertEquals(22, rp.nextUsed(20));
+        rp.setUsed(21, true);
+        assertEquals(rp.slots() - 1, rp.findFree());
+        assertEquals(-1, rp.nextUsed(rp.slots() - 2));
+        rp.format();
+        assertEquals(0, rp.findFree());
+        assertEquals(-1, rp.nextUsed(-1));
+
+        RecordPage slotted = new RecordPage(new app.storage.Page(BLOCK_SIZE),
+                new Layout(new Schema().addInt("id"), RecordFormat.SLOTTED), BLOCK_SIZE);
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> slotted.flagOffset(0));
+        assertTrue(e.getMessage().contains("SLOTTED"), e.getMessage());
+    }
+
+    @Test
+    void slottedTablesPackShortStringsAndKeepRidsAcrossUpdates() throws Exception {
+        MetadataManager mdm = new MetadataManager(fm);
+        Schema schema = new Schema().addInt("id").addString("name", 64);
+        mdm.createTable("fixed", schema);
+        mdm.createTable("slotted", schema, RecordFormat.SLOTTED);
+        assertEquals(RecordFormat.SLOTTED, mdm.getLayout("slotted").format());
+        assertTrue(mdm.showCreateTable("slotted").orElseThrow().endsWith(") USING SLOTTED;"));
+
+        TableFile fixed = new TableFile(fm, "fixed.tbl", mdm.getLayout("fixed"));
+        TableFile slotted = new TableFile(fm, "slotted.tbl", mdm.getLayout("slotted"));
+        for (TableFile tf : new TableFile[] { fixed, slotted }) {
+            try (TableScan ts = new TableScan(fm, tf)) {
+                for (int i = 0; i < 500; i++) {
+                    ts.insert();
+                    ts.setInt("id", i);
+                    ts.setString("name", "n" + i);
+                }
+            }
+        }
+        assertTrue(slotted.size() * 5 <= fixed.size(), slotted.size() + " vs " + fixed.size());
+
+        // 伸ばす/縮める更新でタプルが動いても（詰め直しを含む）、スロット番号と他の列はそのまま
+        java.util.Map<Integer, app.index.RID> rids = new java.util.HashMap<>();
+        try (TableScan ts = new TableScan(fm, slotted)) {
+            ts.beforeFirst();
+            while (ts.next()) {
+                int id = ts.getInt("id");
+                rids.put(id, ts.rid());
+                if (id % 3 == 0)
+                    ts.setString("name", "n" + id + "-n" + id);
+                else if (id % 3 == 1)
+                    ts.setString("name", "");
+            }
+        }
+        try (TableScan ts = new TableScan(fm, slotted)) {
+            for (var e : rids.entrySet()) {
+                int id = e.getKey();
+                assertTrue(ts.moveTo(e.getValue()));
+                assertEquals(id, ts.getInt("id"));
+                String expected = id % 3 == 0 ? "n" + id + "-n" + id : id % 3 == 1 ? "" : "n" + id;
+                assertEquals(expected, ts.getString("name"));
+            }
+        }
+    }
+
+    @Test
+    void ordinalAccessMatchesNamedAccessThroughOperators() {
+        for (RecordFormat format : RecordFormat.values()) {
+            Schema schema = new Schema().addInt("id").addString("name", 10);
+            TableFile a = new TableFile(fm, "a_" + format + ".tbl", new Layout(schema, format));
+            TableFile b = new TableFile(fm, "b_" + format + ".tbl", new Layout(new Schema().addInt("bid"), format));
+            try (TableScan ts = new TableScan(fm, a)) {
+                for (int i = 0; i < 3; i++) {
+                    ts.insert();
+                    ts.setInt("id", i);
+                    ts.setString("name", "n" + i);
+                }
+            }
+            try (TableScan ts = new TableScan(fm, b)) {
+                ts.insert();
+                ts.setInt("bid", 1);
+            }
+
+            try (Scan s = new SelectScan(new ProductScan(new TableScan(fm, a), new TableScan(fm, b)),
+                    Predicate.eqField("id", "bid"))) {
+                int id = s.indexOf("id"), name = s.indexOf("name"), bid = s.indexOf("bid");
+                assertEquals(-1, s.indexOf("missing"));
+                assertNotEquals(id, bid); // 左右で列番号が衝突しない
+                s.beforeFirst();
+                assertTrue(s.next());
+                assertEquals(1, s.getInt(id));
+                assertEquals("n1", s.getString(name));
+                assertEquals(s.getInt("bid"), s.getInt(bid));
+                assertFalse(s.next());
+            }
+        }
+    }
+}
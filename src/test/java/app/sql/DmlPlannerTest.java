@@ -3,12 +3,18 @@ package app.sql;
 import app.index.RangeCursor;
 import app.index.RID;
 import app.index.btree.BTreeIndex;
+import app.memory.BufferMgr;
+import app.memory.LogManager;
 import app.metadata.MetadataManager;
+import app.query.Scan;
 import app.record.Layout;
+import app.record.RecordFormat;
+import app.record.RecordTooLargeException;
 import app.record.Schema;
 import app.record.TableFile;
 import app.record.TableScan;
 import app.storage.FileMgr;
+import app.tx.Tx;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
@@ -79,6 +85,96 @@ class DmlPlannerTest {
         assertEquals(List.of(2), readIdsViaIndex());
     }
 
+    @Test
+    void loggedStatementsRollBackRowChangesWhenTheyFail() {
+        try (LogManager log = new LogManager(tempDir.resolve("log"))) {
+            planner = new Planner(fm, mdm, null, log);
+            insertRow(1, "Ada");
+
+            // 2 つ目の代入で失敗 → 1 つ目の代入も戻る
+            Ast.UpdateStmt update = parseUpdate("UPDATE people SET name = 'Alan', nope = 3 WHERE id = 1");
+            assertThrows(IllegalArgumentException.class, () -> planner.executeUpdate(update));
+            // 列の検証前に行は挿入済み → 挿入も戻る
+            Ast.InsertStmt insert = parseInsert("INSERT INTO people(nope) VALUES (2)");
+            assertThrows(IllegalArgumentException.class, () -> planner.executeInsert(insert));
+
+            assertEquals(List.of(new PersonRow(1, "Ada")), readAllRows());
+        }
+    }
+
+    @Test
+    void loggedStatementsRollBackIndexEntriesWhenTheyFail() {
+        try (LogManager log = new LogManager(tempDir.resolve("log"))) {
+            planner = new Planner(fm, mdm, null, log);
+            insertRow(1, "Ada");
+
+            // 索引列を書き換えた後で失敗 → 索引エントリも 1 に戻る
+            Ast.UpdateStmt update = parseUpdate("UPDATE people SET id = 5, nope = 3 WHERE id = 1");
+            assertThrows(IllegalArgumentException.class, () -> planner.executeUpdate(update));
+            // 索引列を入れた後で失敗 → 追加したエントリも消える
+            Ast.InsertStmt insert = parseInsert("INSERT INTO people(id, nope) VALUES (7, 2)");
+            assertThrows(IllegalArgumentException.class, () -> planner.executeInsert(insert));
+
+            assertEquals(List.of(new PersonRow(1, "Ada")), readAllRows());
+            assertEquals(List.of(1), readIdsViaIndex());
+            assertEquals(List.of("Ada"), selectNames("SELECT name FROM people WHERE id = 1"));
+            assertEquals(List.of(), selectNames("SELECT name FROM people WHERE id = 5"));
+        }
+    }
+
+    @Test
+    void indexedSelectUnderASnapshotDoesNotSeeUncommittedRows() throws Exception {
+        try (LogManager log = new LogManager(tempDir.resolve("log"))) {
+            planner = new Planner(fm, mdm, null, log);
+            insertRow(1, "Ada");
+
+            Tx writer = new Tx(fm, BufferMgr.shared(fm), log);
+            TableFile tf = new TableFile(fm, PEOPLE_TABLE + ".tbl", mdm.getLayout(PEOPLE_TABLE));
+            try (TableScan ts = new TableScan(fm, tf, writer)) {
+                ts.beforeFirst();
+                assertTrue(ts.next());
+                ts.setString("name", "Eve");
+            }
+            // id には索引があるが、索引経由ではページの現在の内容（未コミット）を読んでしまう
+            List<String> names = new ArrayList<>();
+            try (Scan s = planner.plan("SELECT name FROM people WHERE id = 1")) {
+                s.beforeFirst();
+                while (s.next())
+                    names.add(s.getString("name"));
+            }
+            assertEquals(List.of("Ada"), names);
+            writer.rollback();
+        }
+    }
+
+    @Test
+    void updateThatOverflowsASlottedPageFailsAsAStatementAndChangesNothing() {
+        try (LogManager log = new LogManager(tempDir.resolve("log"))) {
+            planner = new Planner(fm, mdm, null, log);
+            mdm.createTable("notes", new Schema().addInt("id").addString("body", 200), RecordFormat.SLOTTED);
+            // 短い行で 1 ページ目を埋める（新しい行は最大長ぶんの空きがあるページにしか入らない）
+            int n = BLOCK_SIZE / 16;
+            for (int i = 0; i < n; i++)
+                assertEquals(1, planner.executeInsert(parseInsert("INSERT INTO notes(id, body) VALUES (" + i + ", '')")));
+
+            Ast.UpdateStmt update = parseUpdate("UPDATE notes SET body = '" + "x".repeat(200) + "'");
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> planner.executeUpdate(update));
+            assertInstanceOf(RecordTooLargeException.class, e.getCause());
+            assertTrue(e.getMessage().contains("notes"), e.getMessage());
+
+            TableFile tf = new TableFile(fm, "notes.tbl", mdm.getLayout("notes"));
+            int rows = 0;
+            try (TableScan ts = new TableScan(fm, tf)) {
+                ts.beforeFirst();
+                while (ts.next()) {
+                    assertEquals("", ts.getString("body"));
+                    rows++;
+                }
+            }
+            assertEquals(n, rows);
+        }
+    }
+
     private Ast.InsertStmt parseInsert(String sql) {
         Ast.Statement stmt = new Parser(sql).parseStatement();
         return assertInstanceOf(Ast.InsertStmt.class, stmt);
@@ -113,6 +209,16 @@ class DmlPlannerTest {
         }
     }
 
+    private List<String> selectNames(String sql) {
+        List<String> names = new ArrayList<>();
+        try (Scan s = planner.plan(sql)) {
+            s.beforeFirst();
+            while (s.next())
+                names.add(s.getString("name"));
+        }
+        return names;
+    }
+
     private List<Integer> readIdsViaIndex() {
         Layout layout = mdm.getLayout(PEOPLE_TABLE);
         TableFile tf = new TableFile(fm, PEOPLE_TABLE + ".tbl", layout);
@@ -63,4 +63,19 @@ class ParserDmlTest {
         RuntimeException error = assertThrows(RuntimeException.class, parser::parseStatement);
         assertTrue(error.getMessage().contains("columns and values count mismatch"));
     }
+
+    @Test
+    void parseCreateTableWithPageFormat() {
+        Ast.CreateTableStmt plain = assertInstanceOf(Ast.CreateTableStmt.class,
+                new Parser("CREATE TABLE people (id INT, name STRING(20))").parseStatement());
+        assertEquals(Ast.CreateTableStmt.TableFormat.FIXED, plain.format);
+
+        Ast.CreateTableStmt slotted = assertInstanceOf(Ast.CreateTableStmt.class,
+                new Parser("CREATE TABLE people (id INT, name STRING(20)) USING slotted").parseStatement());
+        assertEquals(Ast.CreateTableStmt.TableFormat.SLOTTED, slotted.format);
+        assertEquals(2, slotted.columns.size());
+
+        assertThrows(RuntimeException.class,
+                () -> new Parser("CREATE TABLE people (id INT) USING BTREE").parseStatement());
+    }
 }
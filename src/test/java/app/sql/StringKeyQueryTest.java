@@ -0,0 +1,74 @@
+package app.sql;
+
+import app.metadata.MetadataManager;
+import app.query.Scan;
+import app.record.RecordFormat;
+import app.record.Schema;
+import app.storage.FileMgr;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** STRING 列の等値条件・結合・グループ化（ページ上のバイト列で比較する経路） */
+class StringKeyQueryTest {
+
+    private static final int BLOCK_SIZE = 4096;
+    private static final Set<String> INT_FIELDS = Set.of("id", "floor", "count");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void stringFiltersJoinsAndGroupsCompareValuesNotLengths() {
+        for (RecordFormat format : RecordFormat.values()) {
+            FileMgr fm = new FileMgr(tempDir.resolve(format.name()), BLOCK_SIZE);
+            MetadataManager mdm = new MetadataManager(fm);
+            mdm.createTable("emp", new Schema().addInt("id").addString("name", 10).addString("dept", 10), format);
+            mdm.createTable("depts", new Schema().addString("dname", 10).addInt("floor"), format);
+            Planner planner = new Planner(fm, mdm);
+            // 部署名は同じ長さにしておく（長さだけ比べていれば区別できない）
+            insert(planner, "INSERT INTO emp(id, name, dept) VALUES (1, 'ann', 'eng')");
+            insert(planner, "INSERT INTO emp(id, name, dept) VALUES (2, 'bob', 'ops')");
+            insert(planner, "INSERT INTO emp(id, name, dept) VALUES (3, 'cat', 'eng')");
+            insert(planner, "INSERT INTO emp(id, name, dept) VALUES (4, 'ぼぶ', 'eng')");
+            insert(planner, "INSERT INTO depts(dname, floor) VALUES ('ops', 7)");
+
+            assertEquals(List.of("2"), rows(planner, "SELECT id FROM emp WHERE name = 'bob'", "id"));
+            assertEquals(List.of("4"), rows(planner, "SELECT id FROM emp WHERE name = 'ぼぶ'", "id"));
+            assertEquals(List.of(), rows(planner, "SELECT id FROM emp WHERE name = 'bo'", "id"));
+
+            assertEquals(List.of("2:7"),
+                    rows(planner, "SELECT id, floor FROM emp JOIN depts ON dept = dname", "id", "floor"));
+
+            assertEquals(List.of("eng:3", "ops:1"),
+                    rows(planner, "SELECT dept, COUNT(*) FROM emp GROUP BY dept", "dept", "count"));
+            assertEquals(List.of("eng:ann", "ops:bob"),
+                    rows(planner, "SELECT dept, MIN(name) FROM emp GROUP BY dept", "dept", "min_name"));
+        }
+    }
+
+    private static void insert(Planner planner, String sql) {
+        Ast.Statement stmt = new Parser(sql).parseStatement();
+        assertEquals(1, planner.executeInsert(assertInstanceOf(Ast.InsertStmt.class, stmt)));
+    }
+
+    private static List<String> rows(Planner planner, String sql, String... fields) {
+        List<String> out = new ArrayList<>();
+        try (Scan s = planner.plan(sql)) {
+            s.beforeFirst();
+            while (s.next()) {
+                List<String> vals = new ArrayList<>();
+                for (String f : fields)
+                    vals.add(INT_FIELDS.contains(f) ? Integer.toString(s.getInt(f)) : s.getString(f));
+                out.add(String.join(":", vals));
+            }
+        }
+        return out;
+    }
+}
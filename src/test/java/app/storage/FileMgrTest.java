@@ -0,0 +1,103 @@
+package app.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileMgrTest {
+
+    private static final int BLOCK_SIZE = 512;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void channelPoolIsBoundedAndEvictsLeastRecentlyUsed() {
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE, 2)) {
+            BlockId a = fm.append("a.tbl");
+            BlockId b = fm.append("b.tbl");
+            assertEquals(2, fm.openFileCount());
+
+            writeInt(fm, a, 11);
+            writeInt(fm, b, 22);
+            // 3つ目のファイルで上限超過 → 最も古い channel が閉じられる
+            BlockId c = fm.append("c.tbl");
+            writeInt(fm, c, 33);
+            assertEquals(2, fm.openFileCount());
+
+            // 閉じられたファイルも透過的に開き直して読める
+            assertEquals(11, readInt(fm, a));
+            assertEquals(22, readInt(fm, b));
+            assertEquals(33, readInt(fm, c));
+            assertEquals(1, fm.length("a.tbl"));
+        }
+    }
+
+    @Test
+    void deleteClosesPooledChannelAndCloseReleasesAll() {
+        FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE);
+        BlockId blk = fm.append("t.tbl");
+        writeInt(fm, blk, 7);
+        assertEquals(1, fm.openFileCount());
+
+        assertTrue(fm.deleteFileIfExists("t.tbl"));
+        assertFalse(Files.exists(tempDir.resolve("t.tbl")));
+        assertEquals(0, fm.openFileCount());
+        assertEquals(0, fm.length("t.tbl"));
+
+        BlockId again = fm.append("t.tbl");
+        assertEquals(0, readInt(fm, again)); // 削除前の内容は残っていない
+        fm.close();
+        assertEquals(0, fm.openFileCount());
+
+        writeInt(fm, again, 9); // close 後も再オープンして使える
+        assertEquals(9, readInt(fm, again));
+        fm.close();
+    }
+
+    @Test
+    void deferredModeTracksUnsyncedFilesUntilSync() {
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE, FileMgr.Durability.DEFERRED)) {
+            assertEquals(FileMgr.Durability.DEFERRED, fm.durability());
+            BlockId a = fm.append("a.tbl");
+            BlockId b = fm.append("b.tbl");
+            writeInt(fm, a, 1);
+            writeInt(fm, b, 2);
+            assertEquals(2, fm.unsyncedFileCount());
+
+            fm.sync("a.tbl");
+            assertEquals(1, fm.unsyncedFileCount());
+            fm.syncAll();
+            assertEquals(0, fm.unsyncedFileCount());
+
+            // force を遅延しても OS 経由の読み出しは最新値
+            assertEquals(1, readInt(fm, a));
+            assertEquals(2, readInt(fm, b));
+        }
+    }
+
+    @Test
+    void strictModeNeverLeavesUnsyncedFiles() {
+        try (FileMgr fm = new FileMgr(tempDir, BLOCK_SIZE)) {
+            assertEquals(FileMgr.Durability.STRICT, fm.durability());
+            writeInt(fm, fm.append("s.tbl"), 5);
+            assertEquals(0, fm.unsyncedFileCount());
+        }
+    }
+
+    private static void writeInt(FileMgr fm, BlockId blk, int v) {
+        Page p = new Page(fm.blockSize());
+        p.setInt(0, v);
+        fm.write(blk, p);
+    }
+
+    private static int readInt(FileMgr fm, BlockId blk) {
+        Page p = new Page(fm.blockSize());
+        fm.read(blk, p);
+        return p.getInt(0);
+    }
+}
@@ -0,0 +1,64 @@
+package app.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedFileMgrTest {
+
+    private static final int BLOCK_SIZE = 512;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void readsSeeWritesAcrossGrowingSegments() {
+        // 1セグメント=4ブロックにしてセグメント跨ぎと末尾セグメントの張り直しを確認
+        try (MappedFileMgr fm = new MappedFileMgr(tempDir, BLOCK_SIZE, 4, FileMgr.Durability.STRICT, 4)) {
+            for (int i = 0; i < 10; i++) {
+                BlockId b = fm.append("t.tbl");
+                writeInt(fm, b, 100 + i);
+                assertEquals(100 + i, readInt(fm, b)); // 伸長直後のブロックも読める
+            }
+            for (int i = 0; i < 10; i++)
+                assertEquals(100 + i, readInt(fm, new BlockId("t.tbl", i)));
+            assertEquals(3, fm.mappedSegmentCount());
+
+            // 上書きもマップ経由の読み出しに反映される
+            writeInt(fm, new BlockId("t.tbl", 5), -1);
+            assertEquals(-1, readInt(fm, new BlockId("t.tbl", 5)));
+        }
+    }
+
+    @Test
+    void readPastEndIsZeroFilledAndDoesNotExtendFile() {
+        try (MappedFileMgr fm = new MappedFileMgr(tempDir, BLOCK_SIZE)) {
+            writeInt(fm, fm.append("t.tbl"), 42);
+            Page p = new Page(BLOCK_SIZE);
+            p.setInt(0, 99);
+            fm.read(new BlockId("t.tbl", 3), p);
+            assertEquals(0, p.getInt(0));
+            assertEquals(1, fm.length("t.tbl"));
+
+            assertTrue(fm.deleteFileIfExists("t.tbl"));
+            assertEquals(0, fm.mappedSegmentCount());
+            BlockId again = fm.append("t.tbl");
+            assertEquals(0, readInt(fm, again));
+        }
+    }
+
+    private static void writeInt(FileMgr fm, BlockId blk, int v) {
+        Page p = new Page(fm.blockSize());
+        p.setInt(0, v);
+        fm.write(blk, p);
+    }
+
+    private static int readInt(FileMgr fm, BlockId blk) {
+        Page p = new Page(fm.blockSize());
+        fm.read(blk, p);
+        return p.getInt(0);
+    }
+}
@@ -0,0 +1,106 @@
+package app.tx;
+
+import app.memory.BufferMgr;
+import app.memory.LogManager;
+import app.storage.BlockId;
+import app.storage.FileMgr;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LockTableTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void sharedLocksCoexistAndExclusiveWaitsForRelease() throws Exception {
+        LockTable lt = new LockTable();
+        lt.sLock(1, "b0");
+        lt.sLock(2, "b0");
+        lt.xLock(3, "b1"); // 別キーは干渉しない
+        assertEquals(0, lt.waitCount());
+
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> lt.xLock(3, "b0"));
+        waitUntilWaiting(lt, 1);
+        assertFalse(writer.isDone());
+        lt.releaseAll(1);
+        assertFalse(writer.isDone()); // まだ tx 2 の S が残る
+        lt.releaseAll(2);
+        writer.get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, lt.heldCount(3));
+        assertEquals(1, lt.waitCount());
+        lt.releaseAll(3);
+        assertEquals(0, lt.heldCount(3));
+    }
+
+    @Test
+    void upgradeDeadlockAbortsTheRequesterOnly() throws Exception {
+        LockTable lt = new LockTable();
+        lt.sLock(1, "b0");
+        lt.sLock(2, "b0");
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() -> lt.xLock(1, "b0"));
+        waitUntilWaiting(lt, 1);
+
+        // tx 2 の昇格で閉路ができる → 待たずに tx 2 が中断される
+        assertThrows(DeadlockException.class, () -> lt.xLock(2, "b0"));
+        assertEquals(1, lt.deadlockCount());
+        lt.releaseAll(2); // 呼び出し側の rollback 相当
+        first.get(5, TimeUnit.SECONDS);
+        assertEquals(1, lt.heldCount(1));
+    }
+
+    @Test
+    void lockWaitTimesOutAfterMaxWait() {
+        LockTable lt = new LockTable(20);
+        lt.xLock(1, "b0");
+        assertThrows(IllegalStateException.class, () -> lt.sLock(2, "b0"));
+        assertEquals(1, lt.timeoutCount());
+        assertTrue(lt.waitMillis() >= 20);
+        assertEquals(0, lt.waitingCount());
+    }
+
+    @Test
+    void readerSeesOnlyCommittedValueOfConcurrentWriter() throws Exception {
+        FileMgr fm = new FileMgr(tempDir, 256);
+        BufferMgr bm = new BufferMgr(fm, 256, 4);
+        BlockId blk = fm.append("acct.tbl");
+        try (LogManager log = new LogManager(tempDir)) {
+            Tx writer = new Tx(fm, bm, log);
+            writer.setInt(blk, 0, 42);
+
+            CountDownLatch started = new CountDownLatch(1);
+            CompletableFuture<Integer> read = CompletableFuture.supplyAsync(() -> {
+                Tx reader = new Tx(fm, bm, log);
+                started.countDown();
+                int v = reader.getInt(blk, 0); // writer の X が外れるまで待つ
+                reader.commit();
+                return v;
+            });
+            started.await();
+            waitUntilWaiting(writer.lockTable(), 1);
+            writer.rollback();
+            assertEquals(0, (int) read.get(5, TimeUnit.SECONDS)); // 取り消された 42 は見えない
+            assertTrue(writer.lockTable().waitCount() >= 1);
+            assertEquals(0, writer.lockTable().heldCount(writer.id()));
+        } finally {
+            fm.close();
+        }
+    }
+
+    private static void waitUntilWaiting(LockTable lt, int n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (lt.waitingCount() < n) {
+            if (System.currentTimeMillis() > deadline)
+                fail("no lock waiter");
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package app.tx;
+
+import app.memory.BufferMgr;
+import app.memory.LogManager;
+import app.record.Layout;
+import app.record.Schema;
+import app.record.TableFile;
+import app.record.TableScan;
+import app.storage.BlockId;
+import app.storage.FileMgr;
+import app.storage.Page;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecoveryMgrTest {
+
+    private static final int BLOCK_SIZE = 256;
+
+    @TempDir
+    Path tempDir;
+
+    private FileMgr fm;
+    private BufferMgr bm;
+    private BlockId blk;
+    private BlockId other;
+
+    @BeforeEach
+    void setUp() {
+        fm = new FileMgr(tempDir, BLOCK_SIZE);
+        bm = new BufferMgr(fm, BLOCK_SIZE, 4);
+        blk = fm.append("acct.tbl");
+        other = fm.append("acct.tbl"); // 実行中の Tx と並行してコミットする Tx 用（同じブロックは X ロックで待つ）
+    }
+
+    @Test
+    void committedChangeIsRedoneAndUncommittedChangeIsUndone() {
+        try (LogManager log = new LogManager(tempDir)) {
+            try (Tx tx = new Tx(fm, bm, log, tempDir)) {
+                tx.setInt(blk, 0, 100);
+                tx.commit();
+            }
+            Tx crashed = new Tx(fm, bm, log, tempDir);
+            crashed.setInt(blk, 4, 200);
+            log.flush();
+        }
+        // コミット済みの書き込みが失われ、未コミットの書き込みだけ残った状態でクラッシュ
+        Page p = new Page(BLOCK_SIZE);
+        p.setInt(0, 0);
+        p.setInt(4, 200);
+        fm.write(blk, p);
+
+        try (LogManager log = new LogManager(tempDir)) {
+            RecoveryMgr.Result r = new RecoveryMgr(fm, new BufferMgr(fm, BLOCK_SIZE, 4), log).recover();
+            assertEquals(1, r.redone);
+            assertEquals(1, r.undone);
+        }
+        assertEquals(100, readInt(0));
+        assertEquals(0, readInt(4));
+        assertTrue(Tx.activeTxIds().isEmpty());
+    }
+
+    @Test
+    void recoveryStopsAtQuiescentCheckpoint() {
+        try (LogManager log = new LogManager(tempDir)) {
+            try (Tx tx = new Tx(fm, bm, log, tempDir)) {
+                tx.setInt(blk, 0, 100);
+                tx.commit();
+            }
+            new RecoveryMgr(fm, bm, log).checkpoint();
+        }
+        // チェックポイント以前の変更は REDO されない（書き出し済みの前提）
+        fm.write(blk, new Page(BLOCK_SIZE));
+        try (LogManager log = new LogManager(tempDir)) {
+            RecoveryMgr.Result r = new RecoveryMgr(fm, new BufferMgr(fm, BLOCK_SIZE, 4), log).recover();
+            assertEquals(0, r.scanned);
+            assertEquals(0, r.redone);
+        }
+        assertEquals(0, readInt(0));
+    }
+
+    @Test
+    void quiescentCheckpointRejectsActiveTransactions() {
+        try (LogManager log = new LogManager(tempDir)) {
+            Tx tx = new Tx(fm, bm, log, tempDir);
+            RecoveryMgr rm = new RecoveryMgr(fm, bm, log);
+            assertThrows(IllegalStateException.class, rm::checkpoint);
+            tx.commit();
+            rm.checkpoint();
+        }
+    }
+
+    @Test
+    void fuzzyCheckpointUndoesTransactionThatSpansIt() {
+        try (LogManager log = new LogManager(tempDir)) {
+            Tx crashed = new Tx(fm, bm, log, tempDir);
+            crashed.setInt(blk, 0, 100);
+            try (Tx tx = new Tx(fm, bm, log, tempDir)) {
+                tx.setInt(other, 8, 300);
+                tx.commit();
+            }
+            new RecoveryMgr(fm, bm, log).fuzzyCheckpoint();
+            crashed.setInt(blk, 4, 200);
+            log.flush();
+        }
+        try (LogManager log = new LogManager(tempDir)) {
+            RecoveryMgr.Result r = new RecoveryMgr(fm, new BufferMgr(fm, BLOCK_SIZE, 4), log).recover();
+            assertEquals(2, r.undone); // チェックポイント前の変更まで遡って戻す
+            assertEquals(0, r.redone); // コミット済み Tx はチェックポイントで書き出し済み
+        }
+        assertEquals(0, readInt(0));
+        assertEquals(0, readInt(4));
+        assertEquals(300, readInt(other, 8));
+    }
+
+    @Test
+    void rollbackBeforeFuzzyCheckpointDoesNotClobberLaterCommit() {
+        try (LogManager log = new LogManager(tempDir)) {
+            Tx open = new Tx(fm, bm, log, tempDir); // 走査を NQCKPT より前まで延ばす
+            open.setInt(blk, 0, 1);
+            Tx t1 = new Tx(fm, bm, log, tempDir);
+            t1.setInt(other, 0, 5);
+            t1.rollback();
+            try (Tx t2 = new Tx(fm, bm, log, tempDir)) {
+                t2.setInt(other, 0, 7);
+                t2.commit();
+            }
+            new RecoveryMgr(fm, bm, log).fuzzyCheckpoint(); // 7 が書き出される
+            log.flush();
+        }
+        try (LogManager log = new LogManager(tempDir)) {
+            new RecoveryMgr(fm, new BufferMgr(fm, BLOCK_SIZE, 4), log).recover();
+        }
+        assertEquals(7, readInt(other, 0));
+        assertEquals(0, readInt(0));
+    }
+
+    @Test
+    void rollbackAfterFuzzyCheckpointSurvivesCrash() {
+        try (LogManager log = new LogManager(tempDir)) {
+            Tx tx = new Tx(fm, bm, log, tempDir);
+            tx.setInt(blk, 0, 6);
+            new RecoveryMgr(fm, bm, log).fuzzyCheckpoint(); // 6 が書き出される
+            assertEquals(6, readInt(0));
+            tx.rollback(); // 戻した 0 はバッファにだけある
+        }
+        try (LogManager log = new LogManager(tempDir)) {
+            new RecoveryMgr(fm, new BufferMgr(fm, BLOCK_SIZE, 4), log).recover();
+        }
+        assertEquals(0, readInt(0));
+    }
+
+    @Test
+    void recoveryIgnoresRecordTornByCrashDuringLogWrite() throws Exception {
+        try (LogManager log = new LogManager(tempDir)) {
+            try (Tx tx = new Tx(fm, bm, log, tempDir)) {
+                tx.setInt(blk, 0, 100);
+                tx.commit();
+            }
+            Tx crashed = new Tx(fm, bm, log, tempDir);
+            crashed.setInt(blk, 4, 200);
+            log.flush();
+        }
+        // 最後のレコードの途中で落ちた（末尾の長さが欠けている）
+        Path tail = LogManager.listSegments(tempDir).lastEntry().getValue();
+        try (FileChannel ch = FileChannel.open(tail, StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - 3);
+        }
+
+        try (LogManager log = new LogManager(tempDir)) {
+            assertTrue(log.repairedTailBytes() > 0);
+            BufferMgr restarted = new BufferMgr(fm, BLOCK_SIZE, 4);
+            RecoveryMgr.Result r = new RecoveryMgr(fm, restarted, log).recover();
+            assertEquals(1, r.redone);
+            try (Tx tx = new Tx(fm, restarted, log, tempDir)) { // 切り詰めた位置から続けて書ける
+                tx.setInt(blk, 8, 300);
+                tx.commit();
+            }
+        }
+        try (LogManager log = new LogManager(tempDir)) {
+            assertEquals(0, log.repairedTailBytes());
+            new RecoveryMgr(fm, new BufferMgr(fm, BLOCK_SIZE, 4), log).recover();
+        }
+        assertEquals(100, readInt(0));
+        assertEquals(0, readInt(4));
+        assertEquals(300, readInt(8));
+    }
+
+    @Test
+    void checkpointsTruncateLogButKeepActiveTransactions() {
+        long segSize = LogManager.SEGMENT_HEADER_SIZE + 128;
+        try (LogManager log = new LogManager(tempDir, 64, 0, segSize, null)) {
+            RecoveryMgr rm = new RecoveryMgr(fm, bm, log);
+            for (int i = 0; i < 10; i++) {
+                try (Tx tx = new Tx(fm, bm, log, tempDir)) {
+                    tx.setInt(other, 0, i);
+                    tx.commit();
+                }
+            }
+            Tx open = new Tx(fm, bm, log, tempDir);
+            open.setInt(blk, 4, 7);
+            for (int i = 0; i < 10; i++) {
+                try (Tx tx = new Tx(fm, bm, log, tempDir)) {
+                    tx.setInt(other, 8, i);
+                    tx.commit();
+                }
+            }
+            int before = log.segmentCount();
+            rm.fuzzyCheckpoint();
+            assertTrue(log.segmentCount() < before);
+            assertTrue(log.firstLsn() > 0);
+
+            open.rollback(); // START は残っているので最後まで辿れる
+            bm.flushAll(); // チェックポイントで書き出された未コミットの値（steal）も戻っている
+            assertEquals(0, readInt(4));
+            rm.checkpoint();
+            assertEquals(1, log.segmentCount());
+        }
+    }
+
+    @Test
+    void rowOperationsOfUncommittedTransactionAreUndone() {
+        BufferMgr shared = BufferMgr.shared(fm);
+        TableFile tf = new TableFile(fm, "people.tbl", new Layout(new Schema().addInt("id").addString("name", 10)));
+        try (LogManager log = new LogManager(tempDir)) {
+            Tx committed = new Tx(fm, shared, log);
+            try (TableScan ts = new TableScan(fm, tf, committed)) {
+                ts.insert();
+                ts.setInt("id", 1);
+                ts.setString("name", "Ada");
+            }
+            committed.commit();
+
+            Tx crashed = new Tx(fm, shared, log);
+            try (TableScan ts = new TableScan(fm, tf, crashed)) {
+                ts.beforeFirst();
+                assertTrue(ts.next());
+                ts.setString("name", "Bob");
+                ts.delete();
+                ts.insert();
+                ts.setInt("id", 2);
+            }
+            log.flush();
+        }
+        try (LogManager log = new LogManager(tempDir)) {
+            RecoveryMgr.Result r = new RecoveryMgr(fm, shared, log).recover();
+            assertEquals(4, r.undone);
+        }
+        try (TableScan ts = new TableScan(fm, tf)) {
+            ts.beforeFirst();
+            assertTrue(ts.next());
+            assertEquals(1, ts.getInt("id"));
+            assertEquals("Ada", ts.getString("name"));
+            assertFalse(ts.next());
+        }
+    }
+
+    @Test
+    void pageImageIsRedoneOnlyOverOlderPageVersions() {
+        BlockId lost = fm.append("idx.bt");
+        BlockId newer = fm.append("idx.bt");
+        Page image = new Page(BLOCK_SIZE);
+        image.setInt(0, 1); // 版
+        image.setInt(4, 42);
+        try (LogManager log = new LogManager(tempDir)) {
+            Tx.logPageImage(log, lost, image.contents(), 0);
+            Tx.logPageImage(log, newer, image.contents(), 0);
+            log.flush();
+        }
+        // lost は書き出されずに落ちた（版 0）、newer はイメージより後の書き込みまで載っている（版 1）
+        Page p = new Page(BLOCK_SIZE);
+        p.setInt(0, 1);
+        p.setInt(4, 99);
+        fm.write(newer, p);
+
+        try (LogManager log = new LogManager(tempDir)) {
+            RecoveryMgr.Result r = new RecoveryMgr(fm, new BufferMgr(fm, BLOCK_SIZE, 4), log).recover();
+            assertEquals(1, r.redone);
+        }
+        fm.read(lost, p);
+        assertEquals(42, p.getInt(4));
+        fm.read(newer, p);
+        assertEquals(99, p.getInt(4));
+    }
+
+    private int readInt(int offset) {
+        return readInt(blk, offset);
+    }
+
+    private int readInt(BlockId b, int offset) {
+        Page p = new Page(BLOCK_SIZE);
+        fm.read(b, p);
+        return p.getInt(offset);
+    }
+}
@@ -0,0 +1,309 @@
+package app.tx;
+
+import app.memory.Buffer;
+import app.memory.BufferMgr;
+import app.memory.LogManager;
+import app.record.Layout;
+import app.record.RecordFormat;
+import app.record.Schema;
+import app.record.TableFile;
+import app.record.TableScan;
+import app.storage.BlockId;
+import app.storage.FileMgr;
+import app.storage.Page;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TxTest {
+
+    private static final int BLOCK_SIZE = 256;
+
+    @TempDir
+    Path tempDir;
+
+    private FileMgr fm;
+    private BufferMgr bm;
+    private BlockId blk;
+
+    @BeforeEach
+    void setUp() {
+        fm = new FileMgr(tempDir, BLOCK_SIZE);
+        bm = new BufferMgr(fm, BLOCK_SIZE, 4);
+        blk = fm.append("acct.tbl");
+    }
+
+    @Test
+    void syncCommitForcesAndRollbackRestoresOldValue() {
+        try (LogManager log = new LogManager(tempDir)) {
+            try (Tx tx = new Tx(fm, bm, log, tempDir)) {
+                tx.setInt(blk, 0, 100);
+                tx.commit();
+            }
+            assertEquals(0, log.durabilityLagBytes());
+            assertEquals(0, diskInt()); // no-force: コミットで force するのはログだけ
+            assertEquals(100, readInt());
+
+            try (Tx tx = new Tx(fm, bm, log, tempDir)) {
+                tx.setInt(blk, 0, 200);
+                assertEquals(200, readInt());
+                tx.rollback();
+            }
+            assertEquals(100, readInt());
+        }
+    }
+
+    @Test
+    void rollbackFollowsItsOwnChainAndSkipsOtherTransactionsRecords() {
+        try (LogManager log = new LogManager(tempDir)) {
+            try (Tx tx = new Tx(fm, bm, log, tempDir)) {
+                tx.setInt(blk, 0, 100);
+                // 間に他の Tx のレコードがあっても読まない（読めば型が不明で失敗する）
+                log.append(new byte[] { 0, 0, 0, 99, 0, 0, 0, 7 });
+                tx.setInt(blk, 4, 200);
+                log.append(new byte[] { 0, 0, 0, 99, 0, 0, 0, 7 });
+                tx.rollback();
+            }
+            Buffer buf = bm.pin(blk);
+            assertEquals(0, buf.contents().getInt(0));
+            assertEquals(0, buf.contents().getInt(4));
+            bm.unpin(buf);
+        }
+    }
+
+    @Test
+    void txKeepsPinsUntilCommitAndEvictedUncommittedPagesAreUndoneByRecovery() {
+        BlockId other = fm.append("acct.tbl");
+        try (LogManager log = new LogManager(tempDir)) {
+            Tx tx = new Tx(fm, bm, log);
+            for (int i = 0; i < 3; i++)
+                tx.setInt(blk, 4 * i, i + 1); // 同じブロックは 1 回だけ pin
+            tx.setInt(other, 0, 9);
+            assertEquals(2, bm.capacity() - bm.available());
+            assertEquals(2, bm.dirtyCount());
+            tx.commit();
+            assertEquals(bm.capacity(), bm.available());
+            assertEquals(2, bm.dirtyCount()); // 書き出しは追い出し/チェックポイントまで遅らせる
+
+            Tx crashed = new Tx(fm, bm, log);
+            crashed.setInt(blk, 0, 500);
+            bm.flushAll(); // 未コミットのページが書き出された（steal）後にクラッシュ
+            assertEquals(500, diskInt());
+        }
+        try (LogManager log = new LogManager(tempDir)) {
+            new RecoveryMgr(fm, new BufferMgr(fm, BLOCK_SIZE, 4), log).recover();
+        }
+        assertEquals(1, diskInt());
+    }
+
+    @Test
+    void asyncCommitReturnsBeforeForceAndFlusherCatchesUp() throws Exception {
+        // ページ書き出しで WAL が force されないよう、データ変更なしの Tx で測る
+        try (LogManager log = new LogManager(tempDir)) {
+            long forces = log.forceCount();
+            Tx tx = new Tx(fm, bm, log, tempDir, Tx.CommitMode.ASYNC);
+            assertEquals(Tx.CommitMode.ASYNC, tx.commitMode());
+            tx.commit();
+            assertTrue(log.isFlusherRunning());
+
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (log.durabilityLagBytes() > 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+            assertEquals(0, log.durabilityLagBytes());
+            assertEquals(0, log.durabilityLagMillis());
+            assertTrue(log.forceCount() > forces);
+        }
+    }
+
+    @Test
+    void rollbackUndoesRowInsertUpdateAndDeleteThroughTableScan() {
+        BufferMgr shared = BufferMgr.shared(fm);
+        TableFile tf = new TableFile(fm, "people.tbl", new Layout(new Schema().addInt("id").addString("name", 10)));
+        try (LogManager log = new LogManager(tempDir)) {
+            Tx setup = new Tx(fm, shared, log);
+            try (TableScan ts = new TableScan(fm, tf, setup)) {
+                ts.insert();
+                ts.setInt("id", 1);
+                ts.setString("name", "Ada");
+            }
+            setup.commit();
+
+            Tx tx = new Tx(fm, shared, log);
+            try (TableScan ts = new TableScan(fm, tf, tx)) {
+                ts.beforeFirst();
+                assertTrue(ts.next());
+                ts.setString("name", "Grace Hopper");
+                ts.delete();
+                ts.insert();
+                ts.setInt("id", 2);
+            }
+            tx.rollback();
+        }
+        try (TableScan ts = new TableScan(fm, tf)) {
+            ts.beforeFirst();
+            assertTrue(ts.next());
+            assertEquals(1, ts.getInt("id"));
+            assertEquals("Ada", ts.getString("name"));
+            assertFalse(ts.next());
+        }
+    }
+
+    @Test
+    void slottedInsertsLogOnlyTheChangedRanges() {
+        FileMgr fm = new FileMgr(tempDir.resolve("big"), 4096); // ページ丸ごとの記録と区別できる大きさ
+        BufferMgr shared = BufferMgr.shared(fm);
+        Layout layout = new Layout(new Schema().addInt("id").addString("name", 10).addString("note", 10),
+                RecordFormat.SLOTTED);
+        TableFile tf = new TableFile(fm, "slotted_log.tbl", layout);
+        try (LogManager log = new LogManager(tempDir)) {
+            Tx tx = new Tx(fm, shared, log);
+            try (TableScan ts = new TableScan(fm, tf, tx)) {
+                ts.insert(); // 最初のページの確保は除いて測る
+                long start = log.endLsn();
+                int rows = 20;
+                for (int i = 0; i < rows; i++) {
+                    ts.insert();
+                    ts.setInt("id", i);
+                    ts.setString("name", "r" + i);
+                    ts.setString("note", "n" + i);
+                }
+                // ヘッダ/スロット表/タプルを別々に記録するので、1 行分はページ 1 枚よりずっと小さい
+                long perRow = (log.endLsn() - start) / rows;
+                assertTrue(perRow < 1024, "log bytes per slotted insert: " + perRow);
+            }
+            tx.commit();
+        }
+    }
+
+    @Test
+    void rollbackUndoesSlottedPageChangesIncludingTupleMoves() {
+        BufferMgr shared = BufferMgr.shared(fm);
+        Layout layout = new Layout(new Schema().addInt("id").addString("name", 10).addString("note", 10),
+                RecordFormat.SLOTTED);
+        TableFile tf = new TableFile(fm, "slotted.tbl", layout);
+        try (LogManager log = new LogManager(tempDir)) {
+            Tx setup = new Tx(fm, shared, log);
+            try (TableScan ts = new TableScan(fm, tf, setup)) {
+                for (int i = 1; i <= 3; i++) {
+                    ts.insert();
+                    ts.setInt("id", i);
+                    ts.setString("name", "r" + i);
+                    ts.setString("note", "n" + i);
+                }
+            }
+            setup.commit();
+
+            Tx tx = new Tx(fm, shared, log);
+            try (TableScan ts = new TableScan(fm, tf, tx)) {
+                ts.beforeFirst();
+                assertTrue(ts.next());
+                ts.setString("name", "Grace Hopper"); // 最初の行は伸びて付け替わる
+                assertEquals("n1", ts.getString("note"));
+                assertTrue(ts.next());
+                ts.delete();
+                ts.insert();
+                ts.setInt("id", 4);
+                ts.setString("note", "new");
+            }
+            tx.rollback();
+        }
+        try (TableScan ts = new TableScan(fm, tf)) {
+            ts.beforeFirst();
+            for (int i = 1; i <= 3; i++) {
+                assertTrue(ts.next());
+                assertEquals(i, ts.getInt("id"));
+                assertEquals("r" + i, ts.getString("name"));
+                assertEquals("n" + i, ts.getString("note"));
+            }
+            assertFalse(ts.next());
+        }
+    }
+
+    @Test
+    void pageRecordsReferToFilesById() {
+        // ファイル名の長さに関係なく SET_INT は固定長
+        assertEquals(28, LogCodec.setInt(1, 7, 0, 0, 0, 1).length);
+        LogCodec.Parsed r = LogCodec.parse(LogCodec.setString(3, 7, 2, 16, new byte[4], new byte[] { 0, 0, 0, 1, 'x' }));
+        assertEquals(LogType.SET_STRING, r.type);
+        assertEquals(7, (int) r.fileId);
+        assertEquals(5, r.newBytes.length);
+
+        try (LogManager log = new LogManager(tempDir)) {
+            Tx tx = new Tx(fm, bm, log);
+            tx.setInt(blk, 0, 1);
+            tx.setInt(blk, 4, 2);
+            tx.commit();
+        }
+        long fileIds = new LogReader(tempDir).readAll().stream()
+                .filter(rec -> LogCodec.parse(rec).type == LogType.FILE_ID).count();
+        assertEquals(1, fileIds); // 同じファイルは 1 回だけ宣言
+    }
+
+    @Test
+    void txIdsAreReservedInBlocksAndNeverReusedAfterRestart() {
+        int last;
+        try (LogManager log = new LogManager(tempDir)) {
+            int first = new Tx(fm, bm, log).id();
+            Tx tx = null;
+            for (int i = 0; i < 10; i++) {
+                tx = new Tx(fm, bm, log);
+                tx.commit();
+            }
+            last = tx.id();
+            assertEquals(first + 10, last);
+        }
+        long reserves = new LogReader(tempDir).readAll().stream()
+                .filter(rec -> LogCodec.parse(rec).type == LogType.TXID_RESERVE).count();
+        assertEquals(1, reserves); // 予約は 1 ブロック分を 1 回だけ
+
+        // 再起動後は前回の予約の末尾から振る
+        int afterRestart;
+        try (LogManager log = new LogManager(tempDir)) {
+            new RecoveryMgr(fm, bm, log).recover(); // 最初の Tx は中断扱い。チェックポイントで古いログは切り捨て
+            Tx tx = new Tx(fm, bm, log);
+            tx.commit();
+            afterRestart = tx.id();
+            assertTrue(afterRestart > last);
+            assertEquals(TxIds.RESERVE_BLOCK + 1, afterRestart);
+        }
+        // 予約レコードが切り捨てられても、チェックポイントに載った予約から再開する
+        long segSize = LogManager.SEGMENT_HEADER_SIZE + 256;
+        int beforeCheckpoint = 0;
+        try (LogManager log = new LogManager(tempDir, 64, 0, segSize, null)) {
+            for (int i = 0; i < 20; i++) {
+                Tx tx = new Tx(fm, bm, log);
+                tx.commit();
+                beforeCheckpoint = tx.id();
+            }
+            new RecoveryMgr(fm, bm, log).checkpoint();
+            assertEquals(1, log.segmentCount());
+        }
+        assertEquals(0, new LogReader(tempDir).readAll().stream()
+                .filter(rec -> LogCodec.parse(rec).type == LogType.TXID_RESERVE).count());
+        try (LogManager log = new LogManager(tempDir, 64, 0, segSize, null)) {
+            Tx tx = new Tx(fm, bm, log);
+            tx.commit();
+            assertTrue(tx.id() > beforeCheckpoint);
+        }
+    }
+
+    // プール経由で読む（Tx の変更はコミット後も dirty のままプールに残る）
+    private int readInt() {
+        Buffer buf = bm.pin(blk);
+        try {
+            return buf.contents().getInt(0);
+        } finally {
+            bm.unpin(buf);
+        }
+    }
+
+    private int diskInt() {
+        Page p = new Page(BLOCK_SIZE);
+        fm.read(blk, p);
+        return p.getInt(0);
+    }
+}
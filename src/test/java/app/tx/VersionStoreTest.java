@@ -0,0 +1,140 @@
+package app.tx;
+
+import app.memory.BufferMgr;
+import app.memory.LogManager;
+import app.record.Layout;
+import app.record.Schema;
+import app.record.TableFile;
+import app.record.TableScan;
+import app.storage.FileMgr;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VersionStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FileMgr fm;
+    private BufferMgr bm;
+    private TableFile tf;
+    private LogManager log;
+
+    @BeforeEach
+    void setUp() {
+        fm = new FileMgr(tempDir, 256);
+        bm = BufferMgr.shared(fm);
+        tf = new TableFile(fm, "people.tbl", new Layout(new Schema().addInt("id").addString("name", 10)));
+        log = new LogManager(tempDir);
+    }
+
+    @AfterEach
+    void tearDown() {
+        log.close();
+        fm.close();
+    }
+
+    @Test
+    void snapshotSeesOnlyRowsCommittedBeforeItWithoutWaitingForWriters() {
+        Tx setup = new Tx(fm, bm, log);
+        try (TableScan ts = new TableScan(fm, tf, setup)) {
+            ts.insert();
+            ts.setInt("id", 1);
+            ts.setString("name", "Ada");
+        }
+        setup.commit();
+
+        VersionStore vs = VersionStore.shared(log);
+        Tx writer = new Tx(fm, bm, log);
+        try (TableScan ts = new TableScan(fm, tf, writer)) {
+            ts.beforeFirst();
+            assertTrue(ts.next());
+            ts.setString("name", "Bob");
+            ts.insert();
+            ts.setInt("id", 2);
+        }
+        try (Snapshot before = vs.snapshot()) {
+            // writer は X ロックを持ったまま。スナップショット読みは待たずに旧版を読む
+            assertEquals(List.of("1:Ada"), rows(before));
+            writer.commit();
+            assertEquals(List.of("1:Ada"), rows(before)); // 作成後のコミットも見えない
+            assertTrue(vs.versionCount() > 0);
+            try (Snapshot after = vs.snapshot()) {
+                assertEquals(List.of("1:Bob", "2:"), rows(after));
+            }
+        }
+        assertEquals(0, writer.lockTable().waitCount());
+        assertTrue(vs.reconstructedReads() > 0);
+        assertEquals(0, vs.versionCount()); // 最後の Snapshot が閉じたので vacuum 済み
+        assertEquals(0, vs.liveSnapshotCount());
+    }
+
+    @Test
+    void syncCommitBecomesVisibleToSnapshotsOnlyAfterItsForce() throws Exception {
+        try (LogManager slow = new LogManager(tempDir.resolve("slow"), LogManager.DEFAULT_BUFFER_SIZE, 300_000)) {
+            VersionStore vs = VersionStore.shared(slow);
+            Tx writer = new Tx(fm, bm, slow);
+            try (TableScan ts = new TableScan(fm, tf, writer)) {
+                ts.insert();
+                ts.setInt("id", 1);
+            }
+            // グループコミットの待ち時間のあいだ force は終わらない
+            Thread committer = new Thread(writer::commit);
+            committer.start();
+            Thread.sleep(100);
+            try (Snapshot during = vs.snapshot()) {
+                assertTrue(slow.durabilityLagBytes() > 0);
+                assertFalse(during.sees(writer.id()));
+            }
+            committer.join();
+            try (Snapshot after = vs.snapshot()) {
+                assertTrue(after.sees(writer.id()));
+            }
+        }
+    }
+
+    @Test
+    void rolledBackChangesAreNeverVisibleAndVersionsAreDroppedAtOnce() {
+        VersionStore vs = VersionStore.shared(log);
+        Tx tx = new Tx(fm, bm, log);
+        try (TableScan ts = new TableScan(fm, tf, tx)) {
+            ts.insert();
+            ts.setInt("id", 7);
+        }
+        try (Snapshot s = vs.snapshot()) {
+            assertEquals(List.of(), rows(s));
+            tx.rollback();
+            assertEquals(0, vs.versionCount());
+            assertEquals(List.of(), rows(s));
+            try (TableScan ts = new TableScan(fm, tf, s)) {
+                assertThrows(IllegalStateException.class, ts::insert);
+            }
+        }
+        // 書き込みの無いコミットは何も残さない。Snapshot が無ければコミット時に即回収
+        Tx t2 = new Tx(fm, bm, log);
+        try (TableScan ts = new TableScan(fm, tf, t2)) {
+            ts.insert();
+        }
+        t2.commit();
+        assertEquals(0, vs.versionCount());
+        assertEquals(vs.recordedCount(), vs.reclaimedCount());
+    }
+
+    private List<String> rows(Snapshot snap) {
+        List<String> out = new ArrayList<>();
+        try (TableScan ts = new TableScan(fm, tf, snap)) {
+            ts.beforeFirst();
+            while (ts.next())
+                out.add(ts.getInt("id") + ":" + ts.getString("name"));
+        }
+        return out;
+    }
+}